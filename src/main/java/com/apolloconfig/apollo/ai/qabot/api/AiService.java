@@ -5,6 +5,7 @@ import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.embedding.Embedding;
 import io.reactivex.Flowable;
 import java.util.List;
+import reactor.core.publisher.Mono;
 
 public interface AiService {
 
@@ -14,4 +15,10 @@ public interface AiService {
 
   List<Embedding> getEmbeddings(List<String> chunks);
 
+  /**
+   * Non-blocking counterpart of {@link #getEmbeddings(List)}, safe to be composed on the event
+   * loop.
+   */
+  Mono<List<Embedding>> getEmbeddingsAsync(List<String> chunks);
+
 }
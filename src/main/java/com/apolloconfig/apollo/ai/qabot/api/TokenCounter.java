@@ -0,0 +1,10 @@
+package com.apolloconfig.apollo.ai.qabot.api;
+
+public interface TokenCounter {
+
+  /**
+   * @return the number of tokens the model encodes the text into, implementations may estimate it
+   */
+  int countTokens(String text);
+
+}
@@ -1,17 +1,76 @@
 package com.apolloconfig.apollo.ai.qabot.api;
 
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownChunk;
 import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
 import com.theokanning.openai.embedding.Embedding;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import reactor.core.publisher.Mono;
 
 public interface VectorDBService {
 
-  void persistChunkEmbeddings(String fileRoot, List<String> chunks,
-      List<Embedding> embeddings);
+  /**
+   * Replace the chunks of the file. The persisted chunks which are still part of the file are
+   * kept as they are, the new chunks are inserted with their embeddings, and the others are
+   * deleted.
+   *
+   * @param chunks        all the chunks of the file
+   * @param newChunks     the chunks which are not persisted yet
+   * @param newEmbeddings the embeddings of the new chunks, in the same order
+   */
+  void persistChunkEmbeddings(String fileRoot, List<MarkdownChunk> chunks,
+      List<MarkdownChunk> newChunks, List<Embedding> newEmbeddings);
+
+  /**
+   * @return the hash values of the persisted chunks of the file, empty if the store does not keep
+   * them, in which case all the chunks are new
+   */
+  Set<String> queryChunkHashValues(String fileRoot);
 
   List<MarkdownSearchResult> search(List<List<Float>> searchVectors, int topK);
 
+  /**
+   * Non-blocking counterpart of {@link #search(List, int)}, safe to be composed on the event loop.
+   */
+  Mono<List<MarkdownSearchResult>> searchAsync(List<List<Float>> searchVectors, int topK);
+
   String queryFileHashValue(String fileRoot);
 
+  /**
+   * @return whether any file hash value is persisted, without querying all of them
+   */
+  boolean hasFiles();
+
+  /**
+   * @return the hash values of all the persisted files, keyed by their file roots
+   */
+  Map<String, String> queryAllFileHashValues();
+
+  /**
+   * @return the file roots of all the persisted chunks, including the ones without a persisted
+   * hash value, e.g. the run persisting them failed before persisting the hash value
+   */
+  Set<String> queryAllChunkFileRoots();
+
+  /**
+   * @return the contents of all the persisted chunks, keyed by their file roots
+   */
+  Map<String, List<String>> queryAllChunkContents();
+
   void persistFile(String fileRoot, String hashValue);
+
+  /**
+   * Remove the chunks and the hash values of the files, e.g. after the files are deleted.
+   *
+   * @return the number of the removed rows, i.e. the chunks and the hash values
+   */
+  int removeFiles(Collection<String> fileRoots);
+
+  /**
+   * Make the writes since the last flush durable and visible to the searches, they may be
+   * buffered until then. Called once at the end of each processing run.
+   */
+  void flush();
 }
@@ -0,0 +1,102 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The limits of the concurrent answer streams, the limit of the streams in flight adapts between
+ * minLimit and maxLimit to the time to the first token of the answers.
+ */
+@ConfigurationProperties(prefix = "qa.admission")
+@Component
+public class AdmissionConfig {
+
+  private boolean enabled = true;
+  private int initialLimit = 16;
+  private int minLimit = 2;
+  private int maxLimit = 64;
+  /**
+   * the max number of requests waiting for a stream, the requests beyond are shed immediately
+   */
+  private int queueSize = 32;
+  private long queueTimeoutMillis = 10000;
+  /**
+   * the limit grows while the first tokens arrive within it, and is cut by the backoff ratio
+   * otherwise
+   */
+  private long targetTimeToFirstTokenMillis = 5000;
+  private double backoffRatio = 0.7;
+  private int retryAfterSeconds = 5;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public int getInitialLimit() {
+    return initialLimit;
+  }
+
+  public void setInitialLimit(int initialLimit) {
+    this.initialLimit = initialLimit;
+  }
+
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  public void setMinLimit(int minLimit) {
+    this.minLimit = minLimit;
+  }
+
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  public void setMaxLimit(int maxLimit) {
+    this.maxLimit = maxLimit;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  public long getQueueTimeoutMillis() {
+    return queueTimeoutMillis;
+  }
+
+  public void setQueueTimeoutMillis(long queueTimeoutMillis) {
+    this.queueTimeoutMillis = queueTimeoutMillis;
+  }
+
+  public long getTargetTimeToFirstTokenMillis() {
+    return targetTimeToFirstTokenMillis;
+  }
+
+  public void setTargetTimeToFirstTokenMillis(long targetTimeToFirstTokenMillis) {
+    this.targetTimeToFirstTokenMillis = targetTimeToFirstTokenMillis;
+  }
+
+  public double getBackoffRatio() {
+    return backoffRatio;
+  }
+
+  public void setBackoffRatio(double backoffRatio) {
+    this.backoffRatio = backoffRatio;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public void setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+}
@@ -0,0 +1,51 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The bounded scheduler running the blocking OpenAI and vector database calls.
+ */
+@ConfigurationProperties(prefix = "qa.blocking-scheduler")
+@Component
+public class BlockingSchedulerConfig {
+
+  /**
+   * the max number of threads
+   */
+  private int threadCap = 50;
+
+  /**
+   * the max number of tasks waiting for a thread
+   */
+  private int queuedTaskCap = 1000;
+
+  /**
+   * the idle time in seconds before a thread is released
+   */
+  private int ttlSeconds = 60;
+
+  public int getThreadCap() {
+    return threadCap;
+  }
+
+  public void setThreadCap(int threadCap) {
+    this.threadCap = threadCap;
+  }
+
+  public int getQueuedTaskCap() {
+    return queuedTaskCap;
+  }
+
+  public void setQueuedTaskCap(int queuedTaskCap) {
+    this.queuedTaskCap = queuedTaskCap;
+  }
+
+  public int getTtlSeconds() {
+    return ttlSeconds;
+  }
+
+  public void setTtlSeconds(int ttlSeconds) {
+    this.ttlSeconds = ttlSeconds;
+  }
+}
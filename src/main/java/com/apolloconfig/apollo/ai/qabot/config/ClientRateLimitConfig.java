@@ -0,0 +1,82 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The questions each client may ask, the clients are told apart by the remote address, or by the
+ * client id header if the bot is behind a proxy setting it. Off by default, since behind a proxy
+ * without the client id header all the clients would share the bucket of the proxy address.
+ */
+@ConfigurationProperties(prefix = "qa.client-rate-limit")
+@Component
+public class ClientRateLimitConfig {
+
+  private boolean enabled = false;
+  private double questionsPerMinute = 10;
+  /**
+   * the questions a client may ask at once after being idle
+   */
+  private double burst = 10;
+  /**
+   * e.g. X-Forwarded-For, empty to use the remote address. The client writes the leading entries
+   * itself, so the client id is counted from the right by the trusted proxies.
+   */
+  private String clientIdHeader = "";
+  /**
+   * the proxies in front of the bot appending to the client id header, 1 takes the rightmost entry
+   */
+  private int trustedProxies = 1;
+  /**
+   * the max number of clients tracked, the least recently seen clients are forgotten beyond
+   */
+  private int maxClients = 65536;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public double getQuestionsPerMinute() {
+    return questionsPerMinute;
+  }
+
+  public void setQuestionsPerMinute(double questionsPerMinute) {
+    this.questionsPerMinute = questionsPerMinute;
+  }
+
+  public double getBurst() {
+    return burst;
+  }
+
+  public void setBurst(double burst) {
+    this.burst = burst;
+  }
+
+  public String getClientIdHeader() {
+    return clientIdHeader;
+  }
+
+  public void setClientIdHeader(String clientIdHeader) {
+    this.clientIdHeader = clientIdHeader;
+  }
+
+  public int getTrustedProxies() {
+    return trustedProxies;
+  }
+
+  public void setTrustedProxies(int trustedProxies) {
+    this.trustedProxies = trustedProxies;
+  }
+
+  public int getMaxClients() {
+    return maxClients;
+  }
+
+  public void setMaxClients(int maxClients) {
+    this.maxClients = maxClients;
+  }
+}
@@ -0,0 +1,43 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties(prefix = "qa.lexical-index")
+@Component
+public class LexicalIndexConfig {
+
+  private boolean enabled = true;
+  /**
+   * the BM25 term frequency saturation
+   */
+  private double k1 = 1.2;
+  /**
+   * the BM25 chunk length normalization, 0 to ignore the chunk lengths
+   */
+  private double b = 0.75;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public double getK1() {
+    return k1;
+  }
+
+  public void setK1(double k1) {
+    this.k1 = k1;
+  }
+
+  public double getB() {
+    return b;
+  }
+
+  public void setB(double b) {
+    this.b = b;
+  }
+}
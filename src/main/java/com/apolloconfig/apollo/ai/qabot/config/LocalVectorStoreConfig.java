@@ -0,0 +1,91 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+@Profile("local")
+@ConfigurationProperties(prefix = "local")
+@Component
+public class LocalVectorStoreConfig {
+
+  private int dimension = 1536;
+
+  private int maxConnections = 16;
+
+  private int efConstruction = 200;
+
+  private int efSearch = 64;
+
+  private double maxDeletedRatio = 0.3;
+
+  private String dataDirectory;
+
+  private long maxSegmentSize = 64 * 1024 * 1024;
+
+  private double maxSupersededRatio = 0.5;
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public void setDimension(int dimension) {
+    this.dimension = dimension;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getEfConstruction() {
+    return efConstruction;
+  }
+
+  public void setEfConstruction(int efConstruction) {
+    this.efConstruction = efConstruction;
+  }
+
+  public int getEfSearch() {
+    return efSearch;
+  }
+
+  public void setEfSearch(int efSearch) {
+    this.efSearch = efSearch;
+  }
+
+  public double getMaxDeletedRatio() {
+    return maxDeletedRatio;
+  }
+
+  public void setMaxDeletedRatio(double maxDeletedRatio) {
+    this.maxDeletedRatio = maxDeletedRatio;
+  }
+
+  public String getDataDirectory() {
+    return dataDirectory;
+  }
+
+  public void setDataDirectory(String dataDirectory) {
+    this.dataDirectory = dataDirectory;
+  }
+
+  public long getMaxSegmentSize() {
+    return maxSegmentSize;
+  }
+
+  public void setMaxSegmentSize(long maxSegmentSize) {
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  public double getMaxSupersededRatio() {
+    return maxSupersededRatio;
+  }
+
+  public void setMaxSupersededRatio(double maxSupersededRatio) {
+    this.maxSupersededRatio = maxSupersededRatio;
+  }
+}
@@ -11,6 +11,8 @@ public class MarkdownFilesConfig {
 
   private String location;
   private List<String> roots = Lists.newLinkedList();
+  private long watchDebounce = 2000;
+  private long watchMaxDelay = 30000;
 
   public List<String> getRoots() {
     return roots;
@@ -27,4 +29,20 @@ public class MarkdownFilesConfig {
   public void setRoots(List<String> roots) {
     this.roots = roots;
   }
+
+  public long getWatchDebounce() {
+    return watchDebounce;
+  }
+
+  public void setWatchDebounce(long watchDebounce) {
+    this.watchDebounce = watchDebounce;
+  }
+
+  public long getWatchMaxDelay() {
+    return watchMaxDelay;
+  }
+
+  public void setWatchMaxDelay(long watchMaxDelay) {
+    this.watchMaxDelay = watchMaxDelay;
+  }
 }
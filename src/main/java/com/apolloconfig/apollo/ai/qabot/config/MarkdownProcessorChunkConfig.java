@@ -0,0 +1,62 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The size limits of the chunks the markdown files are split into, a chunk has to stay within all
+ * of them. The milvus chunk_content field is limited in UTF-8 bytes, which neither the chars nor
+ * the tokens bound, e.g. a CJK char takes 3 bytes and a token of the vocabulary may merge several
+ * of them, so the bytes are limited on their own.
+ */
+@ConfigurationProperties(prefix = "markdown.processor.chunk")
+@Component
+public class MarkdownProcessorChunkConfig {
+
+  private int maxChars = 2500;
+  /**
+   * the max number of UTF-8 bytes of a chunk, the milvus chunk_content field holds at most 3000
+   */
+  private int maxBytes = 3000;
+  /**
+   * the max number of estimated tokens of a chunk
+   */
+  private int maxTokens = 800;
+  /**
+   * the max number of characters repeated from the end of a split section at the start of its
+   * next chunk, 0 to disable
+   */
+  private int overlapChars = 0;
+
+  public int getMaxChars() {
+    return maxChars;
+  }
+
+  public void setMaxChars(int maxChars) {
+    this.maxChars = maxChars;
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  public void setMaxBytes(int maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  public int getMaxTokens() {
+    return maxTokens;
+  }
+
+  public void setMaxTokens(int maxTokens) {
+    this.maxTokens = maxTokens;
+  }
+
+  public int getOverlapChars() {
+    return overlapChars;
+  }
+
+  public void setOverlapChars(int overlapChars) {
+    this.overlapChars = overlapChars;
+  }
+}
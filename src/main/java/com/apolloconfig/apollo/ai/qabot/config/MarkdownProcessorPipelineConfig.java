@@ -0,0 +1,73 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The max number of files in flight in each stage of the markdown processing pipeline.
+ */
+@ConfigurationProperties(prefix = "markdown.processor.pipeline")
+@Component
+public class MarkdownProcessorPipelineConfig {
+
+  private int readConcurrency = 8;
+  private int chunkConcurrency = 4;
+  private int embedConcurrency = 4;
+  /**
+   * the max number of chunks, possibly of different files, sent in one embedding request
+   */
+  private int embedBatchMaxInputs = 256;
+  /**
+   * the max number of estimated tokens sent in one embedding request
+   */
+  private int embedBatchMaxTokens = 50000;
+  private int persistConcurrency = 2;
+
+  public int getReadConcurrency() {
+    return readConcurrency;
+  }
+
+  public void setReadConcurrency(int readConcurrency) {
+    this.readConcurrency = readConcurrency;
+  }
+
+  public int getChunkConcurrency() {
+    return chunkConcurrency;
+  }
+
+  public void setChunkConcurrency(int chunkConcurrency) {
+    this.chunkConcurrency = chunkConcurrency;
+  }
+
+  public int getEmbedConcurrency() {
+    return embedConcurrency;
+  }
+
+  public void setEmbedConcurrency(int embedConcurrency) {
+    this.embedConcurrency = embedConcurrency;
+  }
+
+  public int getEmbedBatchMaxInputs() {
+    return embedBatchMaxInputs;
+  }
+
+  public void setEmbedBatchMaxInputs(int embedBatchMaxInputs) {
+    this.embedBatchMaxInputs = embedBatchMaxInputs;
+  }
+
+  public int getEmbedBatchMaxTokens() {
+    return embedBatchMaxTokens;
+  }
+
+  public void setEmbedBatchMaxTokens(int embedBatchMaxTokens) {
+    this.embedBatchMaxTokens = embedBatchMaxTokens;
+  }
+
+  public int getPersistConcurrency() {
+    return persistConcurrency;
+  }
+
+  public void setPersistConcurrency(int persistConcurrency) {
+    this.persistConcurrency = persistConcurrency;
+  }
+}
@@ -1,5 +1,8 @@
 package com.apolloconfig.apollo.ai.qabot.config;
 
+import io.milvus.common.clientenum.ConsistencyLevelEnum;
+import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
@@ -21,6 +24,14 @@ public class MilvusConfig {
 
   private String zillizCloudToken;
 
+  private Search search = new Search();
+
+  private Index index = new Index();
+
+  private Ingestion ingestion = new Ingestion();
+
+  private Write write = new Write();
+
   public String getHost() {
     return host;
   }
@@ -76,4 +87,159 @@ public class MilvusConfig {
   public void setZillizCloudToken(String zillizCloudToken) {
     this.zillizCloudToken = zillizCloudToken;
   }
+
+  public Search getSearch() {
+    return search;
+  }
+
+  public void setSearch(Search search) {
+    this.search = search;
+  }
+
+  public Index getIndex() {
+    return index;
+  }
+
+  public void setIndex(Index index) {
+    this.index = index;
+  }
+
+  public Ingestion getIngestion() {
+    return ingestion;
+  }
+
+  public void setIngestion(Ingestion ingestion) {
+    this.ingestion = ingestion;
+  }
+
+  public Write getWrite() {
+    return write;
+  }
+
+  public void setWrite(Write write) {
+    this.write = write;
+  }
+
+  /**
+   * The options of the user-facing vector search.
+   */
+  public static class Search {
+
+    private ConsistencyLevelEnum consistencyLevel = ConsistencyLevelEnum.BOUNDED;
+
+    /**
+     * The index specific search params in json, e.g. {"nprobe": 16} for IVF indexes or {"ef": 64}
+     * for HNSW.
+     */
+    private String params = "{}";
+
+    public ConsistencyLevelEnum getConsistencyLevel() {
+      return consistencyLevel;
+    }
+
+    public void setConsistencyLevel(ConsistencyLevelEnum consistencyLevel) {
+      this.consistencyLevel = consistencyLevel;
+    }
+
+    public String getParams() {
+      return params;
+    }
+
+    public void setParams(String params) {
+      this.params = params;
+    }
+  }
+
+  /**
+   * The index of the chunk embeddings, the deployed index is rebuilt on startup when it doesn't
+   * match. The openai embeddings are normalized, so IP ranks them the same as L2.
+   */
+  public static class Index {
+
+    private IndexType indexType = IndexType.FLAT;
+
+    private MetricType metricType = MetricType.L2;
+
+    /**
+     * The index specific build params in json, e.g. {"nlist": 1024} for IVF indexes or
+     * {"M": 16, "efConstruction": 200} for HNSW.
+     */
+    private String params = "{}";
+
+    public IndexType getIndexType() {
+      return indexType;
+    }
+
+    public void setIndexType(IndexType indexType) {
+      this.indexType = indexType;
+    }
+
+    public MetricType getMetricType() {
+      return metricType;
+    }
+
+    public void setMetricType(MetricType metricType) {
+      this.metricType = metricType;
+    }
+
+    public String getParams() {
+      return params;
+    }
+
+    public void setParams(String params) {
+      this.params = params;
+    }
+  }
+
+  /**
+   * The options of the bookkeeping queries issued while ingesting the markdown files.
+   */
+  public static class Ingestion {
+
+    private ConsistencyLevelEnum consistencyLevel = ConsistencyLevelEnum.STRONG;
+
+    private long queryPageSize = 1000;
+
+    public ConsistencyLevelEnum getConsistencyLevel() {
+      return consistencyLevel;
+    }
+
+    public void setConsistencyLevel(ConsistencyLevelEnum consistencyLevel) {
+      this.consistencyLevel = consistencyLevel;
+    }
+
+    public long getQueryPageSize() {
+      return queryPageSize;
+    }
+
+    public void setQueryPageSize(long queryPageSize) {
+      this.queryPageSize = queryPageSize;
+    }
+  }
+
+  /**
+   * The options of the inserts and deletes buffered while ingesting the markdown files.
+   */
+  public static class Write {
+
+    private int batchSize = 1000;
+
+    private int flushThreshold = 100000;
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    public int getFlushThreshold() {
+      return flushThreshold;
+    }
+
+    public void setFlushThreshold(int flushThreshold) {
+      this.flushThreshold = flushThreshold;
+    }
+  }
 }
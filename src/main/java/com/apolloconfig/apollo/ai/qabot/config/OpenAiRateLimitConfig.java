@@ -0,0 +1,41 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The initial rate limits of each openai endpoint, they are replaced by the limits reported in the
+ * x-ratelimit-* response headers.
+ */
+@ConfigurationProperties(prefix = "openai.rate-limit")
+@Component
+public class OpenAiRateLimitConfig {
+
+  private boolean enabled = true;
+  private long requestsPerMinute = 3000;
+  private long tokensPerMinute = 250000;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public long getRequestsPerMinute() {
+    return requestsPerMinute;
+  }
+
+  public void setRequestsPerMinute(long requestsPerMinute) {
+    this.requestsPerMinute = requestsPerMinute;
+  }
+
+  public long getTokensPerMinute() {
+    return tokensPerMinute;
+  }
+
+  public void setTokensPerMinute(long tokensPerMinute) {
+    this.tokensPerMinute = tokensPerMinute;
+  }
+}
@@ -0,0 +1,23 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * The location of the cl100k_base.tiktoken vocabulary, e.g. file:/path/to/cl100k_base.tiktoken,
+ * the tokens are estimated from the characters if it's empty.
+ */
+@ConfigurationProperties(prefix = "openai.tokenizer")
+@Component
+public class OpenAiTokenizerConfig {
+
+  private String vocabulary = "";
+
+  public String getVocabulary() {
+    return vocabulary;
+  }
+
+  public void setVocabulary(String vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+}
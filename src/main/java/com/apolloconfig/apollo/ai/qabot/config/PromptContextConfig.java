@@ -0,0 +1,36 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties(prefix = "qa.context")
+@Component
+public class PromptContextConfig {
+
+  /**
+   * the token budget of the whole prompt message, the chunks are packed into what the prompt and
+   * the question leave
+   */
+  private int maxPromptTokens = 3000;
+  /**
+   * the term set similarity above which a chunk is dropped as a near duplicate of a better ranked
+   * one, 1 to only drop the chunks with the same terms
+   */
+  private double nearDuplicateSimilarity = 0.8;
+
+  public int getMaxPromptTokens() {
+    return maxPromptTokens;
+  }
+
+  public void setMaxPromptTokens(int maxPromptTokens) {
+    this.maxPromptTokens = maxPromptTokens;
+  }
+
+  public double getNearDuplicateSimilarity() {
+    return nearDuplicateSimilarity;
+  }
+
+  public void setNearDuplicateSimilarity(double nearDuplicateSimilarity) {
+    this.nearDuplicateSimilarity = nearDuplicateSimilarity;
+  }
+}
@@ -0,0 +1,21 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+@Configuration
+public class SchedulerConfig {
+
+  /**
+   * The scheduler used to run the blocking OpenAI and vector database calls, so that they never
+   * occupy the netty event loop.
+   */
+  @Bean(destroyMethod = "dispose")
+  public Scheduler blockingScheduler(BlockingSchedulerConfig blockingSchedulerConfig) {
+    return Schedulers.newBoundedElastic(blockingSchedulerConfig.getThreadCap(),
+        blockingSchedulerConfig.getQueuedTaskCap(), "qa-blocking",
+        blockingSchedulerConfig.getTtlSeconds(), true);
+  }
+}
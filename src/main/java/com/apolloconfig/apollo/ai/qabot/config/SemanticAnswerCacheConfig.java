@@ -0,0 +1,46 @@
+package com.apolloconfig.apollo.ai.qabot.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@ConfigurationProperties(prefix = "qa.answer-cache")
+@Component
+public class SemanticAnswerCacheConfig {
+
+  private boolean enabled = true;
+  private long maximumSize = 1000;
+  private long expireAfterWrite = 86400000;
+  private double similarityThreshold = 0.97;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  public void setMaximumSize(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  public long getExpireAfterWrite() {
+    return expireAfterWrite;
+  }
+
+  public void setExpireAfterWrite(long expireAfterWrite) {
+    this.expireAfterWrite = expireAfterWrite;
+  }
+
+  public double getSimilarityThreshold() {
+    return similarityThreshold;
+  }
+
+  public void setSimilarityThreshold(double similarityThreshold) {
+    this.similarityThreshold = similarityThreshold;
+  }
+}
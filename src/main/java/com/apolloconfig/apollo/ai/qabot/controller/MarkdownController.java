@@ -6,6 +6,7 @@ import java.util.List;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
 
 @RestController
 @RequestMapping("/markdown")
@@ -22,7 +23,7 @@ public class MarkdownController {
   }
 
   @GetMapping("/load")
-  public List<String> loadAndProcessFiles() {
-    return markdownProcessor.loadAndProcessFiles(markdownFilesConfig.getLocation());
+  public Mono<List<String>> loadAndProcessFiles() {
+    return markdownProcessor.loadAndProcessFilesAsync(markdownFilesConfig.getLocation());
   }
 }
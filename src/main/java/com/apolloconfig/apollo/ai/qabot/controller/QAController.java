@@ -3,10 +3,26 @@ package com.apolloconfig.apollo.ai.qabot.controller;
 import com.apolloconfig.apollo.ai.qabot.api.AiService;
 import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
 import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.apolloconfig.apollo.ai.qabot.qa.AdmissionLimiter;
+import com.apolloconfig.apollo.ai.qabot.qa.AdmissionLimiter.Sampler;
+import com.apolloconfig.apollo.ai.qabot.qa.ClientRateLimiter;
+import com.apolloconfig.apollo.ai.qabot.qa.LexicalIndex;
+import com.apolloconfig.apollo.ai.qabot.qa.PromptContextPacker;
+import com.apolloconfig.apollo.ai.qabot.qa.PromptContextPacker.PackedContext;
+import com.apolloconfig.apollo.ai.qabot.qa.QAMetrics;
+import com.apolloconfig.apollo.ai.qabot.qa.QAMetrics.Result;
+import com.apolloconfig.apollo.ai.qabot.qa.QuestionEmbeddingCache;
+import com.apolloconfig.apollo.ai.qabot.qa.RankFusion;
+import com.apolloconfig.apollo.ai.qabot.qa.SemanticAnswerCache;
+import com.apolloconfig.apollo.ai.qabot.qa.SemanticAnswerCache.CachedAnswer;
+import com.apolloconfig.apollo.ai.qabot.qa.SingleFlight;
+import com.apolloconfig.apollo.ai.qabot.util.EmbeddingUtils;
+import com.apolloconfig.apollo.ai.qabot.util.QuestionUtils;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Floats;
 import com.theokanning.openai.completion.chat.ChatCompletionChunk;
-import com.theokanning.openai.embedding.Embedding;
 import io.reactivex.Flowable;
 import java.util.Collections;
 import java.util.List;
@@ -16,7 +32,9 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -34,6 +52,17 @@ public class QAController {
 
   private final AiService aiService;
   private final VectorDBService vectorDBService;
+  private final QuestionEmbeddingCache questionEmbeddingCache;
+  private final SemanticAnswerCache semanticAnswerCache;
+  private final LexicalIndex lexicalIndex;
+  private final PromptContextPacker promptContextPacker;
+  private final AdmissionLimiter admissionLimiter;
+  private final ClientRateLimiter clientRateLimiter;
+  private final QAMetrics qaMetrics;
+  /**
+   * the identical questions asked concurrently share one answer stream
+   */
+  private final SingleFlight<Answer> answerFlights = new SingleFlight<>();
 
   @Value("${qa.prompt}")
   private String prompt;
@@ -41,28 +70,40 @@ public class QAController {
   @Value("${qa.topK}")
   private int topK;
 
-  public QAController(AiService aiService, VectorDBService vectorDBService) {
+  @Value("${qa.rrfK}")
+  private int rrfK;
+
+  public QAController(AiService aiService, VectorDBService vectorDBService,
+      QuestionEmbeddingCache questionEmbeddingCache, SemanticAnswerCache semanticAnswerCache,
+      LexicalIndex lexicalIndex, PromptContextPacker promptContextPacker,
+      AdmissionLimiter admissionLimiter, ClientRateLimiter clientRateLimiter,
+      QAMetrics qaMetrics) {
     this.aiService = aiService;
     this.vectorDBService = vectorDBService;
+    this.questionEmbeddingCache = questionEmbeddingCache;
+    this.semanticAnswerCache = semanticAnswerCache;
+    this.lexicalIndex = lexicalIndex;
+    this.promptContextPacker = promptContextPacker;
+    this.admissionLimiter = admissionLimiter;
+    this.clientRateLimiter = clientRateLimiter;
+    this.qaMetrics = qaMetrics;
   }
 
   @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-  public Flux<Answer> qa(@RequestParam String question) {
-    question = question.trim();
-    if (Strings.isNullOrEmpty(question)) {
+  public Flux<Answer> qa(@RequestParam String question, ServerWebExchange exchange) {
+    String trimmedQuestion = question.trim();
+    if (Strings.isNullOrEmpty(trimmedQuestion)) {
       return Flux.just(Answer.EMPTY);
     }
 
-    try {
-      return doQA(question);
-    } catch (Throwable exception) {
+    return limitedQA(trimmedQuestion, exchange).onErrorResume(exception -> {
       LOGGER.error("Error while calling OpenAI API", exception);
       return Flux.just(Answer.ERROR);
-    }
+    });
   }
 
   /**
-   * @deprecated Use {@link #qa(String)} instead.
+   * @deprecated Use {@link #qa(String, ServerWebExchange)} instead.
    */
   @Deprecated
   @PostMapping
@@ -73,20 +114,20 @@ public class QAController {
         return Mono.just(Answer.EMPTY);
       }
 
-      try {
-        Flux<Answer> answer = doQA(question.trim());
-        return answer.reduce((a1, a2) -> {
-          if (Answer.END.answer().equals(a2.answer())) {
-            return a1;
-          }
-          a1.relatedFiles().addAll(a2.relatedFiles);
-
-          return new Answer(a1.answer() + a2.answer(), a1.relatedFiles);
-        });
-      } catch (Throwable exception) {
+      Flux<Answer> answer = limitedQA(question.trim(), serverWebExchange);
+      return answer.reduce((a1, a2) -> {
+        if (Answer.END.answer().equals(a2.answer())) {
+          return a1;
+        }
+        // the answers may be shared with other requests, so never mutate them
+        Set<String> relatedFiles = Sets.newLinkedHashSet(a1.relatedFiles());
+        relatedFiles.addAll(a2.relatedFiles());
+
+        return new Answer(a1.answer() + a2.answer(), relatedFiles);
+      }).onErrorResume(exception -> {
         LOGGER.error("Error while calling OpenAI API", exception);
         return Mono.just(Answer.ERROR);
-      }
+      });
     });
   }
 
@@ -95,17 +136,96 @@ public class QAController {
         .flatMap(data -> Mono.justOrEmpty(data.getFirst(fieldName)));
   }
 
-  private Flux<Answer> doQA(String question) {
-    List<MarkdownSearchResult> searchResults = searchFromVectorDB(question);
+  /**
+   * The rate limited and the shed answers are the first elements of their streams, so the headers
+   * are not committed yet when the Retry-After header is set.
+   */
+  private Flux<Answer> limitedQA(String question, ServerWebExchange exchange) {
+    ServerHttpResponse response = exchange.getResponse();
+    int retryAfterSeconds = clientRateLimiter.tryAcquire(exchange.getRequest());
+    if (retryAfterSeconds > 0) {
+      setRetryAfter(response, retryAfterSeconds);
+      qaMetrics.countAnswer(Result.RATE_LIMITED);
+      return Flux.just(Answer.RATE_LIMITED);
+    }
+
+    return coalescedQA(question).doOnNext(answer -> {
+      if (answer == Answer.BUSY) {
+        setRetryAfter(response, admissionLimiter.getRetryAfterSeconds());
+      }
+    });
+  }
+
+  /**
+   * The coalesced questions share one admitted stream, so only the first of them is limited.
+   */
+  private Flux<Answer> coalescedQA(String question) {
+    return answerFlights.execute(QuestionUtils.normalize(question),
+        () -> admissionLimiter.admit(sampler -> doQA(question, sampler), Answer.BUSY)
+            .doOnNext(answer -> {
+              if (answer == Answer.BUSY) {
+                qaMetrics.countAnswer(Result.BUSY);
+              }
+            })
+            .doOnError(exception -> qaMetrics.countAnswer(Result.ERROR)));
+  }
+
+  private void setRetryAfter(ServerHttpResponse response, int seconds) {
+    response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+  }
+
+  /**
+   * @param sampler samples the completion call only, the cached and the unknown answers never
+   *                reach it
+   */
+  private Flux<Answer> doQA(String question, Sampler sampler) {
+    // the lexical search takes microseconds, so it's done while the embedding request is in flight
+    Mono<List<MarkdownSearchResult>> lexicalSearch = Mono.fromSupplier(
+        () -> lexicalIndex.search(question, topK));
+
+    return Mono.zip(embedQuestion(question), lexicalSearch).flatMapMany(tuple -> {
+      float[] embedding = tuple.getT1();
+      CachedAnswer cachedAnswer = semanticAnswerCache.lookup(embedding);
+      if (cachedAnswer != null) {
+        qaMetrics.countAnswer(Result.CACHED);
+        return Flux.just(new Answer(cachedAnswer.answer(), cachedAnswer.relatedFiles()),
+            Answer.END);
+      }
+
+      long cacheGeneration = semanticAnswerCache.generation();
+      return searchFromVectorDB(embedding)
+          .map(vectorResults -> RankFusion.reciprocalRank(
+              Lists.newArrayList(vectorResults, tuple.getT2()), rrfK, topK))
+          .doOnNext(searchResults -> qaMetrics.recordChunksRetrieved(searchResults.size()))
+          .flatMapMany(searchResults -> answerFromSearchResults(searchResults, question,
+              embedding, cacheGeneration, sampler));
+    });
+  }
 
+  private Flux<Answer> answerFromSearchResults(List<MarkdownSearchResult> searchResults,
+      String question, float[] questionEmbedding, long cacheGeneration, Sampler sampler) {
     if (searchResults.isEmpty()) {
+      qaMetrics.countAnswer(Result.UNKNOWN);
+      return Flux.just(Answer.UNKNOWN);
+    }
+
+    String questionPrompt = prompt.replace("{question}", question);
+    PackedContext packedContext = qaMetrics.timePromptAssembly(
+        () -> promptContextPacker.pack(searchResults, questionPrompt.replace("{context}", "")));
+    LOGGER.info("Packed {} of {} chunks into {} prompt tokens, context {} tokens, "
+            + "{} near duplicates dropped, truncated: {}", packedContext.chunks().size(),
+        searchResults.size(), packedContext.promptTokens(), packedContext.contextTokens(),
+        packedContext.nearDuplicates(), packedContext.truncated());
+    if (packedContext.chunks().isEmpty()) {
+      qaMetrics.countAnswer(Result.UNKNOWN);
       return Flux.just(Answer.UNKNOWN);
     }
+    qaMetrics.recordPromptTokens(packedContext.promptTokens());
 
-    Set<String> relatedFiles = searchResults.stream()
+    Set<String> relatedFiles = packedContext.chunks().stream()
         .map(MarkdownSearchResult::getFileRoot).collect(Collectors.toSet());
 
-    String promptMessage = assemblePromptMessage(searchResults, question);
+    String promptMessage = questionPrompt.replace("{context}", packedContext.context());
 
     Flowable<ChatCompletionChunk> result = aiService.getCompletion(promptMessage);
 
@@ -114,38 +234,47 @@ public class QAController {
     }
 
     final AtomicInteger counter = new AtomicInteger();
-    Flux<Answer> flux = Flux.from(result.filter(
+    final StringBuilder answerBuilder = new StringBuilder();
+    Flux<Answer> flux = qaMetrics.timeCompletion(sampler.sample(Flux.from(result.filter(
         chatCompletionChunk -> chatCompletionChunk.getChoices().get(0).getMessage().getContent()
             != null).map(chatCompletionChunk -> {
       String value = chatCompletionChunk.getChoices().get(0).getMessage().getContent();
       if (LOGGER.isDebugEnabled()) {
         System.out.print(value);
       }
+      answerBuilder.append(value);
 
       return counter.incrementAndGet() == 1 ? new Answer(value, relatedFiles)
           : new Answer(value, Collections.emptySet());
-    }));
+    }))));
 
-    return flux.concatWith(Flux.just(Answer.END));
-  }
+    // only the completely streamed answers are cached
+    Mono<Answer> cacheAnswer = Mono.fromRunnable(() -> {
+      qaMetrics.countAnswer(Result.ANSWERED);
+      if (answerBuilder.length() > 0) {
+        semanticAnswerCache.put(question, questionEmbedding, answerBuilder.toString(),
+            relatedFiles, cacheGeneration);
+      }
+    });
 
-  private List<MarkdownSearchResult> searchFromVectorDB(String question) {
-    List<Embedding> embeddings = aiService.getEmbeddings(Lists.newArrayList(question));
+    return flux.concatWith(cacheAnswer).concatWith(Flux.just(Answer.END));
+  }
 
-    List<List<Float>> searchVectors = Collections.singletonList(
-        embeddings.get(0).getEmbedding().stream()
-            .map(Double::floatValue).collect(Collectors.toList()));
+  private Mono<List<MarkdownSearchResult>> searchFromVectorDB(float[] questionEmbedding) {
+    List<List<Float>> searchVectors = Collections.singletonList(Floats.asList(questionEmbedding));
 
-    return vectorDBService.search(searchVectors, topK);
+    return qaMetrics.timeVectorSearch(vectorDBService.searchAsync(searchVectors, topK));
   }
 
-  private String assemblePromptMessage(List<MarkdownSearchResult> searchResults, String question) {
-    StringBuilder sb = new StringBuilder();
-    searchResults.forEach(
-        markdownSearchResult -> sb.append(markdownSearchResult.getContent()).append("\n"));
+  private Mono<float[]> embedQuestion(String question) {
+    float[] cachedEmbedding = questionEmbeddingCache.getIfPresent(question);
+    if (cachedEmbedding != null) {
+      return Mono.just(cachedEmbedding);
+    }
 
-    return prompt.replace("{question}", question)
-        .replace("{context}", sb.toString());
+    return qaMetrics.timeEmbedding(aiService.getEmbeddingsAsync(Lists.newArrayList(question)))
+        .map(embeddings -> EmbeddingUtils.toFloatArray(embeddings.get(0)))
+        .doOnNext(embedding -> questionEmbeddingCache.put(question, embedding));
   }
 
   public record Answer(String answer, Set<String> relatedFiles) {
@@ -158,6 +287,14 @@ public class QAController {
         "Sorry, I can't answer your question right now. Please try again later.",
         Collections.emptySet());
 
+    static final Answer BUSY = new Answer(
+        "Sorry, too many questions are being answered right now. Please try again in a moment.",
+        Collections.emptySet());
+
+    static final Answer RATE_LIMITED = new Answer(
+        "Sorry, you are asking questions too fast. Please try again later.",
+        Collections.emptySet());
+
     static final Answer END = new Answer("$END$", Collections.emptySet());
   }
 }
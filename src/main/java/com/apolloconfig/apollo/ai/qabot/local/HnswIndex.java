@@ -0,0 +1,437 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A hierarchical navigable small world graph (https://arxiv.org/abs/1603.09320) using the squared
+ * L2 distance, with the vectors kept in contiguous primitive float pages.
+ * <p>
+ * Writes are serialized, while searches never block: a vector, its node and its own neighbor
+ * lists on all its levels are fully written before the node is linked into the neighbor lists of
+ * the other nodes through volatile writes, so a concurrent search only ever reaches completely
+ * inserted nodes. The back links are added level by level afterwards, which a search may observe
+ * half done, i.e. the new node is reachable on some levels but not on others yet.
+ */
+final class HnswIndex<T> {
+
+  private static final int PAGE_SHIFT = 10;
+  private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int MAX_LEVEL = 16;
+  private static final int[] NO_NEIGHBORS = new int[0];
+
+  private final int dimension;
+  private final int maxConnections;
+  private final int maxConnectionsOfLevel0;
+  private final int efConstruction;
+  private final double levelMultiplier;
+  private final Random random = new Random();
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  private volatile float[][] vectorPages = new float[0][];
+  private volatile Node<?>[] nodes = new Node<?>[0];
+  private volatile EntryPoint entryPoint;
+  private volatile int size;
+  private volatile int deletedCount;
+
+  HnswIndex(int dimension, int maxConnections, int efConstruction) {
+    Preconditions.checkArgument(dimension > 0, "dimension must be positive");
+    Preconditions.checkArgument(maxConnections > 1, "maxConnections must be greater than 1");
+    this.dimension = dimension;
+    this.maxConnections = maxConnections;
+    this.maxConnectionsOfLevel0 = maxConnections * 2;
+    this.efConstruction = Math.max(efConstruction, maxConnections);
+    this.levelMultiplier = 1 / Math.log(maxConnections);
+  }
+
+  /**
+   * @return the id of the added node
+   */
+  int add(float[] vector, T payload) {
+    Preconditions.checkArgument(vector.length == dimension,
+        "Expected vector dimension %s but was %s", dimension, vector.length);
+    writeLock.lock();
+    try {
+      int id = size;
+      ensureCapacity(id + 1);
+      float[] page = vectorPages[id >>> PAGE_SHIFT];
+      System.arraycopy(vector, 0, page, (id & (PAGE_SIZE - 1)) * dimension, dimension);
+
+      int level = randomLevel();
+      Node<T> node = new Node<>(payload, level);
+      nodes[id] = node;
+
+      EntryPoint currentEntryPoint = entryPoint;
+      if (currentEntryPoint == null) {
+        size = id + 1;
+        entryPoint = new EntryPoint(id, level);
+        return id;
+      }
+
+      long current = encode(distance(vector, currentEntryPoint.node), currentEntryPoint.node);
+      for (int l = currentEntryPoint.level; l > level; l--) {
+        current = greedySearch(vector, current, l);
+      }
+      int topLevel = Math.min(level, currentEntryPoint.level);
+      for (int l = topLevel; l >= 0; l--) {
+        long[] candidates = searchLayer(vector, current, efConstruction, l, new BitSet(id + 1));
+        node.neighbors.set(l, selectNeighbors(candidates, maxConnections(l)));
+        current = candidates[0];
+      }
+      // the back links of a level only change the searches of that level, so they are added once
+      // the node is complete, without changing the graph built
+      for (int l = topLevel; l >= 0; l--) {
+        for (int neighbor : node.neighbors.get(l)) {
+          connect(neighbor, id, l);
+        }
+      }
+
+      size = id + 1;
+      if (level > currentEntryPoint.level) {
+        entryPoint = new EntryPoint(id, level);
+      }
+      return id;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Mark the node as deleted. Deleted nodes are still traversed, but never returned, until the
+   * index is rebuilt.
+   */
+  void remove(int id) {
+    writeLock.lock();
+    try {
+      Node<?> node = node(id);
+      if (!node.deleted) {
+        node.deleted = true;
+        deletedCount++;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * @return the payloads of the nearest live nodes, nearest first
+   */
+  List<T> search(float[] query, int topK, int ef) {
+    Preconditions.checkArgument(query.length == dimension,
+        "Expected vector dimension %s but was %s", dimension, query.length);
+    EntryPoint currentEntryPoint = entryPoint;
+    if (currentEntryPoint == null || topK <= 0) {
+      return Collections.emptyList();
+    }
+
+    long current = encode(distance(query, currentEntryPoint.node), currentEntryPoint.node);
+    for (int l = currentEntryPoint.level; l > 0; l--) {
+      current = greedySearch(query, current, l);
+    }
+    long[] candidates = searchLayer(query, current, Math.max(ef, topK), 0, new BitSet(size));
+
+    List<T> results = new ArrayList<>(topK);
+    for (int i = 0; i < candidates.length && results.size() < topK; i++) {
+      Node<T> node = node(idOf(candidates[i]));
+      if (!node.deleted) {
+        results.add(node.payload);
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Visit the vectors and payloads of all the live nodes, in insertion order.
+   */
+  void forEachLive(BiConsumer<float[], T> consumer) {
+    int currentSize = size;
+    for (int id = 0; id < currentSize; id++) {
+      Node<T> node = node(id);
+      if (!node.deleted) {
+        consumer.accept(vector(id), node.payload);
+      }
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  int deletedCount() {
+    return deletedCount;
+  }
+
+  /**
+   * @return a copy of the vector of the node
+   */
+  float[] vector(int id) {
+    float[] vector = new float[dimension];
+    System.arraycopy(vectorPages[id >>> PAGE_SHIFT], (id & (PAGE_SIZE - 1)) * dimension, vector, 0,
+        dimension);
+    return vector;
+  }
+
+  private long greedySearch(float[] query, long current, int level) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int neighbor : node(idOf(current)).neighbors.get(level)) {
+        float distance = distance(query, neighbor);
+        if (distance < distanceOf(current)) {
+          current = encode(distance, neighbor);
+          changed = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * @return the encoded nearest nodes found on the level, nearest first
+   */
+  private long[] searchLayer(float[] query, long entry, int ef, int level, BitSet visited) {
+    LongHeap candidates = new LongHeap(ef * 2);
+    // the results are kept in a max heap by negating the keys
+    LongHeap results = new LongHeap(ef + 1);
+    candidates.push(entry);
+    results.push(-entry);
+    visited.set(idOf(entry));
+
+    while (!candidates.isEmpty()) {
+      long candidate = candidates.pop();
+      if (results.size() >= ef && distanceOf(candidate) > distanceOf(-results.peek())) {
+        break;
+      }
+      for (int neighbor : node(idOf(candidate)).neighbors.get(level)) {
+        if (visited.get(neighbor)) {
+          continue;
+        }
+        visited.set(neighbor);
+        float distance = distance(query, neighbor);
+        if (results.size() < ef || distance < distanceOf(-results.peek())) {
+          long key = encode(distance, neighbor);
+          candidates.push(key);
+          results.push(-key);
+          if (results.size() > ef) {
+            results.pop();
+          }
+        }
+      }
+    }
+
+    long[] nearest = new long[results.size()];
+    for (int i = nearest.length - 1; i >= 0; i--) {
+      nearest[i] = -results.pop();
+    }
+    return nearest;
+  }
+
+  /**
+   * The neighbor selection heuristic of the paper: prefer the candidates closer to the base node
+   * than to any already selected neighbor, then fill up with the remaining nearest ones.
+   */
+  private int[] selectNeighbors(long[] candidates, int max) {
+    int[] selected = new int[Math.min(max, candidates.length)];
+    boolean[] taken = new boolean[candidates.length];
+    int count = 0;
+    for (int i = 0; i < candidates.length && count < selected.length; i++) {
+      int candidate = idOf(candidates[i]);
+      float distance = distanceOf(candidates[i]);
+      boolean diverse = true;
+      for (int j = 0; j < count; j++) {
+        if (distance(candidate, selected[j]) < distance) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[count++] = candidate;
+        taken[i] = true;
+      }
+    }
+    for (int i = 0; i < candidates.length && count < selected.length; i++) {
+      if (!taken[i]) {
+        selected[count++] = idOf(candidates[i]);
+      }
+    }
+    return selected;
+  }
+
+  private void connect(int from, int to, int level) {
+    Node<?> node = node(from);
+    int[] neighbors = node.neighbors.get(level);
+    int max = maxConnections(level);
+    if (neighbors.length < max) {
+      int[] updated = Arrays.copyOf(neighbors, neighbors.length + 1);
+      updated[neighbors.length] = to;
+      node.neighbors.set(level, updated);
+      return;
+    }
+
+    long[] candidates = new long[neighbors.length + 1];
+    for (int i = 0; i < neighbors.length; i++) {
+      candidates[i] = encode(distance(from, neighbors[i]), neighbors[i]);
+    }
+    candidates[neighbors.length] = encode(distance(from, to), to);
+    Arrays.sort(candidates);
+    node.neighbors.set(level, selectNeighbors(candidates, max));
+  }
+
+  private int maxConnections(int level) {
+    return level == 0 ? maxConnectionsOfLevel0 : maxConnections;
+  }
+
+  private int randomLevel() {
+    double level = -Math.log(1 - random.nextDouble()) * levelMultiplier;
+    return (int) Math.min(level, MAX_LEVEL);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(capacity, nodes.length * 2));
+    }
+    int pages = (capacity + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    if (pages > vectorPages.length) {
+      float[][] grown = Arrays.copyOf(vectorPages, pages);
+      for (int i = vectorPages.length; i < pages; i++) {
+        grown[i] = new float[PAGE_SIZE * dimension];
+      }
+      vectorPages = grown;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Node<T> node(int id) {
+    return (Node<T>) nodes[id];
+  }
+
+  private float distance(float[] query, int id) {
+    float[] page = vectorPages[id >>> PAGE_SHIFT];
+    int offset = (id & (PAGE_SIZE - 1)) * dimension;
+    float sum = 0;
+    for (int i = 0; i < dimension; i++) {
+      float diff = query[i] - page[offset + i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  private float distance(int a, int b) {
+    float[][] pages = vectorPages;
+    float[] pageA = pages[a >>> PAGE_SHIFT];
+    float[] pageB = pages[b >>> PAGE_SHIFT];
+    int offsetA = (a & (PAGE_SIZE - 1)) * dimension;
+    int offsetB = (b & (PAGE_SIZE - 1)) * dimension;
+    float sum = 0;
+    for (int i = 0; i < dimension; i++) {
+      float diff = pageA[offsetA + i] - pageB[offsetB + i];
+      sum += diff * diff;
+    }
+    return sum;
+  }
+
+  /**
+   * Encode the distance and the node id into one long which sorts by distance, the raw bits of a
+   * non-negative float have the same order as the float itself.
+   */
+  private static long encode(float distance, int id) {
+    return ((long) Float.floatToIntBits(distance) << 32) | (id & 0xFFFFFFFFL);
+  }
+
+  private static float distanceOf(long key) {
+    return Float.intBitsToFloat((int) (key >>> 32));
+  }
+
+  private static int idOf(long key) {
+    return (int) key;
+  }
+
+  private static final class Node<T> {
+
+    private final T payload;
+    private final AtomicReferenceArray<int[]> neighbors;
+    private volatile boolean deleted;
+
+    private Node(T payload, int level) {
+      this.payload = payload;
+      this.neighbors = new AtomicReferenceArray<>(level + 1);
+      for (int i = 0; i <= level; i++) {
+        neighbors.set(i, NO_NEIGHBORS);
+      }
+    }
+  }
+
+  private record EntryPoint(int node, int level) {
+
+  }
+
+  /**
+   * A min heap of primitive longs.
+   */
+  private static final class LongHeap {
+
+    private long[] heap;
+    private int size;
+
+    private LongHeap(int initialCapacity) {
+      this.heap = new long[Math.max(initialCapacity, 4)];
+    }
+
+    private void push(long value) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, size * 2);
+      }
+      int index = size++;
+      while (index > 0) {
+        int parent = (index - 1) >>> 1;
+        if (heap[parent] <= value) {
+          break;
+        }
+        heap[index] = heap[parent];
+        index = parent;
+      }
+      heap[index] = value;
+    }
+
+    private long peek() {
+      return heap[0];
+    }
+
+    private long pop() {
+      long top = heap[0];
+      long last = heap[--size];
+      int index = 0;
+      int half = size >>> 1;
+      while (index < half) {
+        int child = 2 * index + 1;
+        if (child + 1 < size && heap[child + 1] < heap[child]) {
+          child++;
+        }
+        if (last <= heap[child]) {
+          break;
+        }
+        heap[index] = heap[child];
+        index = child;
+      }
+      heap[index] = last;
+      return top;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private boolean isEmpty() {
+      return size == 0;
+    }
+  }
+}
@@ -0,0 +1,5 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+record LocalChunk(String fileRoot, String content, String hashValue) {
+
+}
@@ -0,0 +1,374 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
+import com.apolloconfig.apollo.ai.qabot.config.LocalVectorStoreConfig;
+import com.apolloconfig.apollo.ai.qabot.local.SegmentStore.StoredChunk;
+import com.apolloconfig.apollo.ai.qabot.local.SegmentStore.StoredFile;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownChunk;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.apolloconfig.apollo.ai.qabot.util.EmbeddingUtils;
+import com.apolloconfig.apollo.ai.qabot.util.HashUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Floats;
+import com.theokanning.openai.embedding.Embedding;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * An in-process vector store, so the bot can answer without any external vector database.
+ * <p>
+ * When a data directory is configured, everything persisted is also appended to a
+ * {@link SegmentStore}. On restart the segments are mapped and searched by brute force right
+ * away, while the graph is rebuilt from them in the background.
+ */
+@Profile("local")
+@Service
+class LocalVectorDBService implements VectorDBService {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LocalVectorDBService.class);
+
+  private final LocalVectorStoreConfig localVectorStoreConfig;
+  private final Object writeLock = new Object();
+  /**
+   * the node ids of the chunks of each file, keyed by the chunk hash values, guarded by writeLock
+   */
+  private final Map<String, Map<String, Integer>> nodeIdsByFileRoot = Maps.newHashMap();
+  private final Map<String, String> fileHashValues = Maps.newConcurrentMap();
+  private final SegmentStore segmentStore;
+  private final CountDownLatch indexBuilt = new CountDownLatch(1);
+  private volatile HnswIndex<LocalChunk> index;
+  /**
+   * the chunks restored from the segment store, searched until the graph is built from them
+   */
+  private volatile List<StoredChunk> restoredChunks;
+
+  public LocalVectorDBService(LocalVectorStoreConfig localVectorStoreConfig) throws IOException {
+    this.localVectorStoreConfig = localVectorStoreConfig;
+    this.index = newIndex();
+
+    if (Strings.isNullOrEmpty(localVectorStoreConfig.getDataDirectory())) {
+      this.segmentStore = null;
+      indexBuilt.countDown();
+      return;
+    }
+
+    this.segmentStore = SegmentStore.open(Paths.get(localVectorStoreConfig.getDataDirectory()),
+        localVectorStoreConfig.getDimension(), localVectorStoreConfig.getMaxSegmentSize(),
+        localVectorStoreConfig.getMaxSupersededRatio());
+    List<StoredChunk> storedChunks = new ArrayList<>();
+    for (Map.Entry<String, StoredFile> entry : segmentStore.getStoredFiles().entrySet()) {
+      if (entry.getValue().hashValue() != null) {
+        fileHashValues.put(entry.getKey(), entry.getValue().hashValue());
+      }
+      storedChunks.addAll(entry.getValue().chunks());
+    }
+    LOGGER.info("Restored {} files and {} chunks from {}", fileHashValues.size(),
+        storedChunks.size(), localVectorStoreConfig.getDataDirectory());
+
+    this.restoredChunks = storedChunks;
+    Thread builder = new Thread(() -> buildIndex(storedChunks), "local-vector-index-builder");
+    builder.setDaemon(true);
+    builder.start();
+  }
+
+  @Override
+  public void persistChunkEmbeddings(String fileRoot, List<MarkdownChunk> chunks,
+      List<MarkdownChunk> newChunks, List<Embedding> newEmbeddings) {
+    awaitIndexBuilt();
+    Map<String, float[]> newVectors = Maps.newHashMap();
+    for (int i = 0; i < newChunks.size(); i++) {
+      newVectors.put(newChunks.get(i).hashValue(),
+          EmbeddingUtils.toFloatArray(newEmbeddings.get(i)));
+    }
+
+    synchronized (writeLock) {
+      Map<String, Integer> currentNodeIds = nodeIdsByFileRoot.getOrDefault(fileRoot,
+          Collections.emptyMap());
+      List<float[]> vectors = new ArrayList<>(chunks.size());
+      for (MarkdownChunk chunk : chunks) {
+        float[] vector = newVectors.get(chunk.hashValue());
+        if (vector == null) {
+          Integer nodeId = currentNodeIds.get(chunk.hashValue());
+          Preconditions.checkArgument(nodeId != null, "No embedding for chunk %s of %s",
+              chunk.hashValue(), fileRoot);
+          vector = index.vector(nodeId);
+        }
+        vectors.add(vector);
+      }
+
+      if (segmentStore != null) {
+        try {
+          segmentStore.appendChunks(fileRoot,
+              chunks.stream().map(MarkdownChunk::content).collect(Collectors.toList()), vectors);
+        } catch (IOException ex) {
+          throw new UncheckedIOException("Failed to persist the chunks of " + fileRoot, ex);
+        }
+      }
+
+      Map<String, Integer> nodeIds = new LinkedHashMap<>();
+      for (int i = 0; i < chunks.size(); i++) {
+        MarkdownChunk chunk = chunks.get(i);
+        Integer currentNodeId = currentNodeIds.get(chunk.hashValue());
+        if (currentNodeId != null && !newVectors.containsKey(chunk.hashValue())) {
+          nodeIds.put(chunk.hashValue(), currentNodeId);
+        } else {
+          nodeIds.put(chunk.hashValue(), index.add(vectors.get(i),
+              new LocalChunk(fileRoot, chunk.content(), chunk.hashValue())));
+        }
+      }
+
+      currentNodeIds.forEach((hashValue, nodeId) -> {
+        if (!nodeId.equals(nodeIds.get(hashValue))) {
+          index.remove(nodeId);
+        }
+      });
+      nodeIdsByFileRoot.put(fileRoot, nodeIds);
+
+      rebuildIfNecessary();
+    }
+  }
+
+  @Override
+  public Set<String> queryChunkHashValues(String fileRoot) {
+    awaitIndexBuilt();
+    synchronized (writeLock) {
+      return ImmutableSet.copyOf(
+          nodeIdsByFileRoot.getOrDefault(fileRoot, Collections.emptyMap()).keySet());
+    }
+  }
+
+  @Override
+  public List<MarkdownSearchResult> search(List<List<Float>> searchVectors, int topK) {
+    float[] query = Floats.toArray(searchVectors.get(0));
+    List<StoredChunk> chunksToScan = restoredChunks;
+    if (chunksToScan != null) {
+      return scan(chunksToScan, query, topK);
+    }
+
+    List<LocalChunk> chunks = index.search(query, topK, localVectorStoreConfig.getEfSearch());
+
+    return chunks.stream()
+        .map(chunk -> new MarkdownSearchResult(chunk.fileRoot(), chunk.content()))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public Mono<List<MarkdownSearchResult>> searchAsync(List<List<Float>> searchVectors, int topK) {
+    // searching the in-process index is cheap and never blocks
+    return Mono.fromCallable(() -> search(searchVectors, topK));
+  }
+
+  @Override
+  public String queryFileHashValue(String fileRoot) {
+    return fileHashValues.get(fileRoot);
+  }
+
+  @Override
+  public boolean hasFiles() {
+    awaitIndexBuilt();
+    return !fileHashValues.isEmpty();
+  }
+
+  @Override
+  public Map<String, String> queryAllFileHashValues() {
+    return ImmutableMap.copyOf(fileHashValues);
+  }
+
+  @Override
+  public Set<String> queryAllChunkFileRoots() {
+    awaitIndexBuilt();
+    synchronized (writeLock) {
+      return nodeIdsByFileRoot.entrySet().stream()
+          .filter(entry -> !entry.getValue().isEmpty())
+          .map(Map.Entry::getKey)
+          .collect(ImmutableSet.toImmutableSet());
+    }
+  }
+
+  @Override
+  public Map<String, List<String>> queryAllChunkContents() {
+    awaitIndexBuilt();
+    Map<String, List<String>> chunkContents = Maps.newHashMap();
+    synchronized (writeLock) {
+      index.forEachLive((vector, chunk) -> chunkContents
+          .computeIfAbsent(chunk.fileRoot(), key -> new ArrayList<>())
+          .add(chunk.content()));
+    }
+    return chunkContents;
+  }
+
+  @Override
+  public void persistFile(String fileRoot, String hashValue) {
+    if (segmentStore != null) {
+      try {
+        segmentStore.appendFileHash(fileRoot, hashValue);
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Failed to persist the hash value of " + fileRoot, ex);
+      }
+    }
+    fileHashValues.put(fileRoot, hashValue);
+  }
+
+  @Override
+  public int removeFiles(Collection<String> fileRoots) {
+    awaitIndexBuilt();
+    synchronized (writeLock) {
+      int removedRows = 0;
+      for (String fileRoot : fileRoots) {
+        removedRows += removeFile(fileRoot);
+      }
+      return removedRows;
+    }
+  }
+
+  private int removeFile(String fileRoot) {
+    if (segmentStore != null) {
+      try {
+        segmentStore.appendFileRemoval(fileRoot);
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Failed to persist the removal of " + fileRoot, ex);
+      }
+    }
+
+    int removedRows = 0;
+    Map<String, Integer> nodeIds = nodeIdsByFileRoot.remove(fileRoot);
+    if (nodeIds != null) {
+      nodeIds.values().forEach(index::remove);
+      removedRows += nodeIds.size();
+      rebuildIfNecessary();
+    }
+    if (fileHashValues.remove(fileRoot) != null) {
+      removedRows++;
+    }
+
+    return removedRows;
+  }
+
+  /**
+   * The segments are only forced to disk once per run, a record lost in a crash is after all the
+   * chunk records of its file, so the file is processed again.
+   */
+  @Override
+  public void flush() {
+    if (segmentStore != null) {
+      try {
+        segmentStore.sync();
+      } catch (IOException ex) {
+        throw new UncheckedIOException("Failed to sync the segments", ex);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void close() throws IOException {
+    if (segmentStore != null) {
+      segmentStore.close();
+    }
+  }
+
+  private void buildIndex(List<StoredChunk> storedChunks) {
+    try {
+      synchronized (writeLock) {
+        int dimension = localVectorStoreConfig.getDimension();
+        for (StoredChunk chunk : storedChunks) {
+          float[] vector = new float[dimension];
+          chunk.vector().get(0, vector);
+          String hashValue = HashUtils.sha256(chunk.content());
+          nodeIdsByFileRoot.computeIfAbsent(chunk.fileRoot(), key -> new LinkedHashMap<>())
+              .put(hashValue, index.add(vector,
+                  new LocalChunk(chunk.fileRoot(), chunk.content(), hashValue)));
+        }
+        restoredChunks = null;
+      }
+      LOGGER.info("Built the local vector index from {} restored chunks", storedChunks.size());
+    } catch (Throwable ex) {
+      LOGGER.error("Failed to build the local vector index, keep searching by brute force", ex);
+    } finally {
+      indexBuilt.countDown();
+    }
+  }
+
+  private void awaitIndexBuilt() {
+    try {
+      indexBuilt.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the local vector index", ex);
+    }
+  }
+
+  private List<MarkdownSearchResult> scan(List<StoredChunk> chunks, float[] query, int topK) {
+    double[] distances = new double[chunks.size()];
+    for (int i = 0; i < chunks.size(); i++) {
+      distances[i] = distance(chunks.get(i), query);
+    }
+
+    return IntStream.range(0, chunks.size()).boxed()
+        .sorted(Comparator.comparingDouble(i -> distances[i]))
+        .limit(topK)
+        .map(chunks::get)
+        .map(chunk -> new MarkdownSearchResult(chunk.fileRoot(), chunk.content()))
+        .collect(Collectors.toList());
+  }
+
+  private double distance(StoredChunk chunk, float[] query) {
+    double distance = 0;
+    for (int i = 0; i < query.length; i++) {
+      double difference = chunk.vector().get(i) - query[i];
+      distance += difference * difference;
+    }
+    return distance;
+  }
+
+  /**
+   * The deleted nodes are only marked in the graph, so rebuild it once there are too many of them.
+   * Searches keep using the old graph until the new one is complete.
+   */
+  private void rebuildIfNecessary() {
+    HnswIndex<LocalChunk> currentIndex = index;
+    if (currentIndex.deletedCount()
+        <= currentIndex.size() * localVectorStoreConfig.getMaxDeletedRatio()) {
+      return;
+    }
+
+    HnswIndex<LocalChunk> rebuiltIndex = newIndex();
+    Map<String, Map<String, Integer>> rebuiltNodeIds = Maps.newHashMap();
+    currentIndex.forEachLive((vector, chunk) -> rebuiltNodeIds
+        .computeIfAbsent(chunk.fileRoot(), key -> new LinkedHashMap<>())
+        .put(chunk.hashValue(), rebuiltIndex.add(vector, chunk)));
+
+    nodeIdsByFileRoot.clear();
+    nodeIdsByFileRoot.putAll(rebuiltNodeIds);
+    index = rebuiltIndex;
+
+    LOGGER.debug("Rebuilt the local vector index, {} live nodes, {} deleted nodes dropped",
+        rebuiltIndex.size(), currentIndex.deletedCount());
+  }
+
+  private HnswIndex<LocalChunk> newIndex() {
+    return new HnswIndex<>(localVectorStoreConfig.getDimension(),
+        localVectorStoreConfig.getMaxConnections(), localVectorStoreConfig.getEfConstruction());
+  }
+}
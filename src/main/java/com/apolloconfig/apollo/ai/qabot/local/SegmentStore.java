@@ -0,0 +1,568 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+import com.google.common.base.Preconditions;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of the data persisted by {@link LocalVectorDBService}, split into segment
+ * files which are memory mapped when opened.
+ * <pre>
+ * segment:   header record*
+ * header:    int magic, int version, int dimension, int flags
+ * record:    int length, int crc32c, byte type, payload (length and crc32c cover type + payload)
+ * CHUNKS:    string fileRoot, int count, (string content, float[dimension] vector)*
+ * FILE_HASH: string fileRoot, string hashValue
+ * FILE_REMOVED: string fileRoot
+ * string:    int length, utf-8 bytes
+ * </pre>
+ * A later record of the same type for the same file root supersedes the earlier ones, and a
+ * FILE_REMOVED record supersedes all the earlier records of the file root. Once the
+ * superseded records make up too large a share of the log, the live records are copied into a
+ * new base segment and the older segments are deleted. Segments older than the latest base
+ * segment are ignored when opening the store, so a crash during compaction loses nothing.
+ */
+final class SegmentStore implements Closeable {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentStore.class);
+
+  private static final int MAGIC = 0x51414253;
+  private static final int VERSION = 1;
+  private static final int FLAG_BASE = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final byte CHUNKS = 1;
+  private static final byte FILE_HASH = 2;
+  private static final byte FILE_REMOVED = 3;
+  private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final Path directory;
+  private final int dimension;
+  private final long maxSegmentSize;
+  private final double maxSupersededRatio;
+
+  private final List<Segment> segments = new ArrayList<>();
+  private final Map<String, RecordLocation> chunkRecords = new LinkedHashMap<>();
+  private final Map<String, RecordLocation> fileHashRecords = new LinkedHashMap<>();
+  private final Map<String, StoredFile> storedFiles = new LinkedHashMap<>();
+  /**
+   * the bytes of all the records in the log
+   */
+  private long totalBytes;
+  /**
+   * the bytes of the records which are not superseded
+   */
+  private long liveBytes;
+
+  private SegmentStore(Path directory, int dimension, long maxSegmentSize,
+      double maxSupersededRatio) {
+    this.directory = directory;
+    this.dimension = dimension;
+    this.maxSegmentSize = maxSegmentSize;
+    this.maxSupersededRatio = maxSupersededRatio;
+  }
+
+  /**
+   * Open the store in the directory and replay its segments, a corrupted store is discarded since
+   * it can always be rebuilt from the markdown files.
+   */
+  static SegmentStore open(Path directory, int dimension, long maxSegmentSize,
+      double maxSupersededRatio) throws IOException {
+    Files.createDirectories(directory);
+    SegmentStore store = new SegmentStore(directory, dimension, maxSegmentSize,
+        maxSupersededRatio);
+    try {
+      store.replay();
+    } catch (CorruptedSegmentException exception) {
+      LOGGER.error("Discarding the corrupted local vector store in {}", directory, exception);
+      store.reset();
+    }
+    if (store.segments.isEmpty()) {
+      store.roll(0);
+    } else {
+      store.compactIfNecessary();
+    }
+
+    return store;
+  }
+
+  /**
+   * @return the files replayed when the store was opened, the vectors are views of the mapped
+   * segments
+   */
+  Map<String, StoredFile> getStoredFiles() {
+    return Collections.unmodifiableMap(storedFiles);
+  }
+
+  synchronized void appendChunks(String fileRoot, List<String> contents, List<float[]> vectors)
+      throws IOException {
+    Preconditions.checkArgument(contents.size() == vectors.size(),
+        "The number of contents and vectors should be the same");
+    byte[] fileRootBytes = fileRoot.getBytes(StandardCharsets.UTF_8);
+    List<byte[]> contentBytes = contents.stream()
+        .map(content -> content.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toList());
+    int size = 1 + 4 + fileRootBytes.length + 4;
+    for (byte[] bytes : contentBytes) {
+      size += 4 + bytes.length + dimension * Float.BYTES;
+    }
+
+    ByteBuffer body = ByteBuffer.allocate(size);
+    body.put(CHUNKS);
+    putBytes(body, fileRootBytes);
+    body.putInt(contentBytes.size());
+    for (int i = 0; i < contentBytes.size(); i++) {
+      putBytes(body, contentBytes.get(i));
+      float[] vector = vectors.get(i);
+      Preconditions.checkArgument(vector.length == dimension,
+          "Expected vector dimension %s but was %s", dimension, vector.length);
+      for (float value : vector) {
+        body.putFloat(value);
+      }
+    }
+    body.flip();
+
+    put(chunkRecords, fileRoot, append(body));
+    compactIfNecessary();
+  }
+
+  synchronized void appendFileHash(String fileRoot, String hashValue) throws IOException {
+    byte[] fileRootBytes = fileRoot.getBytes(StandardCharsets.UTF_8);
+    byte[] hashValueBytes = hashValue.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer body = ByteBuffer.allocate(1 + 4 + fileRootBytes.length + 4 + hashValueBytes.length);
+    body.put(FILE_HASH);
+    putBytes(body, fileRootBytes);
+    putBytes(body, hashValueBytes);
+    body.flip();
+
+    put(fileHashRecords, fileRoot, append(body));
+    compactIfNecessary();
+  }
+
+  synchronized void appendFileRemoval(String fileRoot) throws IOException {
+    byte[] fileRootBytes = fileRoot.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer body = ByteBuffer.allocate(1 + 4 + fileRootBytes.length);
+    body.put(FILE_REMOVED);
+    putBytes(body, fileRootBytes);
+    body.flip();
+
+    append(body);
+    remove(fileRoot);
+    compactIfNecessary();
+  }
+
+  /**
+   * Force the appended records to the disk. Only the active segment may hold records written since
+   * the last sync, since a segment is forced when it is rolled over.
+   */
+  synchronized void sync() throws IOException {
+    activeSegment().channel.force(false);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (Segment segment : segments) {
+      segment.channel.close();
+    }
+    segments.clear();
+  }
+
+  private void put(Map<String, RecordLocation> records, String fileRoot,
+      RecordLocation location) {
+    RecordLocation previous = records.put(fileRoot, location);
+    liveBytes += location.size;
+    if (previous != null) {
+      liveBytes -= previous.size;
+    }
+  }
+
+  /**
+   * The removal record itself is never live, the file root is simply missing from the compacted
+   * segment.
+   */
+  private void remove(String fileRoot) {
+    for (Map<String, RecordLocation> records : List.of(chunkRecords, fileHashRecords)) {
+      RecordLocation previous = records.remove(fileRoot);
+      if (previous != null) {
+        liveBytes -= previous.size;
+      }
+    }
+  }
+
+  private RecordLocation append(ByteBuffer body) throws IOException {
+    int recordSize = RECORD_HEADER_SIZE + body.remaining();
+    Segment segment = activeSegment();
+    if (segment.size > HEADER_SIZE && segment.size + recordSize > maxSegmentSize) {
+      segment = roll(0);
+    }
+
+    CRC32C crc = new CRC32C();
+    crc.update(body.duplicate());
+    ByteBuffer record = ByteBuffer.allocate(recordSize);
+    record.putInt(body.remaining()).putInt((int) crc.getValue()).put(body).flip();
+
+    long position = segment.size;
+    writeFully(segment.channel, record, position);
+    segment.size += recordSize;
+    totalBytes += recordSize;
+
+    return new RecordLocation(segment, position, recordSize);
+  }
+
+  private void compactIfNecessary() throws IOException {
+    if (totalBytes < MIN_COMPACTION_SIZE
+        || totalBytes - liveBytes <= totalBytes * maxSupersededRatio) {
+      return;
+    }
+
+    long sequence = nextSequence();
+    Path target = segmentPath(sequence);
+    Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+    Map<String, Long> chunkPositions = new LinkedHashMap<>();
+    Map<String, Long> fileHashPositions = new LinkedHashMap<>();
+    long position = HEADER_SIZE;
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      writeFully(channel, header(FLAG_BASE), 0);
+      position = copyRecords(chunkRecords, chunkPositions, channel, position);
+      position = copyRecords(fileHashRecords, fileHashPositions, channel, position);
+      channel.force(true);
+    }
+    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    syncDirectory();
+
+    // the new base segment is durable now, so the older ones can be dropped
+    Segment base = new Segment(sequence, target,
+        FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE), position);
+    for (Segment segment : segments) {
+      segment.channel.close();
+      Files.deleteIfExists(segment.path);
+    }
+    segments.clear();
+    segments.add(base);
+    relocate(chunkRecords, chunkPositions, base);
+    relocate(fileHashRecords, fileHashPositions, base);
+
+    LOGGER.debug("Compacted the local vector store from {} to {} bytes", totalBytes, liveBytes);
+    totalBytes = liveBytes;
+  }
+
+  private long copyRecords(Map<String, RecordLocation> records, Map<String, Long> positions,
+      FileChannel channel, long position) throws IOException {
+    for (Map.Entry<String, RecordLocation> entry : records.entrySet()) {
+      RecordLocation location = entry.getValue();
+      ByteBuffer record = ByteBuffer.allocate(location.size);
+      readFully(location.segment.channel, record, location.position);
+      record.flip();
+      writeFully(channel, record, position);
+      positions.put(entry.getKey(), position);
+      position += location.size;
+    }
+    return position;
+  }
+
+  private void relocate(Map<String, RecordLocation> records, Map<String, Long> positions,
+      Segment segment) {
+    records.replaceAll((fileRoot, location) -> new RecordLocation(segment,
+        positions.get(fileRoot), location.size));
+  }
+
+  private void replay() throws IOException {
+    List<Path> paths = listSegments();
+    int first = 0;
+    for (int i = paths.size() - 1; i >= 0; i--) {
+      if ((readHeader(paths.get(i)).getInt(12) & FLAG_BASE) != 0) {
+        first = i;
+        break;
+      }
+    }
+    for (int i = 0; i < first; i++) {
+      Files.delete(paths.get(i));
+    }
+
+    Map<String, String> hashValues = new LinkedHashMap<>();
+    Map<String, List<StoredChunk>> chunks = new LinkedHashMap<>();
+    for (int i = first; i < paths.size(); i++) {
+      Path path = paths.get(i);
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+      Segment segment = new Segment(sequenceOf(path), path, channel, channel.size());
+      segments.add(segment);
+
+      long validSize = replaySegment(segment, hashValues, chunks);
+      if (validSize < segment.size) {
+        if (i != paths.size() - 1) {
+          throw new CorruptedSegmentException("Corrupted record in " + path);
+        }
+        // a torn write at the tail of the log, e.g. the process was killed while appending
+        LOGGER.warn("Truncating the incomplete tail of {} from {} to {} bytes", path,
+            segment.size, validSize);
+        channel.truncate(validSize);
+        segment.size = validSize;
+      }
+    }
+
+    for (String fileRoot : union(hashValues.keySet(), chunks.keySet())) {
+      storedFiles.put(fileRoot, new StoredFile(hashValues.get(fileRoot),
+          chunks.getOrDefault(fileRoot, Collections.emptyList())));
+    }
+  }
+
+  /**
+   * @return the size of the valid part of the segment
+   */
+  private long replaySegment(Segment segment, Map<String, String> hashValues,
+      Map<String, List<StoredChunk>> chunks) throws IOException {
+    if (segment.size < HEADER_SIZE) {
+      throw new CorruptedSegmentException("Incomplete header in " + segment.path);
+    }
+    MappedByteBuffer buffer = segment.channel.map(MapMode.READ_ONLY, 0, segment.size);
+    int magic = buffer.getInt();
+    int version = buffer.getInt();
+    int segmentDimension = buffer.getInt();
+    buffer.getInt();
+    if (magic != MAGIC || version > VERSION || segmentDimension != dimension) {
+      throw new CorruptedSegmentException(String.format(
+          "Incompatible segment %s, magic: %x, version: %d, dimension: %d", segment.path, magic,
+          version, segmentDimension));
+    }
+
+    while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+      int position = buffer.position();
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length <= 0 || length > buffer.remaining()) {
+        return position;
+      }
+      ByteBuffer body = buffer.slice(buffer.position(), length);
+      CRC32C crc = new CRC32C();
+      crc.update(body.duplicate());
+      if ((int) crc.getValue() != checksum) {
+        return position;
+      }
+      buffer.position(buffer.position() + length);
+
+      RecordLocation location = new RecordLocation(segment, position,
+          RECORD_HEADER_SIZE + length);
+      totalBytes += location.size;
+      byte type = body.get();
+      String fileRoot = getString(body);
+      if (type == CHUNKS) {
+        int count = body.getInt();
+        List<StoredChunk> fileChunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+          String content = getString(body);
+          FloatBuffer vector = body.slice(body.position(), dimension * Float.BYTES)
+              .asFloatBuffer();
+          body.position(body.position() + dimension * Float.BYTES);
+          fileChunks.add(new StoredChunk(fileRoot, content, vector));
+        }
+        chunks.put(fileRoot, fileChunks);
+        put(chunkRecords, fileRoot, location);
+      } else if (type == FILE_HASH) {
+        hashValues.put(fileRoot, getString(body));
+        put(fileHashRecords, fileRoot, location);
+      } else if (type == FILE_REMOVED) {
+        hashValues.remove(fileRoot);
+        chunks.remove(fileRoot);
+        remove(fileRoot);
+      } else {
+        throw new CorruptedSegmentException("Unknown record type " + type + " in "
+            + segment.path);
+      }
+    }
+
+    return buffer.position();
+  }
+
+  private void reset() throws IOException {
+    close();
+    for (Path path : listSegments()) {
+      Files.delete(path);
+    }
+    chunkRecords.clear();
+    fileHashRecords.clear();
+    storedFiles.clear();
+    totalBytes = 0;
+    liveBytes = 0;
+  }
+
+  private Segment roll(int flags) throws IOException {
+    if (!segments.isEmpty()) {
+      // the segment left behind is never forced by sync again
+      activeSegment().channel.force(false);
+    }
+    long sequence = nextSequence();
+    Path path = segmentPath(sequence);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    writeFully(channel, header(flags), 0);
+    Segment segment = new Segment(sequence, path, channel, HEADER_SIZE);
+    segments.add(segment);
+    syncDirectory();
+
+    return segment;
+  }
+
+  /**
+   * Force the directory entries of the created or renamed segments to the disk, otherwise they may
+   * be lost on a crash even though the segments themselves are forced.
+   */
+  private void syncDirectory() throws IOException {
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (AccessDeniedException | UnsupportedOperationException exception) {
+      // a directory can't be opened on some platforms, e.g. windows, nothing more can be done
+      LOGGER.debug("Failed to sync the directory {}", directory, exception);
+    }
+  }
+
+  private ByteBuffer header(int flags) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(flags).flip();
+    return header;
+  }
+
+  private ByteBuffer readHeader(Path path) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        throw new CorruptedSegmentException("Incomplete header in " + path);
+      }
+      readFully(channel, header, 0);
+    }
+    return header.flip();
+  }
+
+  private Segment activeSegment() {
+    return segments.get(segments.size() - 1);
+  }
+
+  private long nextSequence() {
+    return segments.isEmpty() ? 1 : activeSegment().sequence + 1;
+  }
+
+  private Path segmentPath(long sequence) {
+    return directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      List<Path> files = paths.collect(Collectors.toList());
+      for (Path file : files) {
+        // leftover of an interrupted compaction
+        if (file.getFileName().toString().endsWith(SEGMENT_SUFFIX + TEMP_SUFFIX)) {
+          Files.delete(file);
+        }
+      }
+      return files.stream()
+          .filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+          .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+          .sorted(Comparator.comparingLong(SegmentStore::sequenceOf))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static long sequenceOf(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static List<String> union(Iterable<String> first, Iterable<String> second) {
+    List<String> union = new ArrayList<>();
+    first.forEach(union::add);
+    second.forEach(key -> {
+      if (!union.contains(key)) {
+        union.add(key);
+      }
+    });
+    return union;
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    buffer.putInt(bytes.length).put(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new CorruptedSegmentException("Unexpected end of segment");
+      }
+      position += read;
+    }
+  }
+
+  record StoredFile(String hashValue, List<StoredChunk> chunks) {
+
+  }
+
+  record StoredChunk(String fileRoot, String content, FloatBuffer vector) {
+
+  }
+
+  private record RecordLocation(Segment segment, long position, int size) {
+
+  }
+
+  private static final class Segment {
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private long size;
+
+    private Segment(long sequence, Path path, FileChannel channel, long size) {
+      this.sequence = sequence;
+      this.path = path;
+      this.channel = channel;
+      this.size = size;
+    }
+  }
+
+  private static final class CorruptedSegmentException extends IOException {
+
+    private CorruptedSegmentException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorPipelineConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownProcessor.MarkdownFile;
+import com.google.common.base.Preconditions;
+import com.theokanning.openai.embedding.Embedding;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Packs the new chunks of many files into embedding requests bounded by the number of inputs and
+ * the estimated tokens, then routes the returned embeddings back to the files and chunks they
+ * belong to. A file is emitted once all of its new chunks are embedded, and dropped if any of its
+ * requests fails. Files without new chunks are emitted right away.
+ */
+class EmbeddingBatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+  private final TokenCounter tokenCounter;
+  private final MarkdownProcessorPipelineConfig pipelineConfig;
+
+  EmbeddingBatcher(TokenCounter tokenCounter, MarkdownProcessorPipelineConfig pipelineConfig) {
+    this.tokenCounter = tokenCounter;
+    this.pipelineConfig = pipelineConfig;
+  }
+
+  /**
+   * @param embedder calculates the embeddings of one request, in the order of the inputs
+   */
+  Flux<MarkdownFile> embed(Flux<MarkdownFile> files,
+      Function<List<String>, Mono<List<Embedding>>> embedder) {
+    return Flux.defer(() -> {
+      BatchBoundary boundary = new BatchBoundary(pipelineConfig.getEmbedBatchMaxInputs(),
+          pipelineConfig.getEmbedBatchMaxTokens());
+      return files.publish(shared -> Flux.merge(
+          shared
+              .filter(file -> file.newChunks().isEmpty())
+              .map(file -> file.withEmbeddings(Collections.emptyList())),
+          shared
+              .filter(file -> !file.newChunks().isEmpty())
+              .concatMapIterable(this::toPendingChunks)
+              .bufferUntil(boundary::startsNewBatch, true)
+              .flatMap(batch -> embedBatch(batch, embedder),
+                  pipelineConfig.getEmbedConcurrency())));
+    });
+  }
+
+  private List<PendingChunk> toPendingChunks(MarkdownFile file) {
+    PendingFile pendingFile = new PendingFile(file);
+    List<PendingChunk> chunks = new ArrayList<>(file.newChunks().size());
+    for (int i = 0; i < file.newChunks().size(); i++) {
+      String chunk = file.newChunks().get(i).content();
+      chunks.add(new PendingChunk(pendingFile, i, chunk, tokenCounter.countTokens(chunk)));
+    }
+    return chunks;
+  }
+
+  private Flux<MarkdownFile> embedBatch(List<PendingChunk> batch,
+      Function<List<String>, Mono<List<Embedding>>> embedder) {
+    List<String> inputs = batch.stream().map(PendingChunk::text).collect(Collectors.toList());
+    LOGGER.debug("Embedding {} chunks of {} files", inputs.size(),
+        batch.stream().map(PendingChunk::file).distinct().count());
+
+    return embedder.apply(inputs)
+        .map(embeddings -> route(batch, embeddings))
+        .onErrorResume(e -> {
+          fail(batch, e);
+          return Mono.empty();
+        })
+        .flatMapIterable(Function.identity());
+  }
+
+  /**
+   * @return the files whose chunks are all embedded now
+   */
+  private List<MarkdownFile> route(List<PendingChunk> batch, List<Embedding> embeddings) {
+    Preconditions.checkState(embeddings.size() == batch.size(),
+        "Expected %s embeddings but got %s", batch.size(), embeddings.size());
+    Embedding[] ordered = new Embedding[batch.size()];
+    for (int i = 0; i < embeddings.size(); i++) {
+      Embedding embedding = embeddings.get(i);
+      int index = embedding.getIndex() == null ? i : embedding.getIndex();
+      Preconditions.checkState(index >= 0 && index < ordered.length && ordered[index] == null,
+          "Unexpected embedding index %s", index);
+      ordered[index] = embedding;
+    }
+
+    List<MarkdownFile> completedFiles = new ArrayList<>();
+    for (int i = 0; i < ordered.length; i++) {
+      PendingChunk chunk = batch.get(i);
+      // the index is relative to the request, make it relative to the file
+      ordered[i].setIndex(chunk.index());
+      chunk.file().embeddings[chunk.index()] = ordered[i];
+      if (chunk.file().remaining.decrementAndGet() == 0) {
+        completedFiles.add(chunk.file().complete());
+      }
+    }
+    return completedFiles;
+  }
+
+  private void fail(List<PendingChunk> batch, Throwable e) {
+    Set<PendingFile> files = batch.stream().map(PendingChunk::file)
+        .collect(Collectors.toCollection(LinkedHashSet::new));
+    for (PendingFile file : files) {
+      if (file.failed.compareAndSet(false, true)) {
+        LOGGER.error("Error processing file {}", file.file.path().getFileName(), e);
+      }
+    }
+  }
+
+  private static final class PendingFile {
+
+    private final MarkdownFile file;
+    private final Embedding[] embeddings;
+    private final AtomicInteger remaining;
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    private PendingFile(MarkdownFile file) {
+      this.file = file;
+      this.embeddings = new Embedding[file.newChunks().size()];
+      this.remaining = new AtomicInteger(embeddings.length);
+    }
+
+    private MarkdownFile complete() {
+      return file.withEmbeddings(Arrays.asList(embeddings));
+    }
+  }
+
+  private record PendingChunk(PendingFile file, int index, String text, int tokens) {
+
+  }
+
+  /**
+   * Decides where a batch ends, only called serially by {@link Flux#bufferUntil}.
+   */
+  private static final class BatchBoundary {
+
+    private final int maxInputs;
+    private final int maxTokens;
+    private int inputs;
+    private int tokens;
+
+    private BatchBoundary(int maxInputs, int maxTokens) {
+      this.maxInputs = maxInputs;
+      this.maxTokens = maxTokens;
+    }
+
+    private boolean startsNewBatch(PendingChunk chunk) {
+      boolean full = inputs > 0
+          && (inputs >= maxInputs || tokens + chunk.tokens() > maxTokens);
+      if (full) {
+        inputs = 0;
+        tokens = 0;
+      }
+      inputs++;
+      tokens += chunk.tokens();
+      return full;
+    }
+  }
+}
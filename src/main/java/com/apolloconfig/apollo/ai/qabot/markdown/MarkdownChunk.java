@@ -0,0 +1,13 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import com.apolloconfig.apollo.ai.qabot.util.HashUtils;
+
+/**
+ * A chunk of a markdown file, the hash value identifies the chunk content across re-indexing.
+ */
+public record MarkdownChunk(String content, String hashValue) {
+
+  public static MarkdownChunk of(String content) {
+    return new MarkdownChunk(content, HashUtils.sha256(content));
+  }
+}
@@ -0,0 +1,295 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorChunkConfig;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.ListBlock;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.ast.Document;
+import com.vladsch.flexmark.util.ast.Node;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a markdown file into chunks, one per section under a heading. The headings without any
+ * content of their own are merged into the next section.
+ * <p>
+ * A section exceeding the max chars, the max UTF-8 bytes or the max tokens is split on the
+ * boundaries of its top level blocks, i.e. paragraphs, lists and code blocks, and each part
+ * repeats the headings of the section. A block which doesn't fit on its own is split further, a
+ * list on its items, a code block on its lines with the fences repeated, and anything else on its
+ * lines.
+ */
+class MarkdownChunker {
+
+  /**
+   * the parser keeps no state between the documents, so it's shared by the chunking threads
+   */
+  private final Parser parser = Parser.builder().build();
+  private final TokenCounter tokenCounter;
+  private final MarkdownProcessorChunkConfig chunkConfig;
+
+  MarkdownChunker(TokenCounter tokenCounter, MarkdownProcessorChunkConfig chunkConfig) {
+    this.tokenCounter = tokenCounter;
+    this.chunkConfig = chunkConfig;
+  }
+
+  List<String> split(String markdownContent) {
+    Document document = parser.parse(markdownContent);
+    Budget budget = new Budget(chunkConfig.getMaxChars(), chunkConfig.getMaxBytes(),
+        chunkConfig.getMaxTokens());
+
+    List<String> chunks = new ArrayList<>();
+    StringBuilder headings = new StringBuilder();
+    List<Node> blocks = new ArrayList<>();
+    for (Node node : document.getChildren()) {
+      if (node instanceof Heading heading) {
+        if (!blocks.isEmpty()) {
+          addSection(headings.toString(), blocks, budget, chunks);
+          headings.setLength(0);
+          blocks = new ArrayList<>();
+        }
+        headings.append(heading.getText()).append("\n");
+      } else {
+        blocks.add(node);
+      }
+    }
+
+    if (!blocks.isEmpty()) {
+      addSection(headings.toString(), blocks, budget, chunks);
+    } else if (headings.length() > 0) {
+      // the trailing headings have no content to be merged into, so keep them with the last chunk
+      int last = chunks.size() - 1;
+      if (last >= 0 && budget.fits(chunks.get(last) + headings)) {
+        chunks.set(last, chunks.get(last) + headings);
+      } else {
+        chunks.addAll(splitLines(headings.toString(), budget));
+      }
+    }
+
+    return chunks;
+  }
+
+  private void addSection(String headings, List<Node> blocks, Budget budget,
+      List<String> chunks) {
+    StringBuilder section = new StringBuilder(headings);
+    for (Node block : blocks) {
+      section.append(lines(block));
+    }
+    if (budget.fits(section)) {
+      chunks.add(section.toString());
+      return;
+    }
+
+    // the headings are repeated in every part, unless they would take up most of it
+    String prefix = headings;
+    List<String> units = new ArrayList<>();
+    if (headings.length() * 2 > budget.chars || utf8Length(headings) * 2 > budget.bytes
+        || countTokens(headings) * 2 > budget.tokens) {
+      prefix = "";
+      units.addAll(splitLines(headings, budget));
+    }
+    Budget partBudget = budget.minus(prefix);
+    for (Node block : blocks) {
+      String text = lines(block);
+      if (partBudget.fits(text)) {
+        units.add(text);
+      } else {
+        units.addAll(splitBlock(block, text, partBudget));
+      }
+    }
+
+    pack(prefix, units, partBudget, chunks);
+  }
+
+  /**
+   * Pack the units into as few parts as possible, each part starts with the prefix and optionally
+   * the end of the previous part.
+   */
+  private void pack(String prefix, List<String> units, Budget budget, List<String> chunks) {
+    StringBuilder part = new StringBuilder();
+    int partBytes = 0;
+    int partTokens = 0;
+    for (String unit : units) {
+      int unitBytes = utf8Length(unit);
+      int unitTokens = countTokens(unit);
+      if (part.length() > 0 && (part.length() + unit.length() > budget.chars
+          || partBytes + unitBytes > budget.bytes || partTokens + unitTokens > budget.tokens)) {
+        chunks.add(prefix + part);
+        String overlap = overlap(part, unit, budget);
+        part.setLength(0);
+        part.append(overlap);
+        partBytes = utf8Length(overlap);
+        partTokens = countTokens(overlap);
+      }
+      part.append(unit);
+      partBytes += unitBytes;
+      partTokens += unitTokens;
+    }
+    if (part.length() > 0) {
+      chunks.add(prefix + part);
+    }
+  }
+
+  /**
+   * @return the end of the part, starting at a line or word boundary, which still fits into the
+   * next part together with the unit
+   */
+  private String overlap(CharSequence part, String unit, Budget budget) {
+    int overlapChars = Math.min(chunkConfig.getOverlapChars(), part.length());
+    if (overlapChars <= 0) {
+      return "";
+    }
+
+    int start = part.length() - overlapChars;
+    while (start < part.length() && start > 0
+        && !Character.isWhitespace(part.charAt(start - 1))) {
+      start++;
+    }
+    String overlap = part.subSequence(start, part.length()).toString();
+
+    return budget.fits(overlap + unit) ? overlap : "";
+  }
+
+  private List<String> splitBlock(Node block, String text, Budget budget) {
+    if (block instanceof ListBlock) {
+      List<String> items = new ArrayList<>();
+      for (Node item : block.getChildren()) {
+        String itemText = lines(item);
+        if (budget.fits(itemText)) {
+          items.add(itemText);
+        } else {
+          items.addAll(splitLines(itemText, budget));
+        }
+      }
+      return items;
+    }
+
+    if (block instanceof FencedCodeBlock codeBlock) {
+      String[] lines = text.split("\n");
+      String openingFence = lines[0] + "\n";
+      String marker = codeBlock.getOpeningMarker().toString();
+      boolean closed = lines.length > 1 && lines[lines.length - 1].trim().startsWith(marker);
+      String closingFence = (closed ? lines[lines.length - 1].trim() : marker) + "\n";
+      int end = closed ? lines.length - 1 : lines.length;
+
+      StringBuilder code = new StringBuilder();
+      for (int i = 1; i < end; i++) {
+        code.append(lines[i]).append("\n");
+      }
+      List<String> parts = new ArrayList<>();
+      for (String part : splitLines(code.toString(),
+          budget.minus(openingFence + closingFence))) {
+        parts.add(openingFence + part + closingFence);
+      }
+      return parts;
+    }
+
+    return splitLines(text, budget);
+  }
+
+  /**
+   * Pack the lines of the text into parts fitting into the budget, a line too long on its own is
+   * cut into pieces.
+   */
+  private List<String> splitLines(String text, Budget budget) {
+    List<String> lines = new ArrayList<>();
+    int start = 0;
+    while (start < text.length()) {
+      int end = text.indexOf('\n', start);
+      end = end < 0 ? text.length() : end + 1;
+      String line = text.substring(start, end);
+      if (budget.fits(line)) {
+        lines.add(line);
+      } else {
+        lines.addAll(cut(line, budget));
+      }
+      start = end;
+    }
+
+    List<String> parts = new ArrayList<>();
+    pack("", lines, budget, parts);
+    return parts;
+  }
+
+  private List<String> cut(String line, Budget budget) {
+    List<String> pieces = new ArrayList<>();
+    int start = 0;
+    while (start < line.length()) {
+      int maxEnd = Math.min(line.length(), start + Math.max(1, budget.chars));
+      int end = start;
+      int bytes = 0;
+      while (end < maxEnd && bytes + utf8Length(line.charAt(end)) <= budget.bytes) {
+        bytes += utf8Length(line.charAt(end++));
+      }
+      end = Math.max(end, start + 1);
+      while (end - start > 1 && countTokens(line.substring(start, end)) > budget.tokens) {
+        end = start + (end - start) / 2;
+      }
+      if (end < line.length() && Character.isHighSurrogate(line.charAt(end - 1))
+          && end - start > 1) {
+        end--;
+      }
+      pieces.add(line.substring(start, end));
+      start = end;
+    }
+    return pieces;
+  }
+
+  /**
+   * @return the chars of the node ending with a line break, the chars of most blocks already
+   * include it
+   */
+  private static String lines(Node node) {
+    String text = node.getChars().toString();
+    return text.endsWith("\n") ? text : text + "\n";
+  }
+
+  private int countTokens(CharSequence text) {
+    return text.length() == 0 ? 0 : tokenCounter.countTokens(text.toString());
+  }
+
+  private static int utf8Length(CharSequence text) {
+    int bytes = 0;
+    for (int i = 0; i < text.length(); i++) {
+      bytes += utf8Length(text.charAt(i));
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the UTF-8 bytes of the char, a surrogate is half of the 4 bytes of its pair
+   */
+  private static int utf8Length(char c) {
+    if (c < 0x80) {
+      return 1;
+    }
+    return c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+  }
+
+  /**
+   * The chars, UTF-8 bytes and estimated tokens left for the content of a chunk.
+   */
+  private class Budget {
+
+    private final int chars;
+    private final int bytes;
+    private final int tokens;
+
+    private Budget(int chars, int bytes, int tokens) {
+      this.chars = chars;
+      this.bytes = bytes;
+      this.tokens = tokens;
+    }
+
+    private boolean fits(CharSequence text) {
+      return text.length() <= chars && utf8Length(text) <= bytes && countTokens(text) <= tokens;
+    }
+
+    private Budget minus(String text) {
+      return new Budget(Math.max(1, chars - text.length()),
+          Math.max(1, bytes - utf8Length(text)), Math.max(1, tokens - countTokens(text)));
+    }
+  }
+}
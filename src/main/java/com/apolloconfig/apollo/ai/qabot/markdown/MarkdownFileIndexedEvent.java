@@ -0,0 +1,13 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import java.util.List;
+
+/**
+ * Published by {@link MarkdownProcessor} after the chunks of a markdown file are re-indexed or
+ * removed.
+ *
+ * @param chunkContents the contents of all the chunks of the file, empty if the file is removed
+ */
+public record MarkdownFileIndexedEvent(String fileRoot, List<String> chunkContents) {
+
+}
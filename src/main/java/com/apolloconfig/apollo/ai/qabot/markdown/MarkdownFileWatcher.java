@@ -0,0 +1,211 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Watches the markdown files location recursively and re-indexes the changed files shortly after
+ * they change, so there is no need to rescan the whole location periodically.
+ * <p>
+ * The events are collected until no new event arrived for the debounce period, or the first one
+ * waited for the max delay, so a burst like a git checkout touching hundreds of files is processed
+ * in one run. The events arriving while a run is in progress are queued by the watch service and
+ * make up the next run. A deleted directory or lost events make the next run rescan the whole
+ * location instead.
+ */
+@Component
+@ConditionalOnProperty(name = "markdown.files.watchEnabled", havingValue = "true")
+public class MarkdownFileWatcher {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MarkdownFileWatcher.class);
+
+  private final MarkdownProcessor markdownProcessor;
+  private final MarkdownFilesConfig markdownFilesConfig;
+  private final Path location;
+  private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+  private WatchService watchService;
+  private Thread watcher;
+
+  public MarkdownFileWatcher(MarkdownProcessor markdownProcessor,
+      MarkdownFilesConfig markdownFilesConfig) {
+    this.markdownProcessor = markdownProcessor;
+    this.markdownFilesConfig = markdownFilesConfig;
+    this.location = Paths.get(markdownFilesConfig.getLocation()).toAbsolutePath();
+  }
+
+  @PostConstruct
+  public void start() throws IOException {
+    watchService = location.getFileSystem().newWatchService();
+    register(location, new LinkedHashSet<>());
+
+    watcher = new Thread(this::watch, "markdown-file-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
+    LOGGER.info("Watching {} directories under {}", watchedDirectories.size(), location);
+  }
+
+  @PreDestroy
+  public void stop() throws IOException {
+    if (watchService != null) {
+      watchService.close();
+    }
+    if (watcher != null) {
+      watcher.interrupt();
+    }
+  }
+
+  private void watch() {
+    try {
+      while (true) {
+        Batch batch = new Batch();
+        collect(watchService.take(), batch);
+
+        long debounce = TimeUnit.MILLISECONDS.toNanos(markdownFilesConfig.getWatchDebounce());
+        long deadline = System.nanoTime()
+            + TimeUnit.MILLISECONDS.toNanos(markdownFilesConfig.getWatchMaxDelay());
+        while (true) {
+          long timeout = Math.min(debounce, deadline - System.nanoTime());
+          WatchKey key = timeout > 0 ? watchService.poll(timeout, TimeUnit.NANOSECONDS) : null;
+          if (key == null) {
+            break;
+          }
+          collect(key, batch);
+        }
+
+        process(batch);
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      LOGGER.debug("Stopped watching the markdown files");
+    }
+  }
+
+  private void collect(WatchKey key, Batch batch) {
+    Path directory = watchedDirectories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW || directory == null) {
+        batch.rescan = true;
+        continue;
+      }
+
+      Path path = directory.resolve((Path) event.context());
+      if (isIgnored(path)) {
+        continue;
+      }
+      if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+        // the files created before the directory was registered have no events of their own
+        register(path, batch.paths);
+      } else if (isMarkdownFile(path)) {
+        batch.paths.add(path);
+      } else if (event.kind() == ENTRY_DELETE && watchedDirectories.containsValue(path)) {
+        // the files of a deleted directory have no events of their own either
+        batch.rescan = true;
+      }
+    }
+
+    if (!key.reset()) {
+      watchedDirectories.remove(key);
+    }
+  }
+
+  private void process(Batch batch) {
+    try {
+      MarkdownProcessingResult result;
+      if (batch.rescan) {
+        LOGGER.info("Start to load and process all the markdown files after losing track of them");
+        result = markdownProcessor.processAllFilesAsync(markdownFilesConfig.getLocation())
+            .block();
+      } else {
+        List<Path> changedFiles = new ArrayList<>();
+        List<Path> removedFiles = new ArrayList<>();
+        for (Path path : batch.paths) {
+          (Files.isRegularFile(path) ? changedFiles : removedFiles).add(path);
+        }
+        LOGGER.debug("Start to process {} changed and {} removed markdown files",
+            changedFiles.size(), removedFiles.size());
+        result = markdownProcessor.processFilesAsync(changedFiles, removedFiles).block();
+      }
+      LOGGER.debug("Updated files: {}", result.updatedFiles());
+    } catch (Throwable e) {
+      LOGGER.error("Error processing the changed markdown files", e);
+    }
+  }
+
+  /**
+   * Register the directory and its sub directories, the markdown files found in them are added
+   * to the paths.
+   */
+  private void register(Path directory, Set<Path> paths) {
+    try {
+      Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+            throws IOException {
+          if (isIgnored(dir)) {
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          watchedDirectories.put(
+              dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (isMarkdownFile(file)) {
+            paths.add(file);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      LOGGER.error("Error watching directory {}", directory, e);
+    }
+  }
+
+  private boolean isIgnored(Path path) {
+    // git writes to its own directory all the time, e.g. on every fetch
+    for (Path name : location.relativize(path.toAbsolutePath())) {
+      if (name.toString().equals(".git")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isMarkdownFile(Path path) {
+    return path.toString().endsWith(".md");
+  }
+
+  private static class Batch {
+
+    private final Set<Path> paths = new LinkedHashSet<>();
+    private boolean rescan;
+  }
+}
@@ -0,0 +1,153 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The git repository of the markdown files. The last indexed commit is kept in a ref of the
+ * repository, so it survives restarts and the commit is never garbage collected, the index may be
+ * emptied independently of it though.
+ */
+class MarkdownGitRepository {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MarkdownGitRepository.class);
+
+  static final String INDEXED_REF = "refs/qa-bot/indexed";
+
+  private final String location;
+
+  MarkdownGitRepository(String location) {
+    this.location = location;
+  }
+
+  void pull() {
+    if (run("git", "pull") != null) {
+      LOGGER.debug("Git pull executed successfully.");
+    }
+  }
+
+  /**
+   * @return the commit id of HEAD, null if it's not available
+   */
+  String head() {
+    return trim(run("git", "rev-parse", "--verify", "--quiet", "HEAD^{commit}"));
+  }
+
+  /**
+   * @return the last indexed commit id, null if none is recorded
+   */
+  String indexedCommit() {
+    return trim(run("git", "rev-parse", "--verify", "--quiet", INDEXED_REF + "^{commit}"));
+  }
+
+  void markIndexed(String commit) {
+    run("git", "update-ref", INDEXED_REF, commit);
+  }
+
+  /**
+   * List the markdown files changed between the two commits, relative to the location since it
+   * may be a sub directory of the repository, e.g. the docs folder. A renamed file is both removed
+   * under its old path and changed under its new one.
+   *
+   * @return the changed files, null if git can't tell, e.g. the history is not available
+   */
+  ChangedFiles diff(String fromCommit, String toCommit) {
+    String output = run("git", "diff", "--name-status", "-M", "-z", "--relative", fromCommit,
+        toCommit, "--", "*.md");
+    if (output == null) {
+      return null;
+    }
+
+    List<Path> changedFiles = new ArrayList<>();
+    List<Path> removedFiles = new ArrayList<>();
+    String[] fields = output.split("\0");
+    int i = 0;
+    while (i + 1 < fields.length) {
+      String status = fields[i];
+      Path path = Paths.get(location, fields[i + 1]);
+      i += 2;
+      switch (status.charAt(0)) {
+        case 'A', 'M', 'T' -> changedFiles.add(path);
+        case 'D' -> removedFiles.add(path);
+        case 'R' -> {
+          removedFiles.add(path);
+          changedFiles.add(Paths.get(location, fields[i++]));
+        }
+        case 'C' -> changedFiles.add(Paths.get(location, fields[i++]));
+        default -> LOGGER.warn("Unexpected status {} of {} in git diff", status, path);
+      }
+    }
+
+    return new ChangedFiles(changedFiles, removedFiles);
+  }
+
+  /**
+   * @return the standard output, null if the command failed
+   */
+  private String run(String... command) {
+    ProcessBuilder pb = new ProcessBuilder(command);
+    pb.directory(new File(location));
+
+    Path output = null;
+    try {
+      // the output of diff may not fit into the pipe buffer while waiting for the process
+      output = Files.createTempFile("qa-bot-git-", ".out");
+      pb.redirectOutput(output.toFile());
+      Process process = pb.start();
+      boolean finished = process.waitFor(1, TimeUnit.MINUTES);
+      if (!finished) {
+        process.destroyForcibly();
+        LOGGER.error("Git {} execution timed out.", command[1]);
+        return null;
+      }
+      if (process.exitValue() != 0) {
+        String error = new String(process.getErrorStream().readAllBytes(),
+            StandardCharsets.UTF_8);
+        // rev-parse --quiet fails without any error for a missing ref
+        if (!error.isBlank()) {
+          LOGGER.error("Git {} execution failed: {}", command[1], error.trim());
+        }
+        return null;
+      }
+
+      return Files.readString(output);
+    } catch (IOException e) {
+      LOGGER.error("Git {} execution failed.", command[1], e);
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOGGER.error("Git {} execution interrupted.", command[1], e);
+      return null;
+    } finally {
+      deleteQuietly(output);
+    }
+  }
+
+  private void deleteQuietly(Path path) {
+    if (path == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      LOGGER.warn("Failed to delete {}", path, e);
+    }
+  }
+
+  private String trim(String output) {
+    return output == null || output.isBlank() ? null : output.trim();
+  }
+
+  record ChangedFiles(List<Path> changedFiles, List<Path> removedFiles) {
+
+  }
+}
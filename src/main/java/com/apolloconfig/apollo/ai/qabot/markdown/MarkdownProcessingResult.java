@@ -0,0 +1,12 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import java.util.List;
+
+/**
+ * @param updatedFiles the files re-indexed or removed by the run
+ * @param complete     whether all the files of the run were processed, false if any of them
+ *                     failed and needs to be processed again
+ */
+public record MarkdownProcessingResult(List<String> updatedFiles, boolean complete) {
+
+}
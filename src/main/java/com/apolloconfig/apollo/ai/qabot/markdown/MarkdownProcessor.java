@@ -1,30 +1,45 @@
 package com.apolloconfig.apollo.ai.qabot.markdown;
 
 import com.apolloconfig.apollo.ai.qabot.api.AiService;
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
 import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
 import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorChunkConfig;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorPipelineConfig;
 import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorRetryConfig;
+import com.apolloconfig.apollo.ai.qabot.util.HashUtils;
 import com.theokanning.openai.embedding.Embedding;
-import com.vladsch.flexmark.ast.Heading;
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.Document;
-import com.vladsch.flexmark.util.ast.Node;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.util.backoff.BackOff;
 import org.springframework.util.backoff.BackOffExecution;
 import org.springframework.util.backoff.ExponentialBackOff;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
 import retrofit2.HttpException;
 
 @Service
@@ -34,17 +49,33 @@ public class MarkdownProcessor {
 
   private final MarkdownFilesConfig markdownFilesConfig;
   private final MarkdownProcessorRetryConfig markdownProcessorRetryConfig;
+  private final MarkdownProcessorPipelineConfig pipelineConfig;
   private final AiService aiService;
   private final VectorDBService vectorDBService;
+  private final ApplicationEventPublisher eventPublisher;
+  private final Scheduler blockingScheduler;
+  private final MarkdownChunker markdownChunker;
+  private final EmbeddingBatcher embeddingBatcher;
   private final BackOff backOff;
+  /**
+   * completes once the last queued run and all the runs before it are done, guarded by this
+   */
+  private Mono<Void> lastRun = Mono.empty();
 
   public MarkdownProcessor(MarkdownFilesConfig markdownFilesConfig,
-      MarkdownProcessorRetryConfig markdownProcessorRetryConfig, AiService aiService,
-      VectorDBService vectorDBService) {
+      MarkdownProcessorRetryConfig markdownProcessorRetryConfig,
+      MarkdownProcessorPipelineConfig pipelineConfig, MarkdownProcessorChunkConfig chunkConfig,
+      AiService aiService, TokenCounter tokenCounter, VectorDBService vectorDBService,
+      ApplicationEventPublisher eventPublisher, Scheduler blockingScheduler) {
     this.markdownFilesConfig = markdownFilesConfig;
     this.markdownProcessorRetryConfig = markdownProcessorRetryConfig;
+    this.pipelineConfig = pipelineConfig;
     this.aiService = aiService;
     this.vectorDBService = vectorDBService;
+    this.eventPublisher = eventPublisher;
+    this.blockingScheduler = blockingScheduler;
+    this.markdownChunker = new MarkdownChunker(tokenCounter, chunkConfig);
+    this.embeddingBatcher = new EmbeddingBatcher(tokenCounter, pipelineConfig);
     this.backOff = initializeBackOff();
   }
 
@@ -59,85 +90,291 @@ public class MarkdownProcessor {
   }
 
   public List<String> loadAndProcessFiles(String location) {
-    List<String> updatedFiles = new ArrayList<>();
-    Path mdDirectory = Paths.get(location);
-    try (Stream<Path> paths = Files.walk(mdDirectory)) {
-      paths
-          .filter(Files::isRegularFile)
-          .filter(path -> path.toString().endsWith(".md"))
-          .forEach(mdFile -> {
-            try {
-              boolean result = processFileWithRetry(mdFile);
-              if (result) {
-                updatedFiles.add(mdFile.toAbsolutePath().toString());
-              }
-            } catch (Throwable e) {
-              LOGGER.error("Error processing file {}", mdFile.getFileName(), e);
-            }
-          });
-    } catch (Throwable e) {
-      LOGGER.error("Error reading files from location {}", location, e);
+    return loadAndProcessFilesAsync(location).block();
+  }
+
+  public Mono<List<String>> loadAndProcessFilesAsync(String location) {
+    return processAllFilesAsync(location).map(MarkdownProcessingResult::updatedFiles);
+  }
+
+  /**
+   * Process the markdown files in a pipeline of stages: discover, read and hash, check for
+   * changes, chunk, embed and persist. Each stage works on a bounded number of files at a time and
+   * only requests more files from the previous stage when it has room for them, a failure only
+   * drops the file it happened to. The chunks of different files are embedded together by the
+   * {@link EmbeddingBatcher}.
+   * <p>
+   * The hash values of all the persisted files are queried once per run, so the unchanged files
+   * are skipped without calling the vector database. The writes of the run are flushed once at
+   * the end, and the files are only announced as indexed after that. The writes left over by a
+   * cancelled run are flushed before the hash values are queried.
+   * <p>
+   * The persisted files which are no longer found in the location are swept in the same run, so
+   * the chunks of deleted or renamed files don't stay in the index forever. The file roots of the
+   * persisted chunks are compared as well, so the chunks left without a hash value by a failed
+   * run are swept too.
+   * <p>
+   * Only one run is processed at a time, see {@link #exclusive(Mono)}.
+   */
+  public Mono<MarkdownProcessingResult> processAllFilesAsync(String location) {
+    ProcessingRun run = new ProcessingRun();
+    return exclusive(flushLeftoverWrites()
+        .then(Mono.zip(blocking(vectorDBService::queryAllFileHashValues),
+            blocking(vectorDBService::queryAllChunkFileRoots)))
+        .onErrorResume(e -> {
+          LOGGER.error("Error querying the persisted files", e);
+          return Mono.empty();
+        })
+        .flatMap(persisted -> discoverFiles(location, run).collectList()
+            .flatMap(mdFiles -> processFiles(Flux.fromIterable(mdFiles),
+                orphanedFiles(mdFiles, persisted.getT1(), persisted.getT2(), run),
+                persisted.getT1(), run)))
+        .defaultIfEmpty(new MarkdownProcessingResult(Collections.emptyList(), false)));
+  }
+
+  /**
+   * Process only the given files, e.g. the ones changed since the last indexed commit, so the
+   * other files are neither read nor hashed. The changed files are re-indexed without comparing
+   * their hash values, their unchanged chunks are still not embedded again. Only one run is
+   * processed at a time, see {@link #exclusive(Mono)}.
+   */
+  public Mono<MarkdownProcessingResult> processFilesAsync(List<Path> changedFiles,
+      List<Path> removedFiles) {
+    ProcessingRun run = new ProcessingRun();
+    Map<String, String> removedFileRoots = new LinkedHashMap<>();
+    for (Path mdFile : removedFiles) {
+      removedFileRoots.put(getMarkdownFileRoots(mdFile), mdFile.toAbsolutePath().toString());
     }
 
-    return updatedFiles;
-  }
-
-  private boolean processFileWithRetry(Path mdFile) throws IOException {
-    BackOffExecution backOffExecution = backOff.start();
-    while (!Thread.currentThread().isInterrupted()) {
-      try {
-        return processFile(mdFile);
-      } catch (HttpException exception) {
-        if (exception.code() == 429) {
-          long sleepTime = backOffExecution.nextBackOff();
-
-          if (sleepTime == BackOffExecution.STOP) {
-            LOGGER.error("Retry limit exceeded. Stopping");
-            break;
-          }
-
-          LOGGER.warn("OpenAI API rate limit exceeded. Retrying in {} ms", sleepTime);
-
-          try {
-            Thread.sleep(sleepTime);
-          } catch (InterruptedException e) {
-            LOGGER.error("Interrupted while waiting for retry", e);
-            Thread.currentThread().interrupt();
-            break;
-          }
-        } else {
-          throw exception;
-        }
+    return exclusive(flushLeftoverWrites()
+        .then(processFiles(Flux.fromIterable(changedFiles), removedFileRoots,
+            Collections.emptyMap(), run)));
+  }
+
+  /**
+   * Queue the run after the runs subscribed before it. The file watcher, the scheduled task and
+   * the load endpoint may all start a run at once, which would otherwise insert the chunks of the
+   * same file twice, and share the buffered writes of the vector database, so a failed flush of
+   * one run drops the writes of the other. A cancelled run only lets the next one start after the
+   * runs before it are done.
+   */
+  private <T> Mono<T> exclusive(Mono<T> processingRun) {
+    return Mono.defer(() -> {
+      Sinks.Empty<Void> done = Sinks.empty();
+      Mono<Void> previousRun;
+      synchronized (this) {
+        previousRun = lastRun;
+        lastRun = done.asMono();
+      }
+      return previousRun.then(processingRun)
+          .doFinally(signal -> previousRun.subscribe(null, null, done::tryEmitEmpty));
+    });
+  }
+
+  /**
+   * @return whether the vector database holds no files at all, e.g. its collection was dropped or
+   * the local store was discarded as corrupted, in which case no commit is indexed in it
+   */
+  public Mono<Boolean> isIndexEmptyAsync() {
+    return blocking(vectorDBService::hasFiles).map(hasFiles -> !hasFiles);
+  }
+
+  /**
+   * @param removedFiles the files to remove, i.e. their paths keyed by their file roots
+   */
+  private Mono<MarkdownProcessingResult> processFiles(Flux<Path> files,
+      Map<String, String> removedFiles, Map<String, String> fileHashValues, ProcessingRun run) {
+    Flux<MarkdownFile> chunkedFiles = files
+        .flatMap(mdFile -> isolate(mdFile, blocking(() -> readFile(mdFile)), run),
+            pipelineConfig.getReadConcurrency())
+        .filter(file -> hasChanged(file, fileHashValues))
+        .doOnNext(file -> run.changedFiles.incrementAndGet())
+        .flatMap(file -> isolate(file.path(), blocking(() -> chunk(file)), run),
+            pipelineConfig.getChunkConcurrency());
+
+    Flux<UpdatedFile> persistedFiles = embeddingBatcher.embed(chunkedFiles, this::embed)
+        .flatMap(file -> isolate(file.path(), blocking(() -> persist(file)), run),
+            pipelineConfig.getPersistConcurrency());
+
+    // the removed files are removed together, so the vector database is called once for all of them
+    Flux<UpdatedFile> deletedFiles = removedFiles.isEmpty() ? Flux.empty()
+        : isolate(removedFiles.size() + " removed files",
+            blocking(() -> remove(removedFiles, run)), run)
+            .flatMapIterable(Function.identity());
+
+    return Flux.merge(persistedFiles, deletedFiles)
+        .collectList()
+        .flatMap(updatedFiles -> blocking(() -> flush(updatedFiles, run)));
+  }
+
+  /**
+   * The persisted files which are no longer found in the location, keyed by their file roots. A
+   * file counts as persisted if it has a hash value or any chunks. Nothing is swept if the
+   * discovery failed or found no files at all, which more likely means a broken location than all
+   * the files being deleted.
+   */
+  private Map<String, String> orphanedFiles(List<Path> mdFiles,
+      Map<String, String> fileHashValues, Set<String> chunkFileRoots, ProcessingRun run) {
+    Set<String> persistedFileRoots = new LinkedHashSet<>(fileHashValues.keySet());
+    persistedFileRoots.addAll(chunkFileRoots);
+    if (run.failed.get() || mdFiles.isEmpty()) {
+      if (!persistedFileRoots.isEmpty()) {
+        LOGGER.warn("No markdown files found, skip sweeping the {} persisted files",
+            persistedFileRoots.size());
+      }
+      return Collections.emptyMap();
+    }
+
+    Set<String> fileRoots = mdFiles.stream().map(this::getMarkdownFileRoots)
+        .collect(Collectors.toSet());
+    Map<String, String> orphanedFiles = new LinkedHashMap<>();
+    for (String fileRoot : persistedFileRoots) {
+      if (!fileRoots.contains(fileRoot)) {
+        orphanedFiles.put(fileRoot, fileRoot);
       }
     }
 
-    return false;
+    return orphanedFiles;
   }
 
-  boolean processFile(Path mdFile) throws IOException {
-    String fileRoot = getMarkdownFileRoots(mdFile);
+  private Flux<Path> discoverFiles(String location, ProcessingRun run) {
+    return Flux.using(() -> Files.walk(Paths.get(location)), Flux::fromStream, Stream::close)
+        .filter(Files::isRegularFile)
+        .filter(path -> path.toString().endsWith(".md"))
+        .subscribeOn(blockingScheduler)
+        .onErrorResume(e -> {
+          LOGGER.error("Error reading files from location {}", location, e);
+          run.failed.set(true);
+          return Flux.empty();
+        });
+  }
 
+  MarkdownFile readFile(Path mdFile) throws IOException {
     String markdownContent = Files.readString(mdFile);
-    String hashValue = computeHash(markdownContent);
-
-    String fileHashValue = vectorDBService.queryFileHashValue(fileRoot);
+    return new MarkdownFile(mdFile, getMarkdownFileRoots(mdFile),
+        HashUtils.sha256(markdownContent), markdownContent, null, null, null);
+  }
 
-    if (Objects.equals(hashValue, fileHashValue)) {
+  private boolean hasChanged(MarkdownFile file, Map<String, String> fileHashValues) {
+    if (Objects.equals(file.hashValue(), fileHashValues.get(file.fileRoot()))) {
       return false;
     }
 
-    LOGGER.debug("File {} has changed", mdFile.getFileName());
-    List<String> chunks = splitMarkdownIntoChunks(markdownContent);
-    LOGGER.debug("File {} has {} chunks", mdFile.getFileName(), chunks.size());
+    LOGGER.debug("File {} has changed", file.path().getFileName());
+    return true;
+  }
 
-    // calculate chunks embeddings and store them in the database
-    List<Embedding> embeddings = aiService.getEmbeddings(chunks);
+  /**
+   * Split the file into chunks, only the chunks which are not persisted yet need to be embedded.
+   */
+  MarkdownFile chunk(MarkdownFile file) {
+    Map<String, MarkdownChunk> chunks = new LinkedHashMap<>();
+    for (String content : markdownChunker.split(file.content())) {
+      MarkdownChunk chunk = MarkdownChunk.of(content);
+      chunks.putIfAbsent(chunk.hashValue(), chunk);
+    }
 
-    vectorDBService.persistChunkEmbeddings(fileRoot, chunks, embeddings);
+    Set<String> persistedChunkHashValues = vectorDBService.queryChunkHashValues(file.fileRoot());
+    List<MarkdownChunk> newChunks = chunks.values().stream()
+        .filter(chunk -> !persistedChunkHashValues.contains(chunk.hashValue()))
+        .collect(Collectors.toList());
+    LOGGER.debug("File {} has {} chunks, {} of them are new", file.path().getFileName(),
+        chunks.size(), newChunks.size());
 
-    vectorDBService.persistFile(fileRoot, hashValue);
+    return file.withChunks(new ArrayList<>(chunks.values()), newChunks);
+  }
 
-    return true;
+  private Mono<List<Embedding>> embed(List<String> chunks) {
+    return blocking(() -> aiService.getEmbeddings(chunks)).retryWhen(rateLimitRetry());
+  }
+
+  private UpdatedFile persist(MarkdownFile file) {
+    vectorDBService.persistChunkEmbeddings(file.fileRoot(), file.chunks(), file.newChunks(),
+        file.embeddings());
+
+    vectorDBService.persistFile(file.fileRoot(), file.hashValue());
+
+    return new UpdatedFile(file.fileRoot(), file.path().toAbsolutePath().toString(),
+        file.chunks().stream().map(MarkdownChunk::content).collect(Collectors.toList()));
+  }
+
+  private List<UpdatedFile> remove(Map<String, String> removedFiles, ProcessingRun run) {
+    run.changedFiles.addAndGet(removedFiles.size());
+    int removedRows = vectorDBService.removeFiles(removedFiles.keySet());
+    run.removedFiles.addAndGet(removedFiles.size());
+    run.removedRows.addAndGet(removedRows);
+    LOGGER.debug("Files {} are removed, {} rows reclaimed", removedFiles.values(), removedRows);
+
+    return removedFiles.entrySet().stream()
+        .map(removedFile -> new UpdatedFile(removedFile.getKey(), removedFile.getValue(),
+            Collections.emptyList()))
+        .collect(Collectors.toList());
+  }
+
+  private Mono<Void> flushLeftoverWrites() {
+    return blocking(() -> {
+      vectorDBService.flush();
+      return null;
+    }).then();
+  }
+
+  private MarkdownProcessingResult flush(List<UpdatedFile> updatedFiles, ProcessingRun run) {
+    vectorDBService.flush();
+    if (run.removedFiles.get() > 0) {
+      LOGGER.info("Removed {} files, {} rows reclaimed", run.removedFiles.get(),
+          run.removedRows.get());
+    }
+
+    List<String> files = new ArrayList<>(updatedFiles.size());
+    for (UpdatedFile updatedFile : updatedFiles) {
+      eventPublisher.publishEvent(
+          new MarkdownFileIndexedEvent(updatedFile.fileRoot(), updatedFile.chunkContents()));
+      files.add(updatedFile.file());
+    }
+
+    return new MarkdownProcessingResult(files,
+        !run.failed.get() && run.changedFiles.get() == updatedFiles.size());
+  }
+
+  /**
+   * Retry the openai calls rejected by the rate limit with the exponential back off, the back off
+   * starts over for each file.
+   */
+  private Retry rateLimitRetry() {
+    return Retry.from(signals -> {
+      BackOffExecution backOffExecution = backOff.start();
+      return signals.concatMap(signal -> {
+        Throwable failure = signal.failure();
+        if (!(failure instanceof HttpException) || ((HttpException) failure).code() != 429) {
+          return Mono.error(failure);
+        }
+
+        long sleepTime = backOffExecution.nextBackOff();
+        if (sleepTime == BackOffExecution.STOP) {
+          LOGGER.error("Retry limit exceeded. Stopping");
+          return Mono.error(failure);
+        }
+
+        LOGGER.warn("OpenAI API rate limit exceeded. Retrying in {} ms", sleepTime);
+        return Mono.delay(Duration.ofMillis(sleepTime));
+      });
+    });
+  }
+
+  private <T> Mono<T> blocking(Callable<T> task) {
+    return Mono.fromCallable(task).subscribeOn(blockingScheduler);
+  }
+
+  private <T> Mono<T> isolate(Path mdFile, Mono<T> stage, ProcessingRun run) {
+    return isolate(mdFile.getFileName().toString(), stage, run);
+  }
+
+  private <T> Mono<T> isolate(String file, Mono<T> stage, ProcessingRun run) {
+    return stage.onErrorResume(e -> {
+      LOGGER.error("Error processing file {}", file, e);
+      run.failed.set(true);
+      return Mono.empty();
+    });
   }
 
   private String getMarkdownFileRoots(Path mdFile) {
@@ -154,51 +391,42 @@ public class MarkdownProcessor {
     return fullPath;
   }
 
-  private List<String> splitMarkdownIntoChunks(String markdownContent) {
-    List<String> chunks = new ArrayList<>();
-    Parser parser = Parser.builder().build();
-    Document document = parser.parse(markdownContent);
-
-    boolean lastHeadingHasContent = false;
-    StringBuilder chunkContent = new StringBuilder();
-    for (Node node : document.getChildren()) {
-      if (node instanceof Heading) {
-        // Encountered a new heading - treat as start of a new chunk
-        if (lastHeadingHasContent) {
-          chunks.add(chunkContent.toString());
-          chunkContent.setLength(0);
-          lastHeadingHasContent = false;
-        }
-        chunkContent.append(((Heading) node).getText()).append("\n");
-      } else {
-        lastHeadingHasContent = true;
-        chunkContent.append(node.getChars()).append("\n");
-      }
-    }
-    // Don't forget to add the last chunk
-    if (chunkContent.length() > 0) {
-      chunks.add(chunkContent.toString());
+  /**
+   * A markdown file flowing through the pipeline, the chunks and the embeddings of the new chunks
+   * are filled in by the later stages.
+   */
+  record MarkdownFile(Path path, String fileRoot, String hashValue, String content,
+      List<MarkdownChunk> chunks, List<MarkdownChunk> newChunks, List<Embedding> embeddings) {
+
+    MarkdownFile withChunks(List<MarkdownChunk> chunks, List<MarkdownChunk> newChunks) {
+      return new MarkdownFile(path, fileRoot, hashValue, content, chunks, newChunks, null);
     }
 
-    return chunks;
+    MarkdownFile withEmbeddings(List<Embedding> embeddings) {
+      return new MarkdownFile(path, fileRoot, hashValue, content, chunks, newChunks, embeddings);
+    }
   }
 
-  private String computeHash(String input) {
-    try {
-      MessageDigest md = MessageDigest.getInstance("SHA-256");
-      byte[] hash = md.digest(input.getBytes());
-      StringBuilder hexString = new StringBuilder(2 * hash.length);
-      for (byte b : hash) {
-        String hex = Integer.toHexString(0xff & b);
-        if (hex.length() == 1) {
-          hexString.append('0');
-        }
-        hexString.append(hex);
-      }
-      return hexString.toString();
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    }
+  /**
+   * Keeps track of whether all the files of a run are processed. The files dropped by the
+   * {@link EmbeddingBatcher} are not reported, so the changed files are counted instead.
+   */
+  private static class ProcessingRun {
+
+    private final AtomicBoolean failed = new AtomicBoolean();
+    /**
+     * the files which need to be persisted or removed
+     */
+    private final AtomicInteger changedFiles = new AtomicInteger();
+    private final AtomicInteger removedFiles = new AtomicInteger();
+    private final AtomicInteger removedRows = new AtomicInteger();
   }
 
+  /**
+   * @param file          the absolute path of the file, or its file root if it's no longer found
+   * @param chunkContents the contents of the chunks of the file, empty if it's removed
+   */
+  private record UpdatedFile(String fileRoot, String file, List<String> chunkContents) {
+
+  }
 }
@@ -1,12 +1,7 @@
 package com.apolloconfig.apollo.ai.qabot.markdown;
 
 import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownGitRepository.ChangedFiles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -23,48 +18,58 @@ public class MarkdownScheduledTask {
 
   private final MarkdownFilesConfig markdownFilesConfig;
 
+  private final MarkdownGitRepository gitRepository;
+
   public MarkdownScheduledTask(MarkdownProcessor markdownProcessor,
       MarkdownFilesConfig markdownFilesConfig) {
     this.markdownProcessor = markdownProcessor;
     this.markdownFilesConfig = markdownFilesConfig;
+    this.gitRepository = new MarkdownGitRepository(markdownFilesConfig.getLocation());
   }
 
+  /**
+   * Only the markdown files changed since the last indexed commit are processed, all of them are
+   * scanned only when git can't tell which ones changed, e.g. on the first run. Nothing but git is
+   * called when there are no new commits.
+   * <p>
+   * The indexed commit is recorded in the git repository, which outlives the index, so it's
+   * ignored when the index is found empty before processing the changed files, e.g. after the
+   * collection is dropped or the vector store is switched.
+   */
   @Scheduled(cron = "${markdown.files.scheduleCron}")
-  public void update() throws IOException, InterruptedException {
+  public void update() {
     LOGGER.debug("Start to update markdown files.");
-    this.updateMarkdownFiles();
-    LOGGER.debug("Start to load and process markdown files.");
-    List<String> updatedFiles = this.markdownProcessor.loadAndProcessFiles(
-        markdownFilesConfig.getLocation());
-    LOGGER.debug("Updated files: {}", updatedFiles);
-  }
+    gitRepository.pull();
+
+    String head = gitRepository.head();
+    String indexedCommit = gitRepository.indexedCommit();
+    if (head != null && head.equals(indexedCommit)) {
+      LOGGER.debug("No new commits since the last indexed commit {}.", indexedCommit);
+      return;
+    }
+    if (indexedCommit != null
+        && Boolean.TRUE.equals(markdownProcessor.isIndexEmptyAsync().block())) {
+      LOGGER.info("The index is empty, ignore the last indexed commit {}.", indexedCommit);
+      indexedCommit = null;
+    }
 
-  private void updateMarkdownFiles() {
-    ProcessBuilder pb = new ProcessBuilder("git", "pull");
-    pb.directory(new File(markdownFilesConfig.getLocation()));
+    ChangedFiles changedFiles = head == null || indexedCommit == null ? null
+        : gitRepository.diff(indexedCommit, head);
+    MarkdownProcessingResult result;
+    if (changedFiles == null) {
+      LOGGER.debug("Start to load and process all the markdown files.");
+      result = markdownProcessor.processAllFilesAsync(markdownFilesConfig.getLocation()).block();
+    } else {
+      LOGGER.debug("Start to process {} changed and {} removed markdown files since {}.",
+          changedFiles.changedFiles().size(), changedFiles.removedFiles().size(), indexedCommit);
+      result = markdownProcessor.processFilesAsync(changedFiles.changedFiles(),
+          changedFiles.removedFiles()).block();
+    }
+    LOGGER.debug("Updated files: {}", result.updatedFiles());
 
-    try {
-      Process process = pb.start();
-      boolean finished = process.waitFor(1, TimeUnit.MINUTES);
-      if (finished) {
-        int exitCode = process.exitValue();
-        if (exitCode == 0) {
-          LOGGER.debug("Git pull executed successfully.");
-        } else {
-          StringBuilder sb = new StringBuilder();
-          BufferedReader errorReader = new BufferedReader(
-              new InputStreamReader(process.getErrorStream()));
-          String line;
-          while ((line = errorReader.readLine()) != null) {
-            sb.append(line);
-          }
-          LOGGER.error("Git pull execution failed: {}", sb);
-        }
-      } else {
-        LOGGER.error("Git pull execution timed out.");
-      }
-    } catch (Exception e) {
-      LOGGER.error("Git pull execution failed.", e);
+    // the failed files are processed again by the next run
+    if (head != null && result.complete()) {
+      gitRepository.markIndexed(head);
     }
   }
 }
@@ -0,0 +1,84 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.GetLoadStateResponse;
+import io.milvus.grpc.LoadState;
+import io.milvus.param.R;
+import io.milvus.param.R.Status;
+import io.milvus.param.RpcStatus;
+import io.milvus.param.collection.GetLoadStateParam;
+import io.milvus.param.collection.LoadCollectionParam;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks whether the collections are loaded, so that the collections are loaded once instead of
+ * before every search and query, and only loaded again when milvus reports they are not loaded.
+ */
+class CollectionLoadStates {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CollectionLoadStates.class);
+
+  private final MilvusServiceClient milvusServiceClient;
+  private final Map<String, Boolean> loadStates = Maps.newConcurrentMap();
+
+  CollectionLoadStates(MilvusServiceClient milvusServiceClient) {
+    this.milvusServiceClient = milvusServiceClient;
+  }
+
+  void load(String collection) {
+    LoadCollectionParam loadCollectionParam = LoadCollectionParam.newBuilder()
+        .withCollectionName(collection)
+        .build();
+
+    R<RpcStatus> loadStatus = milvusServiceClient.loadCollection(loadCollectionParam);
+
+    if (loadStatus.getStatus() != Status.Success.getCode()) {
+      loadStates.put(collection, false);
+      throw new RuntimeException("Load collection failed: " + loadStatus.getMessage());
+    }
+
+    LOGGER.debug("Collection {} loaded", collection);
+    loadStates.put(collection, true);
+  }
+
+  void ensureLoaded(String collection) {
+    if (!isLoaded(collection)) {
+      load(collection);
+    }
+  }
+
+  /**
+   * Check the load state reported by milvus and load the collection again if it's not loaded.
+   *
+   * @return true if the collection was reloaded
+   */
+  boolean reloadIfNotLoaded(String collection) {
+    GetLoadStateParam getLoadStateParam = GetLoadStateParam.newBuilder()
+        .withCollectionName(collection)
+        .build();
+    R<GetLoadStateResponse> response = milvusServiceClient.getLoadState(getLoadStateParam);
+
+    if (response.getStatus() == Status.Success.getCode()
+        && response.getData().getState() == LoadState.LoadStateLoaded) {
+      loadStates.put(collection, true);
+      return false;
+    }
+
+    LOGGER.warn("Collection {} is not loaded, loading it again", collection);
+    loadStates.put(collection, false);
+    load(collection);
+    return true;
+  }
+
+  boolean isLoaded(String collection) {
+    return Boolean.TRUE.equals(loadStates.get(collection));
+  }
+
+  Map<String, Boolean> getLoadStates() {
+    return ImmutableMap.copyOf(loadStates);
+  }
+}
@@ -0,0 +1,52 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the filter expressions of the milvus queries and deletes. The string values are quoted
+ * and escaped, so a file root containing quotes can't break out of the expression.
+ */
+final class MilvusExpressions {
+
+  private MilvusExpressions() {
+  }
+
+  /**
+   * @return the expression matching the rows whose field is the value
+   */
+  static String in(String field, String value) {
+    return in(field, List.of(value));
+  }
+
+  /**
+   * @return the expression matching the rows whose field is any of the values
+   */
+  static String in(String field, Collection<String> values) {
+    return values.stream()
+        .map(MilvusExpressions::quote)
+        .collect(Collectors.joining(", ", field + " in [", "]"));
+  }
+
+  /**
+   * @return the expression matching the rows whose int64 field is any of the ids
+   */
+  static String inIds(String field, Collection<Long> ids) {
+    return ids.stream()
+        .map(String::valueOf)
+        .collect(Collectors.joining(", ", field + " in [", "]"));
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\');
+      }
+      quoted.append(c);
+    }
+    return quoted.append('"').toString();
+  }
+}
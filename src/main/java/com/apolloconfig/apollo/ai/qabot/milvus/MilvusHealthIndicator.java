@@ -0,0 +1,34 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import java.util.Map;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exposes the load states of the milvus collections via the actuator health endpoint.
+ */
+@Profile("milvus")
+@Component
+class MilvusHealthIndicator implements HealthIndicator {
+
+  private final MilvusService milvusService;
+
+  public MilvusHealthIndicator(MilvusService milvusService) {
+    this.milvusService = milvusService;
+  }
+
+  @Override
+  public Health health() {
+    Map<String, Boolean> loadStates = milvusService.getCollectionLoadStates();
+    boolean allLoaded = !loadStates.isEmpty() && loadStates.values().stream()
+        .allMatch(Boolean::booleanValue);
+
+    Health.Builder builder = allLoaded ? Health.up() : Health.outOfService();
+    loadStates.forEach(
+        (collection, loaded) -> builder.withDetail(collection, loaded ? "loaded" : "not loaded"));
+
+    return builder.build();
+  }
+}
@@ -0,0 +1,175 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import com.apolloconfig.apollo.ai.qabot.config.MilvusConfig;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.DescribeIndexResponse;
+import io.milvus.grpc.IndexDescription;
+import io.milvus.grpc.KeyValuePair;
+import io.milvus.param.IndexType;
+import io.milvus.param.R;
+import io.milvus.param.R.Status;
+import io.milvus.param.collection.ReleaseCollectionParam;
+import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.index.DescribeIndexParam;
+import io.milvus.param.index.DropIndexParam;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the indexes of the collections in line with the configured ones. When the deployed index
+ * of a vector field has another type, metric or build params, it's dropped and built again from
+ * the data already in the collection, so nothing needs to be re-embedded.
+ * <p>
+ * Milvus only allows one index per field and requires the collection to be released to drop it,
+ * so the collection can't be searched until the new index is built and the collection is loaded
+ * again. This happens on startup, before the collection is loaded and any search is served.
+ */
+class MilvusIndexManager {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MilvusIndexManager.class);
+
+  private static final String INDEX_TYPE = "index_type";
+  private static final String METRIC_TYPE = "metric_type";
+  private static final String PARAMS = "params";
+
+  private final MilvusServiceClient milvusServiceClient;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  MilvusIndexManager(MilvusServiceClient milvusServiceClient) {
+    this.milvusServiceClient = milvusServiceClient;
+  }
+
+  void ensureVectorIndex(String collection, String field, MilvusConfig.Index index) {
+    IndexDescription deployed = describeIndex(collection, field);
+    if (deployed == null) {
+      LOGGER.info("Creating {} index on {}.{}", index.getIndexType(), collection, field);
+      createIndex(collection, field, index);
+      return;
+    }
+
+    if (matches(deployed, index)) {
+      return;
+    }
+
+    LOGGER.warn("Index {} of {}.{} doesn't match the configured {} {} index with params {}, "
+            + "rebuilding it", deployed.getParamsList(), collection, field, index.getIndexType(),
+        index.getMetricType(), index.getParams());
+    release(collection);
+    checkResponse("Drop index", milvusServiceClient.dropIndex(
+        DropIndexParam.newBuilder()
+            .withCollectionName(collection)
+            .withIndexName(deployed.getIndexName())
+            .build()));
+    createIndex(collection, field, index);
+    LOGGER.info("Rebuilt the index of {}.{}", collection, field);
+  }
+
+  /**
+   * Create the scalar index of the field if it has none, e.g. for the collections created before
+   * the field was indexed.
+   */
+  void ensureScalarIndex(String collection, String field, IndexType indexType) {
+    if (describeIndex(collection, field) != null) {
+      return;
+    }
+
+    LOGGER.info("Creating {} index on {}.{}", indexType, collection, field);
+    release(collection);
+    checkResponse("Create index", milvusServiceClient.createIndex(
+        CreateIndexParam.newBuilder()
+            .withCollectionName(collection)
+            .withFieldName(field)
+            .withIndexType(indexType)
+            .withSyncMode(Boolean.TRUE)
+            .build()));
+  }
+
+  private void release(String collection) {
+    checkResponse("Release collection", milvusServiceClient.releaseCollection(
+        ReleaseCollectionParam.newBuilder()
+            .withCollectionName(collection)
+            .build()));
+  }
+
+  /**
+   * @return the index of the field, null if the field has no index
+   */
+  private IndexDescription describeIndex(String collection, String field) {
+    R<DescribeIndexResponse> response = milvusServiceClient.describeIndex(
+        DescribeIndexParam.newBuilder()
+            .withCollectionName(collection)
+            .build());
+    // milvus reports a missing index as a failure
+    if (response.getStatus() != Status.Success.getCode()) {
+      LOGGER.debug("Describe index of {}.{} failed: {}", collection, field,
+          response.getMessage());
+      return null;
+    }
+
+    return response.getData().getIndexDescriptionsList().stream()
+        .filter(description -> field.equals(description.getFieldName()))
+        .findFirst()
+        .orElse(null);
+  }
+
+  private boolean matches(IndexDescription deployed, MilvusConfig.Index index) {
+    Map<String, String> deployedParams = new HashMap<>();
+    String indexType = null;
+    String metricType = null;
+    for (KeyValuePair param : deployed.getParamsList()) {
+      switch (param.getKey()) {
+        case INDEX_TYPE -> indexType = param.getValue();
+        case METRIC_TYPE -> metricType = param.getValue();
+        // the build params are either reported in json or one by one, depending on the version
+        case PARAMS -> deployedParams.putAll(parseParams(param.getValue()));
+        default -> deployedParams.put(param.getKey(), param.getValue());
+      }
+    }
+
+    return index.getIndexType().name().equalsIgnoreCase(indexType)
+        && index.getMetricType().name().equalsIgnoreCase(metricType)
+        && parseParams(index.getParams()).equals(deployedParams);
+  }
+
+  private void createIndex(String collection, String field, MilvusConfig.Index index) {
+    checkResponse("Create index", milvusServiceClient.createIndex(
+        CreateIndexParam.newBuilder()
+            .withCollectionName(collection)
+            .withFieldName(field)
+            .withIndexType(index.getIndexType())
+            .withMetricType(index.getMetricType())
+            .withExtraParam(index.getParams())
+            .withSyncMode(Boolean.TRUE)
+            .build()));
+  }
+
+  /**
+   * @return the params with the values as strings, milvus reports all of them as strings
+   */
+  private Map<String, String> parseParams(String json) {
+    if (json == null || json.isBlank()) {
+      return new HashMap<>();
+    }
+
+    try {
+      Map<String, Object> params = objectMapper.readValue(json, new TypeReference<>() {
+      });
+      Map<String, String> values = new HashMap<>();
+      params.forEach((key, value) -> values.put(key, String.valueOf(value)));
+      return values;
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Invalid index params: " + json, e);
+    }
+  }
+
+  private void checkResponse(String operation, R<?> response) {
+    if (response.getStatus() != Status.Success.getCode()) {
+      throw new RuntimeException(operation + " failed: " + response.getMessage());
+    }
+  }
+}
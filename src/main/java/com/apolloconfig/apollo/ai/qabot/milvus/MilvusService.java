@@ -2,114 +2,168 @@ package com.apolloconfig.apollo.ai.qabot.milvus;
 
 import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
 import com.apolloconfig.apollo.ai.qabot.config.MilvusConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownChunk;
 import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.theokanning.openai.embedding.Embedding;
 import io.milvus.client.MilvusServiceClient;
-import io.milvus.common.clientenum.ConsistencyLevelEnum;
 import io.milvus.grpc.DataType;
+import io.milvus.grpc.DescribeCollectionResponse;
 import io.milvus.grpc.QueryResults;
 import io.milvus.grpc.SearchResults;
 import io.milvus.param.IndexType;
 import io.milvus.param.MetricType;
 import io.milvus.param.R;
 import io.milvus.param.R.Status;
-import io.milvus.param.RpcStatus;
 import io.milvus.param.collection.CreateCollectionParam;
+import io.milvus.param.collection.DescribeCollectionParam;
 import io.milvus.param.collection.FieldType;
-import io.milvus.param.collection.FlushParam;
 import io.milvus.param.collection.HasCollectionParam;
-import io.milvus.param.collection.LoadCollectionParam;
-import io.milvus.param.dml.DeleteParam;
 import io.milvus.param.dml.InsertParam;
 import io.milvus.param.dml.InsertParam.Field;
 import io.milvus.param.dml.QueryParam;
 import io.milvus.param.dml.SearchParam;
 import io.milvus.param.index.CreateIndexParam;
+import io.milvus.response.DescCollResponseWrapper;
 import io.milvus.response.QueryResultsWrapper;
 import io.milvus.response.SearchResultsWrapper;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 @Profile("milvus")
 @Service
 class MilvusService implements VectorDBService {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(MilvusService.class);
+
   private final MilvusServiceClient milvusServiceClient;
   private final MilvusConfig milvusConfig;
+  private final Scheduler blockingScheduler;
+  private final CollectionLoadStates collectionLoadStates;
   private final List<Float> dummyEmbeddings = Lists.newArrayList();
+  private final MilvusWriteBuffer writeBuffer;
+  private boolean chunkHashEnabled;
+
+  @Autowired
+  public MilvusService(MilvusConfig milvusConfig, Scheduler blockingScheduler) {
+    this(createClient(milvusConfig), milvusConfig, blockingScheduler);
+  }
 
-  public MilvusService(MilvusConfig milvusConfig) {
+  @VisibleForTesting
+  MilvusService(MilvusServiceClient milvusServiceClient, MilvusConfig milvusConfig,
+      Scheduler blockingScheduler) {
+    this.milvusServiceClient = milvusServiceClient;
     this.milvusConfig = milvusConfig;
+    this.blockingScheduler = blockingScheduler;
+    this.collectionLoadStates = new CollectionLoadStates(milvusServiceClient);
+    this.ensureCollections();
+    this.loadCollections();
+    // the chunks are written before the file hash values
+    Map<String, String> primaryKeys = new LinkedHashMap<>();
+    primaryKeys.put(milvusConfig.getCollection(), "chunk_id");
+    primaryKeys.put(milvusConfig.getFileCollection(), "file_id");
+    this.writeBuffer = new MilvusWriteBuffer(milvusServiceClient, primaryKeys,
+        milvusConfig.getWrite().getBatchSize(), milvusConfig.getWrite().getFlushThreshold());
+  }
+
+  private static MilvusServiceClient createClient(MilvusConfig milvusConfig) {
     if (milvusConfig.isUseZillzCloud()) {
-      this.milvusServiceClient = MilvusClientFactory.getCloudClient(
-          milvusConfig.getZillizCloudUri(),
+      return MilvusClientFactory.getCloudClient(milvusConfig.getZillizCloudUri(),
           milvusConfig.getZillizCloudToken());
-    } else {
-      this.milvusServiceClient = MilvusClientFactory.getClient(milvusConfig.getHost(),
-          milvusConfig.getPort());
     }
-    this.ensureCollections();
-  }
 
-  public void persistChunkEmbeddings(String fileRoot, List<String> chunks,
-      List<Embedding> embeddings) {
-    List<Long> currentChunkIds = queryChunkIdByFileRoot(fileRoot);
+    return MilvusClientFactory.getClient(milvusConfig.getHost(), milvusConfig.getPort());
+  }
 
-    List<String> fileRoots = Lists.newArrayListWithCapacity(chunks.size());
-    List<List<Float>> embeddingsList = Lists.newArrayListWithCapacity(chunks.size());
-    for (int i = 0; i < chunks.size(); i++) {
-      fileRoots.add(fileRoot);
-      embeddingsList.add(embeddings.get(i).getEmbedding().stream().map(Double::floatValue)
+  @Override
+  public void persistChunkEmbeddings(String fileRoot, List<MarkdownChunk> chunks,
+      List<MarkdownChunk> newChunks, List<Embedding> newEmbeddings) {
+    Map<Long, String> currentChunks = queryChunksByFileRoot(fileRoot);
+    Set<String> currentChunkHashValues = Sets.newHashSet(currentChunks.values());
+
+    List<String> chunkContents = Lists.newArrayListWithCapacity(newChunks.size());
+    List<String> chunkHashValues = Lists.newArrayListWithCapacity(newChunks.size());
+    List<List<Float>> embeddingsList = Lists.newArrayListWithCapacity(newChunks.size());
+    for (int i = 0; i < newChunks.size(); i++) {
+      MarkdownChunk chunk = newChunks.get(i);
+      if (chunkHashEnabled && currentChunkHashValues.contains(chunk.hashValue())) {
+        continue;
+      }
+      chunkContents.add(chunk.content());
+      chunkHashValues.add(chunk.hashValue());
+      embeddingsList.add(newEmbeddings.get(i).getEmbedding().stream().map(Double::floatValue)
           .collect(Collectors.toList()));
     }
 
-    List<Field> fields = new ArrayList<>();
-    fields.add(new InsertParam.Field("chunk_content", chunks));
-    fields.add(new InsertParam.Field("chunk_embedding", embeddingsList));
-    fields.add(new InsertParam.Field("file_root", fileRoots));
-
-    InsertParam insertParam = InsertParam.newBuilder()
-        .withCollectionName(milvusConfig.getCollection())
-        .withFields(fields)
-        .build();
-    milvusServiceClient.insert(insertParam);
+    if (!chunkContents.isEmpty()) {
+      List<Field> fields = new ArrayList<>();
+      fields.add(new InsertParam.Field("chunk_content", chunkContents));
+      fields.add(new InsertParam.Field("chunk_embedding", embeddingsList));
+      fields.add(new InsertParam.Field("file_root",
+          Collections.nCopies(chunkContents.size(), fileRoot)));
+      if (chunkHashEnabled) {
+        fields.add(new InsertParam.Field("chunk_hash", chunkHashValues));
+      }
 
-    deleteByChunkIdList(currentChunkIds);
+      writeBuffer.insert(milvusConfig.getCollection(), fields);
+    }
 
-    FlushParam flushParam = FlushParam.newBuilder()
-        .withCollectionNames(Lists.newArrayList(milvusConfig.getCollection()))
-        .build();
-    milvusServiceClient.flush(flushParam);
+    // without the chunk hash values, all the current chunks are replaced by the new ones
+    Set<String> retainedChunkHashValues = chunks.stream().map(MarkdownChunk::hashValue)
+        .collect(Collectors.toSet());
+    List<Long> removedChunkIds = currentChunks.entrySet().stream()
+        .filter(entry -> !chunkHashEnabled || !retainedChunkHashValues.contains(entry.getValue()))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toList());
+    if (!removedChunkIds.isEmpty()) {
+      writeBuffer.delete(milvusConfig.getCollection(), removedChunkIds);
+    }
   }
 
-  public List<MarkdownSearchResult> search(List<List<Float>> searchVectors, int topK) {
-    LoadCollectionParam loadCollectionParam = LoadCollectionParam.newBuilder()
-        .withCollectionName(milvusConfig.getCollection())
-        .build();
+  @Override
+  public Set<String> queryChunkHashValues(String fileRoot) {
+    if (!chunkHashEnabled) {
+      return Collections.emptySet();
+    }
 
-    R<RpcStatus> loadStatus = milvusServiceClient.loadCollection(
-        loadCollectionParam);
+    return Sets.newHashSet(queryChunksByFileRoot(fileRoot).values());
+  }
 
+  public List<MarkdownSearchResult> search(List<List<Float>> searchVectors, int topK) {
     List<String> searchOutputFields = Arrays.asList("chunk_id", "chunk_content", "file_root");
 
     SearchParam searchParam = SearchParam.newBuilder()
         .withCollectionName(milvusConfig.getCollection())
-        .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
-        .withMetricType(MetricType.L2)
+        .withConsistencyLevel(milvusConfig.getSearch().getConsistencyLevel())
+        .withMetricType(milvusConfig.getIndex().getMetricType())
+        .withParams(milvusConfig.getSearch().getParams())
         .withOutFields(searchOutputFields)
         .withTopK(topK)
         .withVectors(searchVectors)
         .withVectorFieldName("chunk_embedding")
         .build();
-    R<SearchResults> respSearch = milvusServiceClient.search(searchParam);
+    R<SearchResults> respSearch = callWithLoadedCollection(milvusConfig.getCollection(),
+        () -> milvusServiceClient.search(searchParam));
 
     if (respSearch.getStatus() != Status.Success.getCode()) {
       throw new RuntimeException("Search failed: " + respSearch.getMessage());
@@ -135,41 +189,27 @@ class MilvusService implements VectorDBService {
     return results;
   }
 
-  private void deleteByChunkIdList(List<Long> chunkIds) {
-    if (!chunkIds.isEmpty()) {
-      StringBuilder sb = new StringBuilder();
-      sb.append("chunk_id in [");
-      for (int i = 0; i < chunkIds.size(); i++) {
-        sb.append(chunkIds.get(i));
-        if (i != chunkIds.size() - 1) {
-          sb.append(",");
-        }
-      }
-      sb.append("]");
-      DeleteParam deleteParam = DeleteParam.newBuilder()
-          .withCollectionName(milvusConfig.getCollection())
-          .withExpr(sb.toString())
-          .build();
-      milvusServiceClient.delete(deleteParam);
-    }
+  @Override
+  public Mono<List<MarkdownSearchResult>> searchAsync(List<List<Float>> searchVectors, int topK) {
+    // the milvus grpc stub is blocking, so keep it off the event loop
+    return Mono.fromCallable(() -> search(searchVectors, topK)).subscribeOn(blockingScheduler);
   }
 
-  private List<Long> queryChunkIdByFileRoot(String fileRoot) {
-    LoadCollectionParam loadCollectionParam = LoadCollectionParam.newBuilder()
-        .withCollectionName(milvusConfig.getCollection())
-        .build();
-
-    R<RpcStatus> loadStatus = milvusServiceClient.loadCollection(
-        loadCollectionParam);
-
-    List<String> query_output_fields = List.of("chunk_id");
+  /**
+   * @return the chunk hash values keyed by the chunk ids, the values are null if the collection
+   * does not have the chunk hash field
+   */
+  private Map<Long, String> queryChunksByFileRoot(String fileRoot) {
+    List<String> query_output_fields = chunkHashEnabled ? List.of("chunk_id", "chunk_hash")
+        : List.of("chunk_id");
     QueryParam queryParam = QueryParam.newBuilder()
         .withCollectionName(milvusConfig.getCollection())
-        .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
-        .withExpr(String.format("file_root in ['%s']", fileRoot))
+        .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+        .withExpr(MilvusExpressions.in("file_root", fileRoot))
         .withOutFields(query_output_fields)
         .build();
-    R<QueryResults> respQuery = milvusServiceClient.query(queryParam);
+    R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getCollection(),
+        () -> milvusServiceClient.query(queryParam));
 
     if (respQuery.getStatus() != Status.Success.getCode()) {
       throw new RuntimeException("Query failed: " + respQuery.getMessage());
@@ -179,30 +219,31 @@ class MilvusService implements VectorDBService {
     List<?> chunkIds = wrapperQuery.getFieldWrapper("chunk_id").getFieldData();
 
     if (CollectionUtils.isEmpty(chunkIds)) {
-      return Collections.emptyList();
+      return Collections.emptyMap();
     }
 
-    return chunkIds.stream().map(id -> Long.parseLong(id.toString()))
-        .collect(Collectors.toList());
+    List<?> chunkHashValues = chunkHashEnabled
+        ? wrapperQuery.getFieldWrapper("chunk_hash").getFieldData() : null;
+    Map<Long, String> chunks = Maps.newHashMapWithExpectedSize(chunkIds.size());
+    for (int i = 0; i < chunkIds.size(); i++) {
+      chunks.put(Long.parseLong(chunkIds.get(i).toString()),
+          chunkHashValues == null ? null : chunkHashValues.get(i).toString());
+    }
+
+    return chunks;
   }
 
   @Override
   public String queryFileHashValue(String fileRoot) {
-    LoadCollectionParam loadCollectionParam = LoadCollectionParam.newBuilder()
-        .withCollectionName(milvusConfig.getFileCollection())
-        .build();
-
-    R<RpcStatus> loadStatus = milvusServiceClient.loadCollection(
-        loadCollectionParam);
-
     List<String> query_output_fields = List.of("hash_value");
     QueryParam queryParam = QueryParam.newBuilder()
         .withCollectionName(milvusConfig.getFileCollection())
-        .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
-        .withExpr(String.format("file_root in ['%s']", fileRoot))
+        .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+        .withExpr(MilvusExpressions.in("file_root", fileRoot))
         .withOutFields(query_output_fields)
         .build();
-    R<QueryResults> respQuery = milvusServiceClient.query(queryParam);
+    R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getFileCollection(),
+        () -> milvusServiceClient.query(queryParam));
 
     if (respQuery.getStatus() != Status.Success.getCode()) {
       throw new RuntimeException("Query failed: " + respQuery.getMessage());
@@ -218,6 +259,154 @@ class MilvusService implements VectorDBService {
     return hashValues.get(0).toString();
   }
 
+  @Override
+  public boolean hasFiles() {
+    QueryParam queryParam = QueryParam.newBuilder()
+        .withCollectionName(milvusConfig.getFileCollection())
+        .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+        .withExpr("file_id > -1")
+        .withOutFields(List.of("file_id"))
+        .withLimit(1L)
+        .build();
+    R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getFileCollection(),
+        () -> milvusServiceClient.query(queryParam));
+
+    if (respQuery.getStatus() != Status.Success.getCode()) {
+      throw new RuntimeException("Query failed: " + respQuery.getMessage());
+    }
+
+    QueryResultsWrapper wrapperQuery = new QueryResultsWrapper(respQuery.getData());
+    return !CollectionUtils.isEmpty(wrapperQuery.getFieldWrapper("file_id").getFieldData());
+  }
+
+  /**
+   * Scan the file collection in pages ordered by file_id. A file root may briefly have two rows
+   * while it is being persisted, the one with the larger file_id is the newer one.
+   */
+  @Override
+  public Map<String, String> queryAllFileHashValues() {
+    Map<String, String> hashValues = Maps.newHashMap();
+    Map<String, Long> fileIds = Maps.newHashMap();
+    long lastFileId = -1;
+    while (true) {
+      QueryParam queryParam = QueryParam.newBuilder()
+          .withCollectionName(milvusConfig.getFileCollection())
+          .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+          .withExpr(String.format("file_id > %d", lastFileId))
+          .withOutFields(List.of("file_id", "file_root", "hash_value"))
+          .withLimit(milvusConfig.getIngestion().getQueryPageSize())
+          .build();
+      R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getFileCollection(),
+          () -> milvusServiceClient.query(queryParam));
+
+      if (respQuery.getStatus() != Status.Success.getCode()) {
+        throw new RuntimeException("Query failed: " + respQuery.getMessage());
+      }
+
+      QueryResultsWrapper wrapperQuery = new QueryResultsWrapper(respQuery.getData());
+      List<?> pageFileIds = wrapperQuery.getFieldWrapper("file_id").getFieldData();
+      if (CollectionUtils.isEmpty(pageFileIds)) {
+        return hashValues;
+      }
+      List<?> fileRoots = wrapperQuery.getFieldWrapper("file_root").getFieldData();
+      List<?> pageHashValues = wrapperQuery.getFieldWrapper("hash_value").getFieldData();
+
+      for (int i = 0; i < pageFileIds.size(); i++) {
+        long fileId = Long.parseLong(pageFileIds.get(i).toString());
+        String fileRoot = fileRoots.get(i).toString();
+        Long currentFileId = fileIds.get(fileRoot);
+        if (currentFileId == null || currentFileId < fileId) {
+          fileIds.put(fileRoot, fileId);
+          hashValues.put(fileRoot, pageHashValues.get(i).toString());
+        }
+        lastFileId = Math.max(lastFileId, fileId);
+      }
+
+      if (pageFileIds.size() < milvusConfig.getIngestion().getQueryPageSize()) {
+        return hashValues;
+      }
+    }
+  }
+
+  /**
+   * Scan the chunk collection in pages ordered by chunk_id.
+   */
+  @Override
+  public Set<String> queryAllChunkFileRoots() {
+    Set<String> fileRoots = Sets.newHashSet();
+    long lastChunkId = -1;
+    while (true) {
+      QueryParam queryParam = QueryParam.newBuilder()
+          .withCollectionName(milvusConfig.getCollection())
+          .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+          .withExpr(String.format("chunk_id > %d", lastChunkId))
+          .withOutFields(List.of("chunk_id", "file_root"))
+          .withLimit(milvusConfig.getIngestion().getQueryPageSize())
+          .build();
+      R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getCollection(),
+          () -> milvusServiceClient.query(queryParam));
+
+      if (respQuery.getStatus() != Status.Success.getCode()) {
+        throw new RuntimeException("Query failed: " + respQuery.getMessage());
+      }
+
+      QueryResultsWrapper wrapperQuery = new QueryResultsWrapper(respQuery.getData());
+      List<?> chunkIds = wrapperQuery.getFieldWrapper("chunk_id").getFieldData();
+      if (CollectionUtils.isEmpty(chunkIds)) {
+        return fileRoots;
+      }
+      List<?> pageFileRoots = wrapperQuery.getFieldWrapper("file_root").getFieldData();
+
+      for (int i = 0; i < chunkIds.size(); i++) {
+        fileRoots.add(pageFileRoots.get(i).toString());
+        lastChunkId = Math.max(lastChunkId, Long.parseLong(chunkIds.get(i).toString()));
+      }
+
+      if (chunkIds.size() < milvusConfig.getIngestion().getQueryPageSize()) {
+        return fileRoots;
+      }
+    }
+  }
+
+  @Override
+  public Map<String, List<String>> queryAllChunkContents() {
+    Map<String, List<String>> chunkContents = Maps.newHashMap();
+    long lastChunkId = -1;
+    while (true) {
+      QueryParam queryParam = QueryParam.newBuilder()
+          .withCollectionName(milvusConfig.getCollection())
+          .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+          .withExpr(String.format("chunk_id > %d", lastChunkId))
+          .withOutFields(List.of("chunk_id", "file_root", "chunk_content"))
+          .withLimit(milvusConfig.getIngestion().getQueryPageSize())
+          .build();
+      R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getCollection(),
+          () -> milvusServiceClient.query(queryParam));
+
+      if (respQuery.getStatus() != Status.Success.getCode()) {
+        throw new RuntimeException("Query failed: " + respQuery.getMessage());
+      }
+
+      QueryResultsWrapper wrapperQuery = new QueryResultsWrapper(respQuery.getData());
+      List<?> chunkIds = wrapperQuery.getFieldWrapper("chunk_id").getFieldData();
+      if (CollectionUtils.isEmpty(chunkIds)) {
+        return chunkContents;
+      }
+      List<?> fileRoots = wrapperQuery.getFieldWrapper("file_root").getFieldData();
+      List<?> contents = wrapperQuery.getFieldWrapper("chunk_content").getFieldData();
+
+      for (int i = 0; i < chunkIds.size(); i++) {
+        chunkContents.computeIfAbsent(fileRoots.get(i).toString(), key -> new ArrayList<>())
+            .add(contents.get(i).toString());
+        lastChunkId = Math.max(lastChunkId, Long.parseLong(chunkIds.get(i).toString()));
+      }
+
+      if (chunkIds.size() < milvusConfig.getIngestion().getQueryPageSize()) {
+        return chunkContents;
+      }
+    }
+  }
+
   @Override
   public void persistFile(String fileRoot, String hashValue) {
     List<Long> currentFileIds = queryFileIdByFileRoot(fileRoot);
@@ -227,55 +416,96 @@ class MilvusService implements VectorDBService {
     fields.add(new InsertParam.Field("dummy_embedding", List.of(dummyEmbeddings)));
     fields.add(new InsertParam.Field("file_root", List.of(fileRoot)));
 
-    InsertParam insertParam = InsertParam.newBuilder()
-        .withCollectionName(milvusConfig.getFileCollection())
-        .withFields(fields)
-        .build();
-    milvusServiceClient.insert(insertParam);
+    writeBuffer.insert(milvusConfig.getFileCollection(), fields);
+    if (!currentFileIds.isEmpty()) {
+      writeBuffer.delete(milvusConfig.getFileCollection(), currentFileIds);
+    }
+  }
 
-    deleteByFileIdList(currentFileIds);
+  /**
+   * The rows of all the files are queried with one filter per collection and deleted together.
+   */
+  @Override
+  public int removeFiles(Collection<String> fileRoots) {
+    if (fileRoots.isEmpty()) {
+      return 0;
+    }
 
-    FlushParam flushParam = FlushParam.newBuilder()
-        .withCollectionNames(Lists.newArrayList(milvusConfig.getFileCollection()))
-        .build();
-    milvusServiceClient.flush(flushParam);
-  }
+    List<Long> chunkIds = queryIdsByFileRoots(milvusConfig.getCollection(), "chunk_id",
+        fileRoots);
+    List<Long> fileIds = queryIdsByFileRoots(milvusConfig.getFileCollection(), "file_id",
+        fileRoots);
 
-  private void deleteByFileIdList(List<Long> fileIds) {
+    if (!chunkIds.isEmpty()) {
+      writeBuffer.delete(milvusConfig.getCollection(), chunkIds);
+    }
     if (!fileIds.isEmpty()) {
-      StringBuilder sb = new StringBuilder();
-      sb.append("file_id in [");
-      for (int i = 0; i < fileIds.size(); i++) {
-        sb.append(fileIds.get(i));
-        if (i != fileIds.size() - 1) {
-          sb.append(",");
-        }
-      }
-      sb.append("]");
-      DeleteParam deleteParam = DeleteParam.newBuilder()
-          .withCollectionName(milvusConfig.getFileCollection())
-          .withExpr(sb.toString())
-          .build();
-      milvusServiceClient.delete(deleteParam);
+      writeBuffer.delete(milvusConfig.getFileCollection(), fileIds);
     }
+
+    return chunkIds.size() + fileIds.size();
   }
 
-  private List<Long> queryFileIdByFileRoot(String fileRoot) {
-    LoadCollectionParam loadCollectionParam = LoadCollectionParam.newBuilder()
-        .withCollectionName(milvusConfig.getFileCollection())
-        .build();
+  /**
+   * The inserts and deletes are buffered across files until the end of the processing run, see
+   * {@link MilvusWriteBuffer}.
+   */
+  @Override
+  public void flush() {
+    writeBuffer.flush();
+  }
+
+  /**
+   * @return the primary keys of the rows of the files, queried in pages ordered by the primary key
+   */
+  private List<Long> queryIdsByFileRoots(String collection, String primaryKey,
+      Collection<String> fileRoots) {
+    String fileRootsExpr = MilvusExpressions.in("file_root", fileRoots);
+    List<Long> ids = new ArrayList<>();
+    long lastId = -1;
+    while (true) {
+      QueryParam queryParam = QueryParam.newBuilder()
+          .withCollectionName(collection)
+          .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+          .withExpr(String.format("%s and %s > %d", fileRootsExpr, primaryKey, lastId))
+          .withOutFields(List.of(primaryKey))
+          .withLimit(milvusConfig.getIngestion().getQueryPageSize())
+          .build();
+      R<QueryResults> respQuery = callWithLoadedCollection(collection,
+          () -> milvusServiceClient.query(queryParam));
+
+      if (respQuery.getStatus() != Status.Success.getCode()) {
+        throw new RuntimeException("Query failed: " + respQuery.getMessage());
+      }
 
-    R<RpcStatus> loadStatus = milvusServiceClient.loadCollection(
-        loadCollectionParam);
+      QueryResultsWrapper wrapperQuery = new QueryResultsWrapper(respQuery.getData());
+      List<?> pageIds = wrapperQuery.getFieldWrapper(primaryKey).getFieldData();
+      if (CollectionUtils.isEmpty(pageIds)) {
+        return ids;
+      }
+
+      for (Object pageId : pageIds) {
+        long id = Long.parseLong(pageId.toString());
+        ids.add(id);
+        lastId = Math.max(lastId, id);
+      }
+
+      if (pageIds.size() < milvusConfig.getIngestion().getQueryPageSize()) {
+        return ids;
+      }
+    }
+  }
 
+  private List<Long> queryFileIdByFileRoot(String fileRoot) {
     List<String> query_output_fields = List.of("file_id");
     QueryParam queryParam = QueryParam.newBuilder()
         .withCollectionName(milvusConfig.getFileCollection())
-        .withConsistencyLevel(ConsistencyLevelEnum.STRONG)
-        .withExpr(String.format("file_root in ['%s']", fileRoot))
+        .withConsistencyLevel(milvusConfig.getIngestion().getConsistencyLevel())
+        .withExpr(MilvusExpressions.in("file_root", fileRoot))
         .withOutFields(query_output_fields)
         .build();
-    R<QueryResults> respQuery = milvusServiceClient.query(queryParam);
+    R<QueryResults> respQuery = callWithLoadedCollection(milvusConfig.getFileCollection(),
+        () -> milvusServiceClient.query(queryParam));
 
     if (respQuery.getStatus() != Status.Success.getCode()) {
       throw new RuntimeException("Query failed: " + respQuery.getMessage());
@@ -293,9 +523,62 @@ class MilvusService implements VectorDBService {
   }
 
 
+  Map<String, Boolean> getCollectionLoadStates() {
+    return collectionLoadStates.getLoadStates();
+  }
+
+  /**
+   * Make sure the collection is loaded before calling milvus, and retry once if the call failed
+   * because milvus no longer has the collection loaded, e.g. after a milvus restart.
+   */
+  private <T> R<T> callWithLoadedCollection(String collection, Supplier<R<T>> call) {
+    collectionLoadStates.ensureLoaded(collection);
+    R<T> response = call.get();
+    if (response.getStatus() != Status.Success.getCode()
+        && collectionLoadStates.reloadIfNotLoaded(collection)) {
+      response = call.get();
+    }
+
+    return response;
+  }
+
+  private void loadCollections() {
+    collectionLoadStates.load(milvusConfig.getCollection());
+    collectionLoadStates.load(milvusConfig.getFileCollection());
+  }
+
   private void ensureCollections() {
     ensureChunkCollection();
     ensureFileCollection();
+    MilvusIndexManager indexManager = new MilvusIndexManager(milvusServiceClient);
+    indexManager.ensureVectorIndex(milvusConfig.getCollection(), "chunk_embedding",
+        milvusConfig.getIndex());
+    // every ingestion step filters by the file root
+    indexManager.ensureScalarIndex(milvusConfig.getCollection(), "file_root", IndexType.TRIE);
+    indexManager.ensureScalarIndex(milvusConfig.getFileCollection(), "file_root", IndexType.TRIE);
+    chunkHashEnabled = hasChunkHashField();
+  }
+
+  /**
+   * The collections created before the chunk hash field was introduced can't have it added, so
+   * their files are still re-embedded and replaced as a whole until the collection is recreated.
+   */
+  private boolean hasChunkHashField() {
+    R<DescribeCollectionResponse> response = milvusServiceClient.describeCollection(
+        DescribeCollectionParam.newBuilder()
+            .withCollectionName(milvusConfig.getCollection())
+            .build());
+    if (response.getStatus() != Status.Success.getCode()) {
+      throw new RuntimeException("Describe collection failed: " + response.getMessage());
+    }
+
+    boolean hasField = new DescCollResponseWrapper(response.getData())
+        .getFieldByName("chunk_hash") != null;
+    if (!hasField) {
+      LOGGER.warn("Collection {} has no chunk_hash field, drop it to re-embed only the changed "
+          + "chunks of the changed files", milvusConfig.getCollection());
+    }
+    return hasField;
   }
 
   private void ensureChunkCollection() {
@@ -328,6 +611,11 @@ class MilvusService implements VectorDBService {
         .withDataType(DataType.FloatVector)
         .withDimension(1536)
         .build();
+    FieldType chunkHash = FieldType.newBuilder()
+        .withName("chunk_hash")
+        .withDataType(DataType.VarChar)
+        .withMaxLength(64)
+        .build();
     CreateCollectionParam createCollectionReq = CreateCollectionParam.newBuilder()
         .withCollectionName(milvusConfig.getCollection())
         .withDescription("QA Search")
@@ -335,22 +623,10 @@ class MilvusService implements VectorDBService {
         .addFieldType(chunkContent)
         .addFieldType(chunkEmbedding)
         .addFieldType(fileRoot)
+        .addFieldType(chunkHash)
         .build();
 
     milvusServiceClient.createCollection(createCollectionReq);
-
-    milvusServiceClient.createIndex(
-        CreateIndexParam.newBuilder()
-            .withCollectionName(milvusConfig.getCollection())
-            .withFieldName("chunk_embedding")
-            .withIndexType(IndexType.FLAT)
-            .withMetricType(MetricType.L2)
-            .withSyncMode(Boolean.FALSE)
-            .build()
-    );
-
-    // TODO create index for file_root
-
   }
 
   private void ensureFileCollection() {
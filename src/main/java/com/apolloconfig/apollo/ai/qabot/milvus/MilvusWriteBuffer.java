@@ -0,0 +1,186 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import com.google.common.collect.Lists;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.FlushResponse;
+import io.milvus.param.R;
+import io.milvus.param.R.Status;
+import io.milvus.param.collection.FlushParam;
+import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.InsertParam.Field;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers the inserts and deletes of an ingestion run, so milvus seals a few large segments
+ * instead of a tiny one per file.
+ * <p>
+ * The buffered writes are sent in batches of at most batchSize rows once that many are pending,
+ * and flushed once flushThreshold rows were sent or when {@link #flush()} is called. The writes
+ * are sent collection by collection in the order the collections are given, so the file hash
+ * values, written after the chunks of the file, never reach milvus before the chunks. Once a
+ * batch failed, the rest of the buffered writes are dropped and the following writes rejected
+ * until the next flush, so a file whose chunks were dropped never gets its hash value persisted
+ * and is processed again by the next run.
+ */
+class MilvusWriteBuffer {
+
+  private final MilvusServiceClient milvusServiceClient;
+  private final Map<String, PendingWrites> pendingWrites = new LinkedHashMap<>();
+  private final int batchSize;
+  private final int flushThreshold;
+  private int pendingRows;
+  private int unflushedRows;
+  private RuntimeException failure;
+
+  /**
+   * @param primaryKeys the primary key fields keyed by the collections, in the order their writes
+   *                    are sent
+   */
+  MilvusWriteBuffer(MilvusServiceClient milvusServiceClient, Map<String, String> primaryKeys,
+      int batchSize, int flushThreshold) {
+    this.milvusServiceClient = milvusServiceClient;
+    this.batchSize = batchSize;
+    this.flushThreshold = flushThreshold;
+    primaryKeys.forEach(
+        (collection, primaryKey) -> pendingWrites.put(collection, new PendingWrites(primaryKey)));
+  }
+
+  synchronized void insert(String collection, List<Field> fields) {
+    checkNotFailed();
+    PendingWrites writes = pendingWrites.get(collection);
+    for (Field field : fields) {
+      writes.columns.computeIfAbsent(field.getName(), name -> new ArrayList<>())
+          .addAll(field.getValues());
+    }
+    int rows = fields.get(0).getValues().size();
+    writes.insertedRows += rows;
+    pendingRows += rows;
+
+    sendIfNecessary();
+  }
+
+  synchronized void delete(String collection, List<Long> ids) {
+    checkNotFailed();
+    pendingWrites.get(collection).deletedIds.addAll(ids);
+    pendingRows += ids.size();
+
+    sendIfNecessary();
+  }
+
+  /**
+   * Send all the buffered writes and flush the collections written to since the last flush.
+   */
+  synchronized void flush() {
+    if (failure != null) {
+      RuntimeException previousFailure = failure;
+      failure = null;
+      unflushedRows = 0;
+      throw new IllegalStateException("Dropped the buffered writes after a failed batch",
+          previousFailure);
+    }
+
+    send();
+    if (unflushedRows == 0) {
+      return;
+    }
+
+    FlushParam flushParam = FlushParam.newBuilder()
+        .withCollectionNames(Lists.newArrayList(pendingWrites.keySet()))
+        .build();
+    R<FlushResponse> response = milvusServiceClient.flush(flushParam);
+    checkResponse("Flush", response);
+    unflushedRows = 0;
+  }
+
+  private void checkNotFailed() {
+    if (failure != null) {
+      throw new IllegalStateException("Rejected the write after a failed batch", failure);
+    }
+  }
+
+  private void sendIfNecessary() {
+    if (pendingRows < batchSize) {
+      return;
+    }
+
+    try {
+      send();
+    } catch (RuntimeException ex) {
+      failure = ex;
+      throw ex;
+    }
+
+    if (unflushedRows >= flushThreshold) {
+      flush();
+    }
+  }
+
+  private void send() {
+    try {
+      for (Map.Entry<String, PendingWrites> entry : pendingWrites.entrySet()) {
+        sendInserts(entry.getKey(), entry.getValue());
+        sendDeletes(entry.getKey(), entry.getValue());
+      }
+    } finally {
+      pendingWrites.values().forEach(PendingWrites::clear);
+      pendingRows = 0;
+    }
+  }
+
+  private void sendInserts(String collection, PendingWrites writes) {
+    for (int from = 0; from < writes.insertedRows; from += batchSize) {
+      int to = Math.min(from + batchSize, writes.insertedRows);
+      List<Field> fields = new ArrayList<>();
+      for (Map.Entry<String, List<Object>> column : writes.columns.entrySet()) {
+        fields.add(new InsertParam.Field(column.getKey(),
+            new ArrayList<>(column.getValue().subList(from, to))));
+      }
+
+      InsertParam insertParam = InsertParam.newBuilder()
+          .withCollectionName(collection)
+          .withFields(fields)
+          .build();
+      checkResponse("Insert", milvusServiceClient.insert(insertParam));
+      unflushedRows += to - from;
+    }
+  }
+
+  private void sendDeletes(String collection, PendingWrites writes) {
+    for (List<Long> ids : Lists.partition(writes.deletedIds, batchSize)) {
+      DeleteParam deleteParam = DeleteParam.newBuilder()
+          .withCollectionName(collection)
+          .withExpr(MilvusExpressions.inIds(writes.primaryKey, ids))
+          .build();
+      checkResponse("Delete", milvusServiceClient.delete(deleteParam));
+      unflushedRows += ids.size();
+    }
+  }
+
+  private void checkResponse(String operation, R<?> response) {
+    if (response.getStatus() != Status.Success.getCode()) {
+      throw new RuntimeException(operation + " failed: " + response.getMessage());
+    }
+  }
+
+  private static class PendingWrites {
+
+    private final String primaryKey;
+    private final Map<String, List<Object>> columns = new LinkedHashMap<>();
+    private final List<Long> deletedIds = new ArrayList<>();
+    private int insertedRows;
+
+    private PendingWrites(String primaryKey) {
+      this.primaryKey = primaryKey;
+    }
+
+    private void clear() {
+      columns.clear();
+      deletedIds.clear();
+      insertedRows = 0;
+    }
+  }
+}
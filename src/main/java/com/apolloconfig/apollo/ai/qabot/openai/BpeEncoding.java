@@ -0,0 +1,122 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The byte pair encoding of the cl100k_base vocabulary used by gpt-3.5-turbo, gpt-4 and
+ * text-embedding-ada-002, which is loaded from a .tiktoken file of base64 encoded tokens and their
+ * ranks.
+ * <p>
+ * The text is split into pieces by the cl100k pattern first, then the UTF-8 bytes of each piece
+ * are merged pairwise, the lowest ranked pair first, until no adjacent pair is in the vocabulary.
+ * The byte sequences are kept as ISO-8859-1 strings, one char per byte, so the vocabulary is a
+ * plain string map.
+ */
+class BpeEncoding {
+
+  private static final Pattern CL100K_PATTERN = Pattern.compile(
+      "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}"
+          + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+      Pattern.UNICODE_CHARACTER_CLASS);
+
+  private final Map<String, Integer> ranks;
+
+  BpeEncoding(Map<String, Integer> ranks) {
+    this.ranks = ranks;
+  }
+
+  static BpeEncoding load(InputStream tiktoken) throws IOException {
+    Map<String, Integer> ranks = new HashMap<>(131072);
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(tiktoken, StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty()) {
+          continue;
+        }
+        int separator = line.indexOf(' ');
+        if (separator < 0) {
+          throw new IOException("Malformed tiktoken line: " + line);
+        }
+        byte[] token = Base64.getDecoder().decode(line.substring(0, separator));
+        ranks.put(new String(token, StandardCharsets.ISO_8859_1),
+            Integer.parseInt(line.substring(separator + 1).trim()));
+      }
+    }
+    return new BpeEncoding(ranks);
+  }
+
+  int countTokens(String text) {
+    int tokens = 0;
+    Matcher matcher = CL100K_PATTERN.matcher(text);
+    while (matcher.find()) {
+      tokens += merge(toBytes(matcher.group())).size();
+    }
+    return tokens;
+  }
+
+  /**
+   * @return the ranks of the tokens the text is encoded into
+   */
+  List<Integer> encode(String text) {
+    List<Integer> tokens = new ArrayList<>();
+    Matcher matcher = CL100K_PATTERN.matcher(text);
+    while (matcher.find()) {
+      for (String token : merge(toBytes(matcher.group()))) {
+        Integer rank = ranks.get(token);
+        if (rank == null) {
+          throw new IllegalArgumentException(
+              "The vocabulary doesn't cover all the bytes of: " + text);
+        }
+        tokens.add(rank);
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * @return the byte sequences the piece is merged into
+   */
+  private List<String> merge(String piece) {
+    List<String> parts = new ArrayList<>(piece.length());
+    if (ranks.containsKey(piece)) {
+      parts.add(piece);
+      return parts;
+    }
+    for (int i = 0; i < piece.length(); i++) {
+      parts.add(piece.substring(i, i + 1));
+    }
+
+    while (parts.size() > 1) {
+      int lowestRank = Integer.MAX_VALUE;
+      int lowestIndex = -1;
+      for (int i = 0; i < parts.size() - 1; i++) {
+        Integer rank = ranks.get(parts.get(i) + parts.get(i + 1));
+        if (rank != null && rank < lowestRank) {
+          lowestRank = rank;
+          lowestIndex = i;
+        }
+      }
+      if (lowestIndex < 0) {
+        break;
+      }
+      parts.set(lowestIndex, parts.get(lowestIndex) + parts.remove(lowestIndex + 1));
+    }
+    return parts;
+  }
+
+  private static String toBytes(String piece) {
+    return new String(piece.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+  }
+}
@@ -1,6 +1,7 @@
 package com.apolloconfig.apollo.ai.qabot.openai;
 
 import com.apolloconfig.apollo.ai.qabot.api.AiService;
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
 import com.google.common.collect.Lists;
 import com.theokanning.openai.completion.chat.ChatCompletionChunk;
 import com.theokanning.openai.completion.chat.ChatCompletionRequest;
@@ -9,9 +10,13 @@ import com.theokanning.openai.completion.chat.ChatMessageRole;
 import com.theokanning.openai.embedding.Embedding;
 import com.theokanning.openai.embedding.EmbeddingRequest;
 import io.reactivex.Flowable;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
 @Profile("openai")
 @Component
@@ -19,11 +24,21 @@ class OpenAiService implements AiService {
 
   private static final String DEFAULT_MODEL = "gpt-3.5-turbo";
   private static final String DEFAULT_EMBEDDING_MODEL = "text-embedding-ada-002";
+  private static final String CHAT_COMPLETIONS_ENDPOINT = "/v1/chat/completions";
+  private static final String EMBEDDINGS_ENDPOINT = "/v1/embeddings";
 
   private final com.theokanning.openai.service.OpenAiService service;
+  private final Scheduler blockingScheduler;
+  private final RateLimitGovernor rateLimitGovernor;
+  private final TokenCounter tokenCounter;
 
-  public OpenAiService() {
-    service = OpenAiServiceFactory.getService(System.getenv("OPENAI_API_KEY"));
+  public OpenAiService(Scheduler blockingScheduler, RateLimitGovernor rateLimitGovernor,
+      TokenCounter tokenCounter) {
+    this.service = OpenAiServiceFactory.getService(System.getenv("OPENAI_API_KEY"),
+        rateLimitGovernor);
+    this.blockingScheduler = blockingScheduler;
+    this.rateLimitGovernor = rateLimitGovernor;
+    this.tokenCounter = tokenCounter;
   }
 
   public Flowable<ChatCompletionChunk> getCompletion(String prompt) {
@@ -51,13 +66,45 @@ class OpenAiService implements AiService {
         .maxTokens(maxTokens)
         .build();
 
-    return service.streamChatCompletion(chatCompletionRequest);
+    return Flowable.defer(() -> {
+      // the max tokens of the completion count against the rate limit as well
+      int tokens = maxTokens + messages.stream()
+          .filter(message -> message.getContent() != null)
+          .mapToInt(message -> tokenCounter.countTokens(message.getContent())).sum();
+      long waitNanos = rateLimitGovernor.reserve(CHAT_COMPLETIONS_ENDPOINT, tokens);
+      Flowable<ChatCompletionChunk> completion = service.streamChatCompletion(
+          chatCompletionRequest);
+
+      return waitNanos > 0 ? completion.delaySubscription(waitNanos, TimeUnit.NANOSECONDS)
+          : completion;
+    });
   }
 
   public List<Embedding> getEmbeddings(List<String> chunks) {
+    rateLimitGovernor.acquire(EMBEDDINGS_ENDPOINT, countTokens(chunks));
+    return createEmbeddings(chunks);
+  }
+
+  public Mono<List<Embedding>> getEmbeddingsAsync(List<String> chunks) {
+    return Mono.defer(() -> {
+      Duration wait = Duration.ofNanos(
+          rateLimitGovernor.reserve(EMBEDDINGS_ENDPOINT, countTokens(chunks)));
+      // the underlying retrofit call blocks the subscribing thread, so keep it off the event loop
+      Mono<List<Embedding>> embeddings = Mono.fromCallable(() -> createEmbeddings(chunks))
+          .subscribeOn(blockingScheduler);
+
+      return wait.isZero() ? embeddings : Mono.delay(wait).then(embeddings);
+    });
+  }
+
+  private List<Embedding> createEmbeddings(List<String> chunks) {
     EmbeddingRequest embeddingRequest = EmbeddingRequest.builder().model(DEFAULT_EMBEDDING_MODEL)
         .input(chunks).build();
 
     return service.createEmbeddings(embeddingRequest).getData();
   }
+
+  private int countTokens(List<String> chunks) {
+    return chunks.stream().mapToInt(tokenCounter::countTokens).sum();
+  }
 }
@@ -32,11 +32,15 @@ public class OpenAiServiceFactory {
   private static final OpenAiServiceFactory INSTANCE = new OpenAiServiceFactory();
   private static final Map<String, OpenAiService> SERVICES = Maps.newConcurrentMap();
 
-  public static OpenAiService getService(String apiKey) {
+  /**
+   * @param rateLimitGovernor is updated with the rate limit headers of the responses, the service
+   * of an api key keeps the governor it was created with
+   */
+  public static OpenAiService getService(String apiKey, RateLimitGovernor rateLimitGovernor) {
     if (!SERVICES.containsKey(apiKey)) {
       synchronized (INSTANCE) {
         if (!SERVICES.containsKey(apiKey)) {
-          SERVICES.put(apiKey, INSTANCE.createService(apiKey));
+          SERVICES.put(apiKey, INSTANCE.createService(apiKey, rateLimitGovernor));
         }
       }
     }
@@ -44,9 +48,11 @@ public class OpenAiServiceFactory {
     return SERVICES.get(apiKey);
   }
 
-  private OpenAiService createService(String apiKey) {
+  private OpenAiService createService(String apiKey, RateLimitGovernor rateLimitGovernor) {
     ObjectMapper mapper = defaultObjectMapper();
-    OkHttpClient client = client(apiKey);
+    OkHttpClient client = client(apiKey).newBuilder()
+        .addInterceptor(new RateLimitInterceptor(rateLimitGovernor))
+        .build();
     Retrofit retrofit = defaultRetrofit(client, mapper);
     OpenAiApi api = retrofit.create(OpenAiApi.class);
     return new OpenAiService(api);
@@ -0,0 +1,89 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
+import com.apolloconfig.apollo.ai.qabot.config.OpenAiTokenizerConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the tokens of the openai models with the cl100k_base encoding if its vocabulary is
+ * configured. Otherwise estimates them without encoding the text: about 4 characters per token for
+ * latin text, and one token per character for CJK text, which errs on the high side.
+ */
+@Profile("openai")
+@Component
+public class OpenAiTokenCounter implements TokenCounter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OpenAiTokenCounter.class);
+  private static final int LATIN_CHARS_PER_TOKEN = 4;
+
+  /**
+   * null if the vocabulary is not configured
+   */
+  private final BpeEncoding encoding;
+
+  @Autowired
+  public OpenAiTokenCounter(OpenAiTokenizerConfig tokenizerConfig, ResourceLoader resourceLoader) {
+    this(loadEncoding(tokenizerConfig.getVocabulary(), resourceLoader));
+  }
+
+  @VisibleForTesting
+  OpenAiTokenCounter(BpeEncoding encoding) {
+    this.encoding = encoding;
+  }
+
+  private static BpeEncoding loadEncoding(String vocabulary, ResourceLoader resourceLoader) {
+    if (Strings.isNullOrEmpty(vocabulary)) {
+      LOGGER.info("No tokenizer vocabulary configured, the tokens are estimated");
+      return null;
+    }
+
+    try (InputStream inputStream = resourceLoader.getResource(vocabulary).getInputStream()) {
+      BpeEncoding encoding = BpeEncoding.load(inputStream);
+      LOGGER.info("Loaded the tokenizer vocabulary from {}", vocabulary);
+      return encoding;
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Failed to load the tokenizer vocabulary " + vocabulary, ex);
+    }
+  }
+
+  @Override
+  public int countTokens(String text) {
+    return encoding != null ? encoding.countTokens(text) : estimateTokens(text);
+  }
+
+  private int estimateTokens(String text) {
+    int cjkChars = 0;
+    int otherChars = 0;
+    for (int i = 0; i < text.length(); ) {
+      int codePoint = text.codePointAt(i);
+      if (isCjk(codePoint)) {
+        cjkChars++;
+      } else {
+        otherChars++;
+      }
+      i += Character.charCount(codePoint);
+    }
+
+    return cjkChars + (otherChars + LATIN_CHARS_PER_TOKEN - 1) / LATIN_CHARS_PER_TOKEN;
+  }
+
+  private boolean isCjk(int codePoint) {
+    Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+    return script == Character.UnicodeScript.HAN || script == Character.UnicodeScript.HIRAGANA
+        || script == Character.UnicodeScript.KATAKANA || script == Character.UnicodeScript.HANGUL
+        || Character.UnicodeBlock.of(codePoint)
+        == Character.UnicodeBlock.CJK_SYMBOLS_AND_PUNCTUATION
+        || Character.UnicodeBlock.of(codePoint)
+        == Character.UnicodeBlock.HALFWIDTH_AND_FULLWIDTH_FORMS;
+  }
+}
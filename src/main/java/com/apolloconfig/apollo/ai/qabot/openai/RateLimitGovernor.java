@@ -0,0 +1,202 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import com.apolloconfig.apollo.ai.qabot.config.OpenAiRateLimitConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import okhttp3.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Paces the openai calls of all the callers before they are sent, instead of backing off after
+ * they are rejected. Each endpoint has a requests per minute and a tokens per minute bucket, which
+ * are refilled continuously and corrected by the x-ratelimit-* headers of every response.
+ * <p>
+ * A reservation may overdraw a bucket, the caller then waits until the bucket would have been
+ * refilled, so concurrent callers queue up behind each other.
+ */
+@Profile("openai")
+@Component
+class RateLimitGovernor {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitGovernor.class);
+
+  private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+  private static final Pattern DURATION_PATTERN = Pattern.compile(
+      "(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+  private final OpenAiRateLimitConfig openAiRateLimitConfig;
+  private final LongSupplier nanoTime;
+  private final Map<String, EndpointLimiter> limiters = Maps.newConcurrentMap();
+
+  @Autowired
+  public RateLimitGovernor(OpenAiRateLimitConfig openAiRateLimitConfig) {
+    this(openAiRateLimitConfig, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  RateLimitGovernor(OpenAiRateLimitConfig openAiRateLimitConfig, LongSupplier nanoTime) {
+    this.openAiRateLimitConfig = openAiRateLimitConfig;
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Reserve one request with the tokens for the endpoint.
+   *
+   * @return the nanoseconds to wait before sending the request
+   */
+  long reserve(String endpoint, int tokens) {
+    if (!openAiRateLimitConfig.isEnabled()) {
+      return 0;
+    }
+
+    long waitNanos = limiter(endpoint).reserve(tokens, nanoTime.getAsLong());
+    if (waitNanos > 0) {
+      LOGGER.debug("Pacing the request to {} with {} tokens by {} ms", endpoint, tokens,
+          TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+    return waitNanos;
+  }
+
+  /**
+   * Blocking counterpart of {@link #reserve(String, int)}, which waits for the reservation.
+   */
+  void acquire(String endpoint, int tokens) {
+    long waitNanos = reserve(endpoint, tokens);
+    if (waitNanos > 0) {
+      Uninterruptibles.sleepUninterruptibly(waitNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Correct the budget of the endpoint with the rate limit headers of its response.
+   */
+  void update(String endpoint, Headers headers) {
+    if (!openAiRateLimitConfig.isEnabled()) {
+      return;
+    }
+
+    limiter(endpoint).update(headers, nanoTime.getAsLong());
+  }
+
+  private EndpointLimiter limiter(String endpoint) {
+    return limiters.computeIfAbsent(endpoint, key -> new EndpointLimiter(nanoTime.getAsLong()));
+  }
+
+  /**
+   * Parse the durations of the reset headers, e.g. 20ms, 1s, 6m0s.
+   *
+   * @return the duration in nanoseconds, or null if it could not be parsed
+   */
+  @VisibleForTesting
+  static Long parseDuration(String value) {
+    if (value == null) {
+      return null;
+    }
+    Matcher matcher = DURATION_PATTERN.matcher(value.trim());
+    double nanos = 0;
+    int end = 0;
+    while (matcher.find() && matcher.start() == end) {
+      double amount = Double.parseDouble(matcher.group(1));
+      nanos += switch (matcher.group(2)) {
+        case "h" -> amount * TimeUnit.HOURS.toNanos(1);
+        case "m" -> amount * TimeUnit.MINUTES.toNanos(1);
+        case "s" -> amount * TimeUnit.SECONDS.toNanos(1);
+        default -> amount * TimeUnit.MILLISECONDS.toNanos(1);
+      };
+      end = matcher.end();
+    }
+
+    return end > 0 && end == value.trim().length() ? (long) nanos : null;
+  }
+
+  private static Long parseLong(String value) {
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  private final class EndpointLimiter {
+
+    private final TokenBucket requests;
+    private final TokenBucket tokens;
+
+    private EndpointLimiter(long now) {
+      this.requests = new TokenBucket(openAiRateLimitConfig.getRequestsPerMinute(), now);
+      this.tokens = new TokenBucket(openAiRateLimitConfig.getTokensPerMinute(), now);
+    }
+
+    private synchronized long reserve(int tokenCount, long now) {
+      return Math.max(requests.reserve(1, now), tokens.reserve(tokenCount, now));
+    }
+
+    private synchronized void update(Headers headers, long now) {
+      requests.update(parseLong(headers.get("x-ratelimit-limit-requests")),
+          parseLong(headers.get("x-ratelimit-remaining-requests")),
+          parseDuration(headers.get("x-ratelimit-reset-requests")), now);
+      tokens.update(parseLong(headers.get("x-ratelimit-limit-tokens")),
+          parseLong(headers.get("x-ratelimit-remaining-tokens")),
+          parseDuration(headers.get("x-ratelimit-reset-tokens")), now);
+    }
+  }
+
+  /**
+   * Guarded by the {@link EndpointLimiter} it belongs to.
+   */
+  private static final class TokenBucket {
+
+    private double capacity;
+    private double available;
+    private long lastRefillTime;
+
+    private TokenBucket(double capacity, long now) {
+      this.capacity = capacity;
+      this.available = capacity;
+      this.lastRefillTime = now;
+    }
+
+    private long reserve(double permits, long now) {
+      refill(now);
+      long waitNanos = available >= permits ? 0
+          : (long) Math.ceil((permits - available) * NANOS_PER_MINUTE / capacity);
+      available -= permits;
+      return waitNanos;
+    }
+
+    private void update(Long limit, Long remaining, Long resetNanos, long now) {
+      refill(now);
+      if (limit != null && limit > 0) {
+        capacity = limit;
+      }
+      if (remaining == null) {
+        return;
+      }
+      // requests still in flight may not be counted by the server yet, so never raise the budget
+      available = Math.min(available, remaining);
+      if (remaining <= 0 && resetNanos != null) {
+        // nothing left until the server resets the limit
+        available = Math.min(available, -resetNanos * capacity / NANOS_PER_MINUTE);
+      }
+    }
+
+    private void refill(long now) {
+      available = Math.min(capacity,
+          available + (now - lastRefillTime) * capacity / NANOS_PER_MINUTE);
+      lastRefillTime = now;
+    }
+  }
+}
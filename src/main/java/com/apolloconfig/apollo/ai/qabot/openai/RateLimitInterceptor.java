@@ -0,0 +1,25 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * Feeds the rate limit headers of every openai response, including the rejected ones, back to the
+ * {@link RateLimitGovernor}.
+ */
+class RateLimitInterceptor implements Interceptor {
+
+  private final RateLimitGovernor rateLimitGovernor;
+
+  RateLimitInterceptor(RateLimitGovernor rateLimitGovernor) {
+    this.rateLimitGovernor = rateLimitGovernor;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Response response = chain.proceed(chain.request());
+    rateLimitGovernor.update(chain.request().url().encodedPath(), response.headers());
+    return response;
+  }
+}
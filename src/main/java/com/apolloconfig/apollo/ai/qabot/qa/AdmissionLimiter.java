@@ -0,0 +1,269 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.config.AdmissionConfig;
+import com.google.common.annotations.VisibleForTesting;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Limits the answer streams in flight, so an overload is answered by fast rejections instead of
+ * timeouts for everyone. The streams beyond the limit wait in a bounded queue until a stream
+ * finishes or their deadline passes, the streams beyond the queue are shed immediately.
+ * <p>
+ * The limit adapts to the upstream latency by AIMD: it grows by 1 / limit with each first token
+ * arriving within the target time, i.e. by about 1 per limit streams, and is cut by the backoff
+ * ratio when a first token is late or a stream fails. The limit is cut at most once per target
+ * time, the streams admitted before the cut would otherwise cut it again for the same overload.
+ * <p>
+ * Only the first token of the upstream call marked by the {@link Sampler} of a stream is sampled,
+ * the streams answered without calling the upstream, e.g. from a cache, say nothing about its
+ * latency.
+ */
+@Component
+public class AdmissionLimiter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionLimiter.class);
+
+  private final AdmissionConfig config;
+  private final LongSupplier nanoTime;
+  private final Scheduler timer;
+  /**
+   * the requests waiting for a stream, the state is guarded by this
+   */
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private double limit;
+  private int inFlight;
+  private long lastBackoffNanos;
+
+  @Autowired
+  public AdmissionLimiter(AdmissionConfig config) {
+    this(config, System::nanoTime, Schedulers.parallel());
+  }
+
+  @VisibleForTesting
+  AdmissionLimiter(AdmissionConfig config, LongSupplier nanoTime, Scheduler timer) {
+    this.config = config;
+    this.nanoTime = nanoTime;
+    this.timer = timer;
+    this.limit = config.getInitialLimit();
+    this.lastBackoffNanos = nanoTime.getAsLong() - targetNanos();
+  }
+
+  /**
+   * Subscribe to the stream once admitted.
+   *
+   * @param stream creates the stream, which samples its upstream call by the given sampler
+   * @param shed   the only element emitted instead if the stream is not admitted
+   */
+  public <T> Flux<T> admit(Function<Sampler, Flux<T>> stream, T shed) {
+    if (!config.isEnabled()) {
+      return Flux.defer(() -> stream.apply(new Sampler(0, false)));
+    }
+
+    return acquire().flatMapMany(permit -> {
+      if (!permit.admitted) {
+        return Flux.just(shed);
+      }
+
+      Sampler sampler = new Sampler(nanoTime.getAsLong(), true);
+      return Flux.defer(() -> stream.apply(sampler))
+          .doOnError(ex -> onFailure())
+          .doFinally(signal -> permit.release());
+    });
+  }
+
+  public int getRetryAfterSeconds() {
+    return config.getRetryAfterSeconds();
+  }
+
+  synchronized int limit() {
+    return (int) limit;
+  }
+
+  synchronized int inFlight() {
+    return inFlight;
+  }
+
+  synchronized int waiting() {
+    return waiters.size();
+  }
+
+  private Mono<Permit> acquire() {
+    return Mono.create(sink -> {
+      Waiter waiter = null;
+      Permit permit = null;
+      synchronized (this) {
+        if (waiters.isEmpty() && inFlight < limit()) {
+          inFlight++;
+          permit = new Permit(true);
+        } else if (waiters.size() < config.getQueueSize()) {
+          waiter = new Waiter(sink);
+          waiters.add(waiter);
+        } else {
+          LOGGER.debug("Shed a stream, {} in flight and {} waiting", inFlight, waiters.size());
+          permit = new Permit(false);
+        }
+      }
+
+      if (permit != null) {
+        sink.success(permit);
+        return;
+      }
+
+      Waiter queued = waiter;
+      Disposable deadline = timer.schedule(() -> expire(queued), config.getQueueTimeoutMillis(),
+          TimeUnit.MILLISECONDS);
+      sink.onCancel(() -> cancel(queued));
+      sink.onDispose(deadline);
+    });
+  }
+
+  private void expire(Waiter waiter) {
+    synchronized (this) {
+      if (!waiters.remove(waiter)) {
+        return;
+      }
+    }
+    waiter.sink.success(new Permit(false));
+  }
+
+  private void cancel(Waiter waiter) {
+    Permit permit;
+    synchronized (this) {
+      if (waiters.remove(waiter)) {
+        return;
+      }
+      permit = waiter.permit;
+    }
+    // admitted but cancelled before the permit was delivered
+    if (permit != null) {
+      permit.release();
+    }
+  }
+
+  private void onFirstToken(long latencyNanos) {
+    synchronized (this) {
+      if (latencyNanos <= targetNanos()) {
+        limit = Math.min(config.getMaxLimit(), limit + 1 / limit);
+      } else {
+        backoff();
+      }
+    }
+    drain();
+  }
+
+  private synchronized void onFailure() {
+    backoff();
+  }
+
+  private void backoff() {
+    long now = nanoTime.getAsLong();
+    if (now - lastBackoffNanos < targetNanos()) {
+      return;
+    }
+
+    lastBackoffNanos = now;
+    limit = Math.max(config.getMinLimit(), limit * config.getBackoffRatio());
+    LOGGER.info("Cut the limit of the answer streams in flight to {}", limit());
+  }
+
+  private void release() {
+    synchronized (this) {
+      inFlight--;
+    }
+    drain();
+  }
+
+  /**
+   * Admit the waiters within the limit, their streams are subscribed outside the lock.
+   */
+  private void drain() {
+    List<Waiter> admitted = new ArrayList<>();
+    synchronized (this) {
+      while (!waiters.isEmpty() && inFlight < limit()) {
+        Waiter waiter = waiters.poll();
+        inFlight++;
+        waiter.permit = new Permit(true);
+        admitted.add(waiter);
+      }
+    }
+    admitted.forEach(waiter -> waiter.sink.success(waiter.permit));
+  }
+
+  private long targetNanos() {
+    return TimeUnit.MILLISECONDS.toNanos(config.getTargetTimeToFirstTokenMillis());
+  }
+
+  /**
+   * Samples the time from the admission to the first token of the upstream call of a stream.
+   */
+  public final class Sampler {
+
+    private final long admittedAt;
+    /**
+     * false once the first token is sampled, or if the limiter is disabled
+     */
+    private final AtomicBoolean firstToken;
+
+    private Sampler(long admittedAt, boolean sampling) {
+      this.admittedAt = admittedAt;
+      this.firstToken = new AtomicBoolean(sampling);
+    }
+
+    public <E> Flux<E> sample(Flux<E> upstreamCall) {
+      return upstreamCall.doOnNext(element -> {
+        if (firstToken.compareAndSet(true, false)) {
+          onFirstToken(nanoTime.getAsLong() - admittedAt);
+        }
+      });
+    }
+  }
+
+  private static final class Waiter {
+
+    private final MonoSink<Permit> sink;
+    /**
+     * set once admitted, guarded by the limiter
+     */
+    private Permit permit;
+
+    private Waiter(MonoSink<Permit> sink) {
+      this.sink = sink;
+    }
+  }
+
+  private final class Permit {
+
+    private final boolean admitted;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Permit(boolean admitted) {
+      this.admitted = admitted;
+    }
+
+    /**
+     * Idempotent, a cancelled waiter may race its stream to release the permit.
+     */
+    private void release() {
+      if (admitted && released.compareAndSet(false, true)) {
+        AdmissionLimiter.this.release();
+      }
+    }
+  }
+}
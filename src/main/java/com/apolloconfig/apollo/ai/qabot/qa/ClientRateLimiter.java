@@ -0,0 +1,193 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.config.ClientRateLimitConfig;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the questions of each client by a token bucket, so a single scraper can't burn the openai
+ * quota of everyone.
+ * <p>
+ * The buckets are spread over lock stripes by the client id, each stripe holds at most its share
+ * of the max clients and forgets the least recently seen client beyond it. A client idle for long
+ * enough has a full bucket anyway, so forgetting it only matters to the clients flooding the table
+ * with fake ids. Checking a known client allocates nothing: the remote address is the key as is,
+ * and the bucket is updated in place.
+ */
+@Component
+public class ClientRateLimiter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ClientRateLimiter.class);
+  private static final int STRIPES = 64;
+  private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final String UNKNOWN_CLIENT = "unknown";
+
+  private final ClientRateLimitConfig config;
+  private final LongSupplier nanoTime;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  @Autowired
+  public ClientRateLimiter(ClientRateLimitConfig config) {
+    this(config, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  ClientRateLimiter(ClientRateLimitConfig config, LongSupplier nanoTime) {
+    this.config = config;
+    this.nanoTime = nanoTime;
+    int stripeCapacity = Math.max(1, config.getMaxClients() / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(stripeCapacity);
+    }
+  }
+
+  /**
+   * Take a question from the bucket of the client sending the request.
+   *
+   * @return the seconds the client should wait before asking again, 0 if the question is allowed
+   */
+  public int tryAcquire(ServerHttpRequest request) {
+    if (!config.isEnabled()) {
+      return 0;
+    }
+
+    Object clientId = clientId(request);
+    int retryAfterSeconds = tryAcquire(clientId);
+    if (retryAfterSeconds > 0) {
+      LOGGER.debug("Rate limited the client {} for {} seconds", clientId, retryAfterSeconds);
+    }
+    return retryAfterSeconds;
+  }
+
+  @VisibleForTesting
+  int tryAcquire(Object clientId) {
+    long now = nanoTime.getAsLong();
+    int hash = clientId.hashCode();
+    Stripe stripe = stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    synchronized (stripe) {
+      Bucket bucket = stripe.get(clientId);
+      if (bucket == null) {
+        bucket = new Bucket(config.getBurst(), now);
+        stripe.put(clientId, bucket);
+      }
+      return bucket.tryAcquire(now);
+    }
+  }
+
+  @VisibleForTesting
+  Object clientId(ServerHttpRequest request) {
+    if (!Strings.isNullOrEmpty(config.getClientIdHeader())) {
+      List<String> values = request.getHeaders().get(config.getClientIdHeader());
+      String forwardedFor = values == null ? null : forwardedFor(values);
+      if (forwardedFor != null) {
+        return forwardedFor;
+      }
+    }
+
+    InetSocketAddress remoteAddress = request.getRemoteAddress();
+    if (remoteAddress != null && remoteAddress.getAddress() != null) {
+      return remoteAddress.getAddress();
+    }
+    return UNKNOWN_CLIENT;
+  }
+
+  /**
+   * The entries are appended from left to right, so only the rightmost entries written by the
+   * trusted proxies can't be forged by the client.
+   *
+   * @return the entry the last trusted proxy appended, the leftmost entry if there are fewer, or
+   * null if there are none
+   */
+  private String forwardedFor(List<String> values) {
+    int skip = Math.max(1, config.getTrustedProxies()) - 1;
+    String leftmost = null;
+    for (int i = values.size() - 1; i >= 0; i--) {
+      String value = values.get(i);
+      int end = value.length();
+      while (end >= 0) {
+        int separator = value.lastIndexOf(',', end - 1);
+        String entry = value.substring(separator + 1, end).trim();
+        if (!entry.isEmpty()) {
+          if (skip-- == 0) {
+            return entry;
+          }
+          leftmost = entry;
+        }
+        end = separator;
+      }
+    }
+    return leftmost;
+  }
+
+  /**
+   * @return the number of clients tracked
+   */
+  @VisibleForTesting
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * The buckets of the clients in the least recently seen order, guarded by itself.
+   */
+  private static final class Stripe extends LinkedHashMap<Object, Bucket> {
+
+    private final int capacity;
+
+    private Stripe(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, Bucket> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /**
+   * Guarded by the {@link Stripe} it belongs to.
+   */
+  private final class Bucket {
+
+    private double available;
+    private long lastRefillTime;
+
+    private Bucket(double available, long now) {
+      this.available = available;
+      this.lastRefillTime = now;
+    }
+
+    private int tryAcquire(long now) {
+      double questionsPerMinute = config.getQuestionsPerMinute();
+      available = Math.min(config.getBurst(),
+          available + (now - lastRefillTime) * questionsPerMinute / NANOS_PER_MINUTE);
+      lastRefillTime = now;
+      if (available >= 1) {
+        available--;
+        return 0;
+      }
+
+      double waitNanos = (1 - available) * NANOS_PER_MINUTE / questionsPerMinute;
+      return (int) Math.max(1, Math.ceil(waitNanos / NANOS_PER_SECOND));
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
+import com.apolloconfig.apollo.ai.qabot.config.LexicalIndexConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownFileIndexedEvent;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import java.lang.Character.UnicodeScript;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * An in-memory inverted index of the chunk contents scored by BM25, which finds the chunks
+ * containing the exact identifiers pasted into the questions, e.g. config keys like apollo.meta,
+ * class names or error codes, which the vector search tends to miss.
+ * <p>
+ * The index is loaded from the vector database on startup and kept up to date by the
+ * {@link MarkdownFileIndexedEvent}s. The latin text is split into words, and an identifier joined
+ * by dots, dashes or underscores is indexed both as a whole and by its parts. The CJK text has no
+ * word boundaries, so it's indexed by overlapping bigrams.
+ */
+@Component
+public class LexicalIndex {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(LexicalIndex.class);
+
+  private final LexicalIndexConfig config;
+  private final VectorDBService vectorDBService;
+  private final Scheduler blockingScheduler;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /**
+   * the chunks of each file and the chunks of each term with the term frequencies, guarded by lock
+   */
+  private final Map<String, List<Chunk>> chunksByFileRoot = new HashMap<>();
+  private final Map<String, Map<Chunk, Integer>> postings = new HashMap<>();
+  private int chunkCount;
+  private long totalLength;
+  /**
+   * the files indexed while loading, the loaded chunks of them are stale, null if not loading
+   */
+  private Set<String> indexedWhileLoading;
+
+  public LexicalIndex(LexicalIndexConfig config, VectorDBService vectorDBService,
+      Scheduler blockingScheduler) {
+    this.config = config;
+    this.vectorDBService = vectorDBService;
+    this.blockingScheduler = blockingScheduler;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void load() {
+    if (!config.isEnabled()) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      indexedWhileLoading = new HashSet<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    Mono.fromCallable(vectorDBService::queryAllChunkContents)
+        .subscribeOn(blockingScheduler)
+        .subscribe(this::loadChunks, ex -> {
+          LOGGER.error("Failed to load the lexical index", ex);
+          loadChunks(Collections.emptyMap());
+        });
+  }
+
+  void loadChunks(Map<String, List<String>> chunkContents) {
+    lock.writeLock().lock();
+    try {
+      chunkContents.forEach((fileRoot, contents) -> {
+        if (indexedWhileLoading == null || !indexedWhileLoading.contains(fileRoot)) {
+          replace(fileRoot, contents);
+        }
+      });
+      indexedWhileLoading = null;
+      LOGGER.info("Loaded the lexical index of {} files", chunksByFileRoot.size());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @EventListener
+  public void onMarkdownFileIndexed(MarkdownFileIndexedEvent event) {
+    if (!config.isEnabled()) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      replace(event.fileRoot(), event.chunkContents());
+      if (indexedWhileLoading != null) {
+        indexedWhileLoading.add(event.fileRoot());
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the chunks containing the terms of the query, the best match first
+   */
+  public List<MarkdownSearchResult> search(String query, int topK) {
+    if (!config.isEnabled()) {
+      return Collections.emptyList();
+    }
+
+    Set<String> terms = new LinkedHashSet<>(tokenize(query));
+    Map<Chunk, Double> scores = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      if (chunkCount == 0) {
+        return Collections.emptyList();
+      }
+
+      double averageLength = (double) totalLength / chunkCount;
+      for (String term : terms) {
+        Map<Chunk, Integer> termPostings = postings.get(term);
+        if (termPostings == null) {
+          continue;
+        }
+
+        int documentFrequency = termPostings.size();
+        double idf = Math.log(
+            1 + (chunkCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        termPostings.forEach((chunk, termFrequency) -> {
+          double normalization = config.getK1()
+              * (1 - config.getB() + config.getB() * chunk.length / averageLength);
+          scores.merge(chunk,
+              idf * termFrequency * (config.getK1() + 1) / (termFrequency + normalization),
+              Double::sum);
+        });
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    return scores.entrySet().stream()
+        .sorted(Map.Entry.<Chunk, Double>comparingByValue().reversed())
+        .limit(topK)
+        .map(entry -> new MarkdownSearchResult(entry.getKey().fileRoot, entry.getKey().content))
+        .collect(Collectors.toList());
+  }
+
+  private void replace(String fileRoot, List<String> contents) {
+    List<Chunk> currentChunks = chunksByFileRoot.remove(fileRoot);
+    if (currentChunks != null) {
+      for (Chunk chunk : currentChunks) {
+        for (String term : chunk.terms) {
+          Map<Chunk, Integer> termPostings = postings.get(term);
+          termPostings.remove(chunk);
+          if (termPostings.isEmpty()) {
+            postings.remove(term);
+          }
+        }
+        totalLength -= chunk.length;
+      }
+      chunkCount -= currentChunks.size();
+    }
+
+    if (contents.isEmpty()) {
+      return;
+    }
+
+    List<Chunk> chunks = new ArrayList<>(contents.size());
+    for (String content : contents) {
+      List<String> tokens = tokenize(content);
+      Map<String, Integer> termFrequencies = new HashMap<>();
+      for (String token : tokens) {
+        termFrequencies.merge(token, 1, Integer::sum);
+      }
+
+      Chunk chunk = new Chunk(fileRoot, content, tokens.size(), termFrequencies.keySet());
+      termFrequencies.forEach((term, termFrequency) -> postings
+          .computeIfAbsent(term, key -> new HashMap<>())
+          .put(chunk, termFrequency));
+      totalLength += chunk.length;
+      chunks.add(chunk);
+    }
+    chunksByFileRoot.put(fileRoot, chunks);
+    chunkCount += chunks.size();
+  }
+
+  static List<String> tokenize(String text) {
+    String lowerCase = text.toLowerCase(Locale.ROOT);
+    List<String> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < lowerCase.length()) {
+      int codePoint = lowerCase.codePointAt(i);
+      if (isCjk(codePoint)) {
+        i = addBigrams(lowerCase, i, tokens);
+      } else if (Character.isLetterOrDigit(codePoint)) {
+        i = addWord(lowerCase, i, tokens);
+      } else {
+        i += Character.charCount(codePoint);
+      }
+    }
+    return tokens;
+  }
+
+  private static int addWord(String text, int start, List<String> tokens) {
+    int end = start;
+    boolean joined = false;
+    while (end < text.length()) {
+      int codePoint = text.codePointAt(end);
+      if (isWordPart(codePoint)) {
+        end += Character.charCount(codePoint);
+      } else if (isJoiner(codePoint) && end + 1 < text.length()
+          && isWordPart(text.codePointAt(end + 1))) {
+        joined = true;
+        end++;
+      } else {
+        break;
+      }
+    }
+
+    String word = text.substring(start, end);
+    tokens.add(word);
+    if (joined) {
+      for (String part : word.split("[._-]")) {
+        if (!part.isEmpty()) {
+          tokens.add(part);
+        }
+      }
+    }
+    return end;
+  }
+
+  private static int addBigrams(String text, int start, List<String> tokens) {
+    int end = start;
+    while (end < text.length() && isCjk(text.codePointAt(end))) {
+      end += Character.charCount(text.codePointAt(end));
+    }
+
+    int first = start;
+    int second = first + Character.charCount(text.codePointAt(first));
+    if (second >= end) {
+      tokens.add(text.substring(first, end));
+      return end;
+    }
+    while (second < end) {
+      int third = second + Character.charCount(text.codePointAt(second));
+      tokens.add(text.substring(first, third));
+      first = second;
+      second = third;
+    }
+    return end;
+  }
+
+  private static boolean isWordPart(int codePoint) {
+    return Character.isLetterOrDigit(codePoint) && !isCjk(codePoint);
+  }
+
+  private static boolean isJoiner(int codePoint) {
+    return codePoint == '.' || codePoint == '-' || codePoint == '_';
+  }
+
+  private static boolean isCjk(int codePoint) {
+    UnicodeScript script = UnicodeScript.of(codePoint);
+    return script == UnicodeScript.HAN || script == UnicodeScript.HIRAGANA
+        || script == UnicodeScript.KATAKANA || script == UnicodeScript.HANGUL;
+  }
+
+  /**
+   * Compared by identity, the same content may be a chunk of several files.
+   */
+  private static final class Chunk {
+
+    private final String fileRoot;
+    private final String content;
+    private final int length;
+    private final Set<String> terms;
+
+    private Chunk(String fileRoot, String content, int length, Set<String> terms) {
+      this.fileRoot = fileRoot;
+      this.content = content;
+      this.length = length;
+      this.terms = terms;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
+import com.apolloconfig.apollo.ai.qabot.config.PromptContextConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.springframework.stereotype.Component;
+
+/**
+ * Packs the search results into the context of the prompt, the best ranked first, until the token
+ * budget of the prompt is used up. The chunks sharing most of their terms with a better ranked
+ * chunk are dropped, they rarely add anything but prompt tokens. The chunk overflowing the budget
+ * is truncated at its last sentence boundary that fits, or dropped if none fits.
+ */
+@Component
+public class PromptContextPacker {
+
+  /**
+   * the end of a latin sentence followed by whitespace, the end of a CJK sentence, or a line break
+   */
+  private static final Pattern SENTENCE_END = Pattern.compile(
+      "[.!?](?=\\s|$)|[。！？；]|\\n");
+
+  private final PromptContextConfig config;
+  private final TokenCounter tokenCounter;
+
+  public PromptContextPacker(PromptContextConfig config, TokenCounter tokenCounter) {
+    this.config = config;
+    this.tokenCounter = tokenCounter;
+  }
+
+  /**
+   * @param promptWithoutContext the prompt message with the question but without the context, its
+   *                             tokens are reserved from the budget
+   */
+  public PackedContext pack(List<MarkdownSearchResult> searchResults,
+      String promptWithoutContext) {
+    int promptTokens = tokenCounter.countTokens(promptWithoutContext);
+    int budget = config.getMaxPromptTokens() - promptTokens;
+
+    StringBuilder context = new StringBuilder();
+    List<MarkdownSearchResult> chunks = new ArrayList<>();
+    List<Set<String>> packedTerms = new ArrayList<>();
+    int contextTokens = 0;
+    int nearDuplicates = 0;
+    boolean truncated = false;
+    for (MarkdownSearchResult searchResult : searchResults) {
+      Set<String> terms = new HashSet<>(LexicalIndex.tokenize(searchResult.getContent()));
+      if (isNearDuplicate(terms, packedTerms)) {
+        nearDuplicates++;
+        continue;
+      }
+
+      String part = searchResult.getContent() + "\n";
+      int tokens = tokenCounter.countTokens(part);
+      if (contextTokens + tokens > budget) {
+        part = truncate(searchResult.getContent(), budget - contextTokens);
+        if (part != null) {
+          tokens = tokenCounter.countTokens(part);
+          truncated = true;
+        }
+      }
+      if (part == null || contextTokens + tokens > budget) {
+        break;
+      }
+
+      context.append(part);
+      chunks.add(searchResult);
+      packedTerms.add(terms);
+      contextTokens += tokens;
+    }
+
+    return new PackedContext(context.toString(), chunks, promptTokens + contextTokens,
+        contextTokens, nearDuplicates, truncated);
+  }
+
+  private boolean isNearDuplicate(Set<String> terms, List<Set<String>> packedTerms) {
+    if (terms.isEmpty()) {
+      return false;
+    }
+
+    for (Set<String> packed : packedTerms) {
+      int shared = 0;
+      for (String term : terms) {
+        if (packed.contains(term)) {
+          shared++;
+        }
+      }
+      double similarity = (double) shared / (terms.size() + packed.size() - shared);
+      if (similarity >= config.getNearDuplicateSimilarity()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the longest prefix of the content ending at a sentence boundary within the tokens,
+   * null if even the first sentence exceeds them
+   */
+  private String truncate(String content, int maxTokens) {
+    List<Integer> boundaries = new ArrayList<>();
+    Matcher matcher = SENTENCE_END.matcher(content);
+    while (matcher.find()) {
+      if (!content.substring(0, matcher.end()).isBlank()) {
+        boundaries.add(matcher.end());
+      }
+    }
+
+    String fitting = null;
+    int low = 0;
+    int high = boundaries.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      String prefix = content.substring(0, boundaries.get(middle)).stripTrailing() + "\n";
+      if (tokenCounter.countTokens(prefix) <= maxTokens) {
+        fitting = prefix;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return fitting;
+  }
+
+  /**
+   * @param chunks       the packed search results, the related files are those of them
+   * @param promptTokens the tokens of the whole prompt message, i.e. the prompt, the question and
+   *                     the context
+   */
+  public record PackedContext(String context, List<MarkdownSearchResult> chunks, int promptTokens,
+                              int contextTokens, int nearDuplicates, boolean truncated) {
+
+  }
+}
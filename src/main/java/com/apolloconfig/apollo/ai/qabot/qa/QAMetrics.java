@@ -0,0 +1,169 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * The metrics of the QA pipeline, so a slow answer can be traced to the embedding call, the vector
+ * search, the prompt assembly or the completion. The timers publish percentile histograms, and all
+ * the meters are registered upfront, so recording them doesn't look up the registry.
+ * <p>
+ * The identical questions coalesced into one answer stream run the pipeline once, so they are
+ * measured and counted once, except for the rate limited questions which never reach the pipeline.
+ */
+@Component
+public class QAMetrics {
+
+  private final Clock clock;
+  private final Timer embedding;
+  private final Timer vectorSearch;
+  private final Timer promptAssembly;
+  private final Timer timeToFirstToken;
+  private final Map<SignalType, Timer> streamDurations = new EnumMap<>(SignalType.class);
+  private final Counter promptTokens;
+  private final Counter completionTokens;
+  private final DistributionSummary chunksRetrieved;
+  private final Map<Result, Counter> answers = new EnumMap<>(Result.class);
+
+  public QAMetrics(MeterRegistry registry, AdmissionLimiter admissionLimiter) {
+    this.clock = registry.config().clock();
+    this.embedding = timer("qa.embedding", "the embedding call of the question", registry);
+    this.vectorSearch = timer("qa.vector.search", "the vector search of the question", registry);
+    this.promptAssembly = timer("qa.prompt.assembly",
+        "the packing of the search results into the prompt", registry);
+    this.timeToFirstToken = timer("qa.time.to.first.token",
+        "the time from the completion call to its first token", registry);
+    for (SignalType signal : new SignalType[]{SignalType.ON_COMPLETE, SignalType.ON_ERROR,
+        SignalType.CANCEL}) {
+      streamDurations.put(signal, Timer.builder("qa.stream.duration")
+          .description("the time from the completion call to the end of its stream")
+          .tag("outcome", signal == SignalType.ON_COMPLETE ? "complete"
+              : signal == SignalType.ON_ERROR ? "error" : "cancel")
+          .publishPercentileHistogram()
+          .register(registry));
+    }
+    this.promptTokens = Counter.builder("qa.prompt.tokens")
+        .description("the tokens of the prompt messages sent to the completion")
+        .baseUnit("tokens")
+        .register(registry);
+    this.completionTokens = Counter.builder("qa.completion.tokens")
+        .description("the tokens streamed by the completion, one per streamed chunk")
+        .baseUnit("tokens")
+        .register(registry);
+    this.chunksRetrieved = DistributionSummary.builder("qa.chunks.retrieved")
+        .description("the chunks retrieved by the fused vector and lexical search")
+        .baseUnit("chunks")
+        .register(registry);
+    for (Result result : Result.values()) {
+      answers.put(result, Counter.builder("qa.answers")
+          .description("the answers by their result")
+          .tag("result", result.name().toLowerCase(Locale.ROOT))
+          .register(registry));
+    }
+
+    Gauge.builder("qa.admission.limit", admissionLimiter, AdmissionLimiter::limit)
+        .description("the limit of the answer streams in flight")
+        .register(registry);
+    Gauge.builder("qa.admission.in.flight", admissionLimiter, AdmissionLimiter::inFlight)
+        .description("the answer streams in flight")
+        .register(registry);
+    Gauge.builder("qa.admission.waiting", admissionLimiter, AdmissionLimiter::waiting)
+        .description("the questions waiting for an answer stream")
+        .register(registry);
+  }
+
+  public <T> Mono<T> timeEmbedding(Mono<T> call) {
+    return time(embedding, call);
+  }
+
+  public <T> Mono<T> timeVectorSearch(Mono<T> search) {
+    return time(vectorSearch, search);
+  }
+
+  public <T> T timePromptAssembly(Supplier<T> assembly) {
+    return promptAssembly.record(assembly);
+  }
+
+  /**
+   * Measure the time to the first element and the duration of the completion stream, from the
+   * subscription on.
+   */
+  public <T> Flux<T> timeCompletion(Flux<T> completion) {
+    return Flux.defer(() -> {
+      long start = clock.monotonicTime();
+      AtomicBoolean firstToken = new AtomicBoolean(true);
+      return completion
+          .doOnNext(element -> {
+            completionTokens.increment();
+            if (firstToken.compareAndSet(true, false)) {
+              timeToFirstToken.record(clock.monotonicTime() - start, TimeUnit.NANOSECONDS);
+            }
+          })
+          .doFinally(signal -> {
+            Timer streamDuration = streamDurations.get(signal);
+            if (streamDuration != null) {
+              streamDuration.record(clock.monotonicTime() - start, TimeUnit.NANOSECONDS);
+            }
+          });
+    });
+  }
+
+  public void recordPromptTokens(int tokens) {
+    promptTokens.increment(tokens);
+  }
+
+  public void recordChunksRetrieved(int chunks) {
+    chunksRetrieved.record(chunks);
+  }
+
+  public void countAnswer(Result result) {
+    answers.get(result).increment();
+  }
+
+  private <T> Mono<T> time(Timer timer, Mono<T> call) {
+    return Mono.defer(() -> {
+      long start = clock.monotonicTime();
+      return call.doFinally(signal -> timer.record(clock.monotonicTime() - start,
+          TimeUnit.NANOSECONDS));
+    });
+  }
+
+  private static Timer timer(String name, String description, MeterRegistry registry) {
+    return Timer.builder(name)
+        .description(description)
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  public enum Result {
+    /**
+     * answered by the completion
+     */
+    ANSWERED,
+    /**
+     * answered by the semantic answer cache
+     */
+    CACHED,
+    /**
+     * nothing relevant found in the docs
+     */
+    UNKNOWN,
+    BUSY,
+    RATE_LIMITED,
+    ERROR
+  }
+}
@@ -0,0 +1,50 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.config.QuestionEmbeddingCacheConfig;
+import com.apolloconfig.apollo.ai.qabot.util.QuestionUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.util.concurrent.TimeUnit;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the embeddings of the questions, so that a repeated question doesn't pay another
+ * embedding round-trip.
+ */
+@Component
+public class QuestionEmbeddingCache {
+
+  private final boolean enabled;
+  private final Cache<String, float[]> cache;
+
+  public QuestionEmbeddingCache(QuestionEmbeddingCacheConfig config) {
+    this.enabled = config.isEnabled();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaximumSize())
+        .expireAfterWrite(config.getExpireAfterWrite(), TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * @return the cached embedding of the question, or null if absent
+   */
+  public float[] getIfPresent(String question) {
+    if (!enabled) {
+      return null;
+    }
+    return cache.getIfPresent(QuestionUtils.normalize(question));
+  }
+
+  public void put(String question, float[] embedding) {
+    if (!enabled) {
+      return;
+    }
+    cache.put(QuestionUtils.normalize(question), embedding);
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+}
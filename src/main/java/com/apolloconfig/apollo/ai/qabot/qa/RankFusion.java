@@ -0,0 +1,40 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public final class RankFusion {
+
+  private RankFusion() {
+  }
+
+  /**
+   * Fuse the rankings by reciprocal rank, i.e. a chunk scores 1 / (k + rank) in each ranking it
+   * appears in, so no ranking needs comparable scores. A chunk found by several rankings is only
+   * returned once, the ties keep the order of the first ranking.
+   *
+   * @param k the rank offset, the larger it is the less the top ranks dominate
+   */
+  public static List<MarkdownSearchResult> reciprocalRank(
+      List<List<MarkdownSearchResult>> rankings, int k, int limit) {
+    Map<String, MarkdownSearchResult> results = new LinkedHashMap<>();
+    Map<String, Double> scores = new LinkedHashMap<>();
+    for (List<MarkdownSearchResult> ranking : rankings) {
+      for (int i = 0; i < ranking.size(); i++) {
+        MarkdownSearchResult result = ranking.get(i);
+        String key = result.getFileRoot() + '\0' + result.getContent();
+        results.putIfAbsent(key, result);
+        scores.merge(key, 1.0 / (k + i + 1), Double::sum);
+      }
+    }
+
+    return scores.entrySet().stream()
+        .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+        .limit(limit)
+        .map(entry -> results.get(entry.getKey()))
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,99 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import com.apolloconfig.apollo.ai.qabot.config.SemanticAnswerCacheConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownFileIndexedEvent;
+import com.apolloconfig.apollo.ai.qabot.util.EmbeddingUtils;
+import com.apolloconfig.apollo.ai.qabot.util.QuestionUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the finished answers keyed by the question embeddings, so that a question close enough
+ * to a previously answered one is served without calling the completion api.
+ */
+@Component
+public class SemanticAnswerCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+  private final boolean enabled;
+  private final double similarityThreshold;
+  private final Cache<String, CachedAnswer> cache;
+  /**
+   * Bumped on every invalidation, so that an answer generated from the documents before the
+   * invalidation is not cached after it.
+   */
+  private final AtomicLong generation = new AtomicLong();
+
+  public SemanticAnswerCache(SemanticAnswerCacheConfig config) {
+    this.enabled = config.isEnabled();
+    this.similarityThreshold = config.getSimilarityThreshold();
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(config.getMaximumSize())
+        .expireAfterWrite(config.getExpireAfterWrite(), TimeUnit.MILLISECONDS)
+        .build();
+  }
+
+  /**
+   * @return the cached answer of the most similar question within the similarity threshold, or
+   * null if there is none
+   */
+  public CachedAnswer lookup(float[] questionEmbedding) {
+    if (!enabled) {
+      return null;
+    }
+
+    float[] normalized = EmbeddingUtils.normalize(questionEmbedding);
+    CachedAnswer bestMatch = null;
+    double bestSimilarity = similarityThreshold;
+    for (CachedAnswer cachedAnswer : cache.asMap().values()) {
+      double similarity = EmbeddingUtils.dot(normalized, cachedAnswer.questionEmbedding());
+      if (similarity >= bestSimilarity) {
+        bestSimilarity = similarity;
+        bestMatch = cachedAnswer;
+      }
+    }
+
+    return bestMatch;
+  }
+
+  /**
+   * @return the current generation, which should be passed to {@link #put} when the answer is
+   * complete
+   */
+  public long generation() {
+    return generation.get();
+  }
+
+  public synchronized void put(String question, float[] questionEmbedding, String answer,
+      Set<String> relatedFiles, long generation) {
+    if (!enabled || this.generation.get() != generation) {
+      return;
+    }
+    cache.put(QuestionUtils.normalize(question),
+        new CachedAnswer(EmbeddingUtils.normalize(questionEmbedding), answer,
+            ImmutableSet.copyOf(relatedFiles)));
+  }
+
+  @EventListener
+  public synchronized void onMarkdownFileIndexed(MarkdownFileIndexedEvent event) {
+    generation.incrementAndGet();
+    boolean removed = cache.asMap().values()
+        .removeIf(cachedAnswer -> cachedAnswer.relatedFiles().contains(event.fileRoot()));
+    if (removed) {
+      LOGGER.debug("Invalidated cached answers related to {}", event.fileRoot());
+    }
+  }
+
+  public record CachedAnswer(float[] questionEmbedding, String answer, Set<String> relatedFiles) {
+
+  }
+}
@@ -0,0 +1,36 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * Coalesces the concurrent calls of the same key into one upstream call. The first call subscribes
+ * to the upstream, the calls made while it's in flight join the same stream and get the elements
+ * emitted before they joined replayed. The stream is released once the upstream terminates, or
+ * cancelled once all the callers cancelled, so the next call of the key starts a new flight.
+ */
+public class SingleFlight<T> {
+
+  private final ConcurrentMap<String, Flux<T>> flights = new ConcurrentHashMap<>();
+
+  public Flux<T> execute(String key, Supplier<Flux<T>> upstream) {
+    return Flux.defer(() -> flights.computeIfAbsent(key, k -> {
+      AtomicReference<Flux<T>> flight = new AtomicReference<>();
+      flight.set(Flux.defer(upstream)
+          .doFinally(signal -> flights.remove(k, flight.get()))
+          .replay()
+          .refCount());
+      return flight.get();
+    }));
+  }
+
+  /**
+   * @return the number of keys in flight
+   */
+  int size() {
+    return flights.size();
+  }
+}
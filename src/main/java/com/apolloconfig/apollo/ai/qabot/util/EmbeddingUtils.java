@@ -0,0 +1,49 @@
+package com.apolloconfig.apollo.ai.qabot.util;
+
+import com.theokanning.openai.embedding.Embedding;
+import java.util.List;
+
+public final class EmbeddingUtils {
+
+  private EmbeddingUtils() {
+  }
+
+  /**
+   * Convert the boxed embedding returned by the api into a compact primitive vector.
+   */
+  public static float[] toFloatArray(Embedding embedding) {
+    List<Double> values = embedding.getEmbedding();
+    float[] vector = new float[values.size()];
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = values.get(i).floatValue();
+    }
+
+    return vector;
+  }
+
+  /**
+   * @return a copy of the vector scaled to unit length, so that the cosine similarity of two
+   * normalized vectors is simply their dot product
+   */
+  public static float[] normalize(float[] vector) {
+    double norm = Math.sqrt(dot(vector, vector));
+    float[] normalized = new float[vector.length];
+    if (norm == 0) {
+      return normalized;
+    }
+    for (int i = 0; i < vector.length; i++) {
+      normalized[i] = (float) (vector[i] / norm);
+    }
+
+    return normalized;
+  }
+
+  public static double dot(float[] a, float[] b) {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+
+    return sum;
+  }
+}
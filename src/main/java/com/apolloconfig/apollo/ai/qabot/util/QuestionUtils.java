@@ -0,0 +1,20 @@
+package com.apolloconfig.apollo.ai.qabot.util;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+public final class QuestionUtils {
+
+  private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+
+  private QuestionUtils() {
+  }
+
+  /**
+   * Normalize the question so that trivially different spellings share the same key, e.g.
+   * " How to  configure Apollo " and "how to configure apollo".
+   */
+  public static String normalize(String question) {
+    return WHITESPACES.matcher(question.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+  }
+}
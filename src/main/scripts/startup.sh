@@ -19,6 +19,8 @@ SERVICE_NAME=qa-bot
 LOG_DIR=/opt/logs
 ## Adjust server port if necessary
 SERVER_PORT=${SERVER_PORT:=9090}
+## Adjust management port if necessary, the health endpoint is served on it
+MANAGEMENT_PORT=${MANAGEMENT_PORT:=9091}
 
 ## Create log directory if not existed because JDK 8+ won't do that
 mkdir -p $LOG_DIR
@@ -31,11 +33,12 @@ export JAVA_OPTS="$JAVA_OPTS -server -XX:-ReduceInitialCardMarks"
 
 ########### The following is the same for configservice, adminservice, portal ###########
 export JAVA_OPTS="$JAVA_OPTS -XX:ParallelGCThreads=4 -XX:MaxTenuringThreshold=9 -XX:+DisableExplicitGC -XX:+ScavengeBeforeFullGC -XX:SoftRefLRUPolicyMSPerMB=0 -XX:+ExplicitGCInvokesConcurrent -XX:+HeapDumpOnOutOfMemoryError -XX:-OmitStackTraceInFastThrow -Duser.timezone=Asia/Shanghai -Dclient.encoding.override=UTF-8 -Dfile.encoding=UTF-8 -Djava.security.egd=file:/dev/./urandom"
-export JAVA_OPTS="$JAVA_OPTS -Dserver.port=$SERVER_PORT -Dlogging.file.name=$LOG_DIR/$SERVICE_NAME.log -XX:HeapDumpPath=$LOG_DIR/HeapDumpOnOutOfMemoryError/"
+export JAVA_OPTS="$JAVA_OPTS -Dserver.port=$SERVER_PORT -Dmanagement.server.port=$MANAGEMENT_PORT -Dlogging.file.name=$LOG_DIR/$SERVICE_NAME.log -XX:HeapDumpPath=$LOG_DIR/HeapDumpOnOutOfMemoryError/"
 export APP_NAME=$SERVICE_NAME
 
 PATH_TO_JAR=$SERVICE_NAME".jar"
 SERVER_URL="http://localhost:$SERVER_PORT"
+MANAGEMENT_URL="http://localhost:$MANAGEMENT_PORT"
 
 function getPid() {
     pgrep -f $SERVICE_NAME
@@ -68,7 +71,7 @@ function existProcessUsePort() {
 }
 
 function isServiceRunning() {
-    if [ "$(curl -X GET --silent --connect-timeout 1 --max-time 2 $SERVER_URL/health | grep "UP")" != "" ]; then
+    if [ "$(curl -X GET --silent --connect-timeout 1 --max-time 2 $MANAGEMENT_URL/health | grep "UP")" != "" ]; then
         true
     else
         false
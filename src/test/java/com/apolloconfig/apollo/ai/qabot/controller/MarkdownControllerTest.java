@@ -15,6 +15,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
 
 @ExtendWith(MockitoExtension.class)
 class MarkdownControllerTest {
@@ -38,29 +39,31 @@ class MarkdownControllerTest {
   @Test
   void testLoadAndProcessFiles() {
     List<String> someResult = Lists.newArrayList("result");
-    when(markdownProcessor.loadAndProcessFiles(someLocation)).thenReturn(someResult);
+    when(markdownProcessor.loadAndProcessFilesAsync(someLocation)).thenReturn(
+        Mono.just(someResult));
 
-    List<String> actualResult = markdownControllerUnderTest.loadAndProcessFiles();
+    List<String> actualResult = markdownControllerUnderTest.loadAndProcessFiles().block();
 
     assertSame(someResult, actualResult);
-    verify(markdownProcessor, times(1)).loadAndProcessFiles(someLocation);
+    verify(markdownProcessor, times(1)).loadAndProcessFilesAsync(someLocation);
     verify(markdownFilesConfig, times(1)).getLocation();
   }
 
   @Test
   void testLoadAndProcessFileWithException() {
     RuntimeException someException = new RuntimeException();
-    when(markdownProcessor.loadAndProcessFiles(someLocation)).thenThrow(someException);
+    when(markdownProcessor.loadAndProcessFilesAsync(someLocation)).thenReturn(
+        Mono.error(someException));
 
     RuntimeException exception = null;
     try {
-      markdownControllerUnderTest.loadAndProcessFiles();
+      markdownControllerUnderTest.loadAndProcessFiles().block();
     } catch (RuntimeException e) {
       exception = e;
     }
 
     assertSame(someException, exception);
-    verify(markdownProcessor, times(1)).loadAndProcessFiles(someLocation);
+    verify(markdownProcessor, times(1)).loadAndProcessFilesAsync(someLocation);
     verify(markdownFilesConfig, times(1)).getLocation();
   }
 }
\ No newline at end of file
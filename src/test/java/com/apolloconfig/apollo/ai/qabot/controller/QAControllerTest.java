@@ -2,9 +2,11 @@ package com.apolloconfig.apollo.ai.qabot.controller;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -14,19 +16,32 @@ import static org.mockito.Mockito.when;
 
 import com.apolloconfig.apollo.ai.qabot.api.AiService;
 import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
+import com.apolloconfig.apollo.ai.qabot.config.AdmissionConfig;
+import com.apolloconfig.apollo.ai.qabot.config.PromptContextConfig;
 import com.apolloconfig.apollo.ai.qabot.controller.QAController.Answer;
 import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.apolloconfig.apollo.ai.qabot.qa.AdmissionLimiter;
+import com.apolloconfig.apollo.ai.qabot.qa.ClientRateLimiter;
+import com.apolloconfig.apollo.ai.qabot.qa.LexicalIndex;
+import com.apolloconfig.apollo.ai.qabot.qa.PromptContextPacker;
+import com.apolloconfig.apollo.ai.qabot.qa.QAMetrics;
+import com.apolloconfig.apollo.ai.qabot.qa.QAMetrics.Result;
+import com.apolloconfig.apollo.ai.qabot.qa.QuestionEmbeddingCache;
+import com.apolloconfig.apollo.ai.qabot.qa.SemanticAnswerCache;
+import com.apolloconfig.apollo.ai.qabot.qa.SemanticAnswerCache.CachedAnswer;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
 import com.theokanning.openai.completion.chat.ChatCompletionChoice;
 import com.theokanning.openai.completion.chat.ChatCompletionChunk;
 import com.theokanning.openai.completion.chat.ChatMessage;
 import com.theokanning.openai.embedding.Embedding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.reactivex.Flowable;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.assertj.core.util.Sets;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -34,9 +49,15 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
 import org.springframework.test.util.ReflectionTestUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
 @ExtendWith(MockitoExtension.class)
 class QAControllerTest {
@@ -45,6 +66,21 @@ class QAControllerTest {
   private AiService aiService;
   @Mock
   private VectorDBService vectorDBService;
+  @Mock
+  private QuestionEmbeddingCache questionEmbeddingCache;
+  @Mock
+  private SemanticAnswerCache semanticAnswerCache;
+  @Mock
+  private LexicalIndex lexicalIndex;
+  @Spy
+  private PromptContextPacker promptContextPacker = new PromptContextPacker(
+      new PromptContextConfig(), String::length);
+  @Mock
+  private ClientRateLimiter clientRateLimiter;
+  @Spy
+  private AdmissionLimiter admissionLimiter = new AdmissionLimiter(new AdmissionConfig());
+  @Spy
+  private QAMetrics qaMetrics = new QAMetrics(new SimpleMeterRegistry(), admissionLimiter);
 
   @InjectMocks
   private QAController qaController;
@@ -61,6 +97,8 @@ class QAControllerTest {
 
   private Duration timeout;
 
+  private MockServerWebExchange exchange;
+
   @BeforeEach
   void setUp() {
     somePrompt = "somePrompt";
@@ -77,17 +115,18 @@ class QAControllerTest {
     ReflectionTestUtils.setField(qaController, "topK", someTopK);
 
     timeout = Duration.ofMillis(100);
+    exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/qa"));
   }
 
   @Test
   void testQAWithEmptyQuestion() {
     someQuestion = " ";
 
-    Answer answer = qaController.qa(someQuestion).blockFirst(timeout);
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
 
     assertSame(Answer.EMPTY, answer);
-    verify(aiService, never()).getEmbeddings(anyList());
-    verify(vectorDBService, never()).search(anyList(), anyInt());
+    verify(aiService, never()).getEmbeddingsAsync(anyList());
+    verify(vectorDBService, never()).searchAsync(anyList(), anyInt());
     verify(aiService, never()).getCompletion(anyString());
   }
 
@@ -95,12 +134,13 @@ class QAControllerTest {
   void testQAWithError() {
     List<String> questionList = Lists.newArrayList(someQuestion);
 
-    when(aiService.getEmbeddings(questionList)).thenThrow(new RuntimeException("some exception"));
+    when(aiService.getEmbeddingsAsync(questionList)).thenReturn(
+        Mono.error(new RuntimeException("some exception")));
 
-    Answer answer = qaController.qa(someQuestion).blockFirst(timeout);
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
 
     assertSame(Answer.ERROR, answer);
-    verify(aiService, times(1)).getEmbeddings(questionList);
+    verify(aiService, times(1)).getEmbeddingsAsync(questionList);
   }
 
   @Test
@@ -108,21 +148,81 @@ class QAControllerTest {
     List<String> questionList = Lists.newArrayList(someQuestion);
     List<Embedding> someEmbeddings = Lists.newArrayList(someEmbedding);
 
-    when(aiService.getEmbeddings(questionList)).thenReturn(someEmbeddings);
-    when(vectorDBService.search(anyList(), anyInt())).thenReturn(Lists.newArrayList());
+    when(aiService.getEmbeddingsAsync(questionList)).thenReturn(Mono.just(someEmbeddings));
+    when(vectorDBService.searchAsync(anyList(), anyInt())).thenReturn(
+        Mono.just(Lists.newArrayList()));
 
-    Answer answer = qaController.qa(someQuestion).blockFirst(timeout);
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
 
     assertSame(Answer.UNKNOWN, answer);
-    verify(aiService, times(1)).getEmbeddings(questionList);
+    verify(aiService, times(1)).getEmbeddingsAsync(questionList);
     ArgumentCaptor<List<List<Float>>> embeddingValuesCaptor = ArgumentCaptor.forClass(List.class);
     ArgumentCaptor<Integer> topKCaptor = ArgumentCaptor.forClass(Integer.class);
-    verify(vectorDBService, times(1)).search(embeddingValuesCaptor.capture(), topKCaptor.capture());
+    verify(vectorDBService, times(1)).searchAsync(embeddingValuesCaptor.capture(),
+        topKCaptor.capture());
 
     List<List<Float>> capturedEmbeddingValues = embeddingValuesCaptor.getValue();
     Integer capturedTopK = topKCaptor.getValue();
     assertEquals(originalEmbeddingValues, capturedEmbeddingValues.get(0));
     assertEquals(someTopK, capturedTopK);
+    verify(questionEmbeddingCache, times(1)).put(someQuestion, new float[]{1.0f, 2.0f});
+    verify(qaMetrics, times(1)).countAnswer(Result.UNKNOWN);
+  }
+
+  @Test
+  void testQACoalescesIdenticalQuestions() {
+    Sinks.One<List<Embedding>> embeddings = Sinks.one();
+    List<Answer> someAnswers = new CopyOnWriteArrayList<>();
+    List<Answer> anotherAnswers = new CopyOnWriteArrayList<>();
+
+    when(aiService.getEmbeddingsAsync(Lists.newArrayList(someQuestion))).thenReturn(
+        embeddings.asMono());
+    when(vectorDBService.searchAsync(anyList(), anyInt())).thenReturn(
+        Mono.just(Lists.newArrayList()));
+
+    qaController.qa(someQuestion, exchange).subscribe(someAnswers::add);
+    qaController.qa(" SomeQuestion ", exchange).subscribe(anotherAnswers::add);
+    embeddings.tryEmitValue(Lists.newArrayList(someEmbedding));
+
+    assertEquals(Lists.newArrayList(Answer.UNKNOWN), someAnswers);
+    assertEquals(Lists.newArrayList(Answer.UNKNOWN), anotherAnswers);
+    verify(aiService, times(1)).getEmbeddingsAsync(anyList());
+  }
+
+  @Test
+  void testQAWhenRateLimited() {
+    when(clientRateLimiter.tryAcquire(exchange.getRequest())).thenReturn(30);
+
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
+
+    assertSame(Answer.RATE_LIMITED, answer);
+    assertEquals("30", exchange.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    verify(aiService, never()).getEmbeddingsAsync(anyList());
+  }
+
+  @Test
+  void testQAWhenShed() {
+    doReturn(Flux.just(Answer.BUSY)).when(admissionLimiter).admit(any(), any());
+
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
+
+    assertSame(Answer.BUSY, answer);
+    assertEquals("5", exchange.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+    verify(aiService, never()).getEmbeddingsAsync(anyList());
+  }
+
+  @Test
+  void testQAWithCachedQuestionEmbedding() {
+    List<List<Float>> searchVectors = Collections.singletonList(originalEmbeddingValues);
+
+    when(questionEmbeddingCache.getIfPresent(someQuestion)).thenReturn(new float[]{1.0f, 2.0f});
+    when(vectorDBService.searchAsync(searchVectors, someTopK)).thenReturn(
+        Mono.just(Lists.newArrayList()));
+
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
+
+    assertSame(Answer.UNKNOWN, answer);
+    verify(aiService, never()).getEmbeddingsAsync(anyList());
   }
 
   @Test
@@ -143,14 +243,14 @@ class QAControllerTest {
     Flowable<ChatCompletionChunk> someChatCompletionChunk = Flowable.just(
         mockChatCompletionChunk(someAnswer), mockChatCompletionChunk(anotherAnswer));
 
-    when(aiService.getEmbeddings(questionList)).thenReturn(someEmbeddings);
-    when(vectorDBService.search(searchVectors, someTopK)).thenReturn(
-        Lists.newArrayList(someMarkdownSearchResult, anotherMarkdownSearchResult));
+    when(aiService.getEmbeddingsAsync(questionList)).thenReturn(Mono.just(someEmbeddings));
+    when(vectorDBService.searchAsync(searchVectors, someTopK)).thenReturn(
+        Mono.just(Lists.newArrayList(someMarkdownSearchResult, anotherMarkdownSearchResult)));
     when(aiService.getCompletion(somePrompt)).thenReturn(someChatCompletionChunk);
 
     Set<String> relatedFiles = Sets.newLinkedHashSet();
 
-    Flux<Answer> answer = qaController.qa(someQuestion);
+    Flux<Answer> answer = qaController.qa(someQuestion, exchange);
 
     String result = answer.map((Function<Answer, String>) input -> {
       relatedFiles.addAll(input.relatedFiles());
@@ -160,6 +260,78 @@ class QAControllerTest {
 
     assertEquals(someAnswer+anotherAnswer+Answer.END.answer(), result);
     assertEquals(Sets.newLinkedHashSet(someFileRoot, anotherFileRoot), relatedFiles);
+    verify(semanticAnswerCache, times(1)).put(someQuestion, new float[]{1.0f, 2.0f},
+        someAnswer + anotherAnswer, relatedFiles, 0L);
+    verify(qaMetrics, times(1)).recordChunksRetrieved(2);
+    verify(qaMetrics, times(1)).countAnswer(Result.ANSWERED);
+  }
+
+  @Test
+  void testQAWithLexicalSearchResults() {
+    MarkdownSearchResult someMarkdownSearchResult = new MarkdownSearchResult("someFileRoot",
+        "someContent");
+    MarkdownSearchResult anotherMarkdownSearchResult = new MarkdownSearchResult("anotherFileRoot",
+        "anotherContent");
+    List<List<Float>> searchVectors = Collections.singletonList(originalEmbeddingValues);
+    String someAnswer = "someAnswer";
+    ReflectionTestUtils.setField(qaController, "prompt", "{context}");
+    ReflectionTestUtils.setField(qaController, "rrfK", 60);
+
+    when(questionEmbeddingCache.getIfPresent(someQuestion)).thenReturn(new float[]{1.0f, 2.0f});
+    when(lexicalIndex.search(someQuestion, someTopK)).thenReturn(
+        Lists.newArrayList(anotherMarkdownSearchResult, someMarkdownSearchResult));
+    when(vectorDBService.searchAsync(searchVectors, someTopK)).thenReturn(
+        Mono.just(Lists.newArrayList(someMarkdownSearchResult)));
+    Flowable<ChatCompletionChunk> someChatCompletionChunk = Flowable.just(
+        mockChatCompletionChunk(someAnswer));
+    when(aiService.getCompletion("someContent\nanotherContent\n")).thenReturn(
+        someChatCompletionChunk);
+
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
+
+    // the chunk found by both searches ranks first
+    assertEquals(new Answer(someAnswer, Sets.newLinkedHashSet("someFileRoot", "anotherFileRoot")),
+        answer);
+  }
+
+  @Test
+  void testQADropsNearDuplicateChunks() {
+    MarkdownSearchResult someMarkdownSearchResult = new MarkdownSearchResult("someFileRoot",
+        "someContent");
+    MarkdownSearchResult duplicateMarkdownSearchResult = new MarkdownSearchResult(
+        "anotherFileRoot", "someContent");
+    List<List<Float>> searchVectors = Collections.singletonList(originalEmbeddingValues);
+    String someAnswer = "someAnswer";
+    ReflectionTestUtils.setField(qaController, "prompt", "{context}");
+
+    when(questionEmbeddingCache.getIfPresent(someQuestion)).thenReturn(new float[]{1.0f, 2.0f});
+    when(vectorDBService.searchAsync(searchVectors, someTopK)).thenReturn(
+        Mono.just(Lists.newArrayList(someMarkdownSearchResult, duplicateMarkdownSearchResult)));
+    Flowable<ChatCompletionChunk> someChatCompletionChunk = Flowable.just(
+        mockChatCompletionChunk(someAnswer));
+    when(aiService.getCompletion("someContent\n")).thenReturn(someChatCompletionChunk);
+
+    Answer answer = qaController.qa(someQuestion, exchange).blockFirst(timeout);
+
+    assertEquals(new Answer(someAnswer, Sets.newLinkedHashSet("someFileRoot")), answer);
+  }
+
+  @Test
+  void testQAWithCachedAnswer() {
+    String someFileRoot = "someFileRoot";
+    String someAnswer = "someAnswer";
+    CachedAnswer someCachedAnswer = new CachedAnswer(new float[]{1.0f, 2.0f}, someAnswer,
+        Sets.newLinkedHashSet(someFileRoot));
+
+    when(questionEmbeddingCache.getIfPresent(someQuestion)).thenReturn(new float[]{1.0f, 2.0f});
+    when(semanticAnswerCache.lookup(new float[]{1.0f, 2.0f})).thenReturn(someCachedAnswer);
+
+    List<Answer> answers = qaController.qa(someQuestion, exchange).collectList().block(timeout);
+
+    assertEquals(Lists.newArrayList(new Answer(someAnswer, Sets.newLinkedHashSet(someFileRoot)),
+        Answer.END), answers);
+    verify(vectorDBService, never()).searchAsync(anyList(), anyInt());
+    verify(aiService, never()).getCompletion(anyString());
   }
 
   private ChatCompletionChunk mockChatCompletionChunk(String content) {
@@ -0,0 +1,153 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class HnswIndexTest {
+
+  private static final int DIMENSION = 16;
+  private static final int SIZE = 2000;
+
+  private HnswIndex<Integer> hnswIndex;
+
+  private float[][] vectors;
+
+  private Random random;
+
+  @BeforeEach
+  void setUp() {
+    random = new Random(42);
+    hnswIndex = new HnswIndex<>(DIMENSION, 16, 200);
+    vectors = new float[SIZE][];
+    for (int i = 0; i < SIZE; i++) {
+      vectors[i] = randomVector();
+      hnswIndex.add(vectors[i], i);
+    }
+  }
+
+  @Test
+  void testSearchExactVector() {
+    List<Integer> results = hnswIndex.search(vectors[123], 1, 64);
+
+    assertEquals(List.of(123), results);
+  }
+
+  @Test
+  void testSearchRecall() {
+    int hits = 0;
+    for (int i = 0; i < 50; i++) {
+      float[] query = randomVector();
+      Set<Integer> expected = bruteForce(query, 10);
+
+      hits += (int) hnswIndex.search(query, 10, 100).stream().filter(expected::contains).count();
+    }
+
+    assertTrue(hits >= 50 * 10 * 0.9, "recall too low: " + hits);
+  }
+
+  @Test
+  void testSearchSkipsRemovedNodes() {
+    for (int id = 0; id < SIZE; id += 2) {
+      hnswIndex.remove(id);
+    }
+
+    List<Integer> results = hnswIndex.search(vectors[100], 10, 64);
+
+    assertEquals(10, results.size());
+    assertFalse(results.stream().anyMatch(id -> id % 2 == 0));
+    assertEquals(SIZE / 2, hnswIndex.deletedCount());
+  }
+
+  @Test
+  void testSearchWhileWriting() throws Exception {
+    float[][] addedVectors = new float[SIZE][];
+    for (int i = 0; i < SIZE; i++) {
+      addedVectors[i] = randomVector();
+    }
+    AtomicBoolean writing = new AtomicBoolean(true);
+    ExecutorService executorService = Executors.newFixedThreadPool(5);
+    try {
+      Future<?> writer = executorService.submit(() -> {
+        try {
+          for (int i = 0; i < SIZE; i++) {
+            hnswIndex.add(addedVectors[i], SIZE + i);
+            hnswIndex.remove(i / 2 * 2);
+          }
+        } finally {
+          writing.set(false);
+        }
+      });
+      List<Future<Integer>> searchers = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        long seed = i;
+        searchers.add(executorService.submit(() -> {
+          Random searchRandom = new Random(seed);
+          int searches = 0;
+          while (writing.get() || searches == 0) {
+            // the odd nodes are never removed, so they are always found
+            int id = searchRandom.nextInt(SIZE / 2) * 2 + 1;
+            List<Integer> results = hnswIndex.search(vectors[id], 10, 64);
+
+            assertEquals(10, results.size());
+            assertEquals(10, new HashSet<>(results).size());
+            assertTrue(results.contains(id), "missing " + id + " in " + results);
+            assertTrue(results.stream().allMatch(result -> result < SIZE * 2));
+            searches++;
+          }
+          return searches;
+        }));
+      }
+
+      writer.get(1, TimeUnit.MINUTES);
+      for (Future<Integer> searcher : searchers) {
+        assertTrue(searcher.get(1, TimeUnit.MINUTES) > 0);
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+
+    assertEquals(SIZE * 2, hnswIndex.size());
+    assertEquals(SIZE / 2, hnswIndex.deletedCount());
+    assertEquals(List.of(SIZE + 123), hnswIndex.search(addedVectors[123], 1, 64));
+  }
+
+  private Set<Integer> bruteForce(float[] query, int topK) {
+    return IntStream.range(0, SIZE).boxed()
+        .sorted(Comparator.comparingDouble(id -> distance(query, vectors[id])))
+        .limit(topK)
+        .collect(Collectors.toSet());
+  }
+
+  private double distance(float[] a, float[] b) {
+    double sum = 0;
+    for (int i = 0; i < a.length; i++) {
+      sum += (a[i] - b[i]) * (a[i] - b[i]);
+    }
+    return sum;
+  }
+
+  private float[] randomVector() {
+    float[] vector = new float[DIMENSION];
+    for (int i = 0; i < DIMENSION; i++) {
+      vector[i] = random.nextFloat();
+    }
+    return vector;
+  }
+}
@@ -0,0 +1,158 @@
+package com.apolloconfig.apollo.ai.qabot.local;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.apolloconfig.apollo.ai.qabot.local.SegmentStore.StoredChunk;
+import com.apolloconfig.apollo.ai.qabot.local.SegmentStore.StoredFile;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentStoreTest {
+
+  private static final int DIMENSION = 4;
+  private static final long MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void testReopen() throws IOException {
+    String someFileRoot = "some-file";
+    String anotherFileRoot = "another-file";
+    String someHashValue = "some-hash";
+
+    try (SegmentStore store = open()) {
+      store.appendChunks(someFileRoot, List.of("some chunk", "another chunk"),
+          List.of(new float[]{1, 2, 3, 4}, new float[]{5, 6, 7, 8}));
+      store.appendFileHash(someFileRoot, someHashValue);
+      store.appendChunks(anotherFileRoot, List.of("yet another chunk"),
+          List.of(new float[]{9, 10, 11, 12}));
+    }
+
+    try (SegmentStore store = open()) {
+      Map<String, StoredFile> storedFiles = store.getStoredFiles();
+
+      assertEquals(2, storedFiles.size());
+      StoredFile someFile = storedFiles.get(someFileRoot);
+      assertEquals(someHashValue, someFile.hashValue());
+      assertEquals(2, someFile.chunks().size());
+      assertEquals("another chunk", someFile.chunks().get(1).content());
+      assertArrayEquals(new float[]{5, 6, 7, 8}, toArray(someFile.chunks().get(1)));
+      assertNull(storedFiles.get(anotherFileRoot).hashValue());
+    }
+  }
+
+  @Test
+  void testRemovedFileIsNotRestored() throws IOException {
+    try (SegmentStore store = open()) {
+      store.appendChunks("some-file", List.of("some chunk"), List.of(new float[]{1, 2, 3, 4}));
+      store.appendFileHash("some-file", "some-hash");
+      store.appendFileHash("another-file", "another-hash");
+      store.appendFileRemoval("some-file");
+    }
+
+    try (SegmentStore store = open()) {
+      assertEquals(Set.of("another-file"), store.getStoredFiles().keySet());
+    }
+  }
+
+  @Test
+  void testSupersededRecordsAreCompacted() throws IOException {
+    String someFileRoot = "some-file";
+    String someContent = "x".repeat(10000);
+
+    try (SegmentStore store = open()) {
+      for (int i = 0; i < 200; i++) {
+        store.appendChunks(someFileRoot, List.of(someContent + i),
+            List.of(new float[]{i, 0, 0, 0}));
+        store.appendFileHash(someFileRoot, "hash-" + i);
+      }
+    }
+
+    assertTrue(directorySize() < 1536 * 1024);
+    try (SegmentStore store = open()) {
+      StoredFile storedFile = store.getStoredFiles().get(someFileRoot);
+
+      assertEquals("hash-199", storedFile.hashValue());
+      assertEquals(1, storedFile.chunks().size());
+      assertEquals(someContent + 199, storedFile.chunks().get(0).content());
+    }
+  }
+
+  @Test
+  void testIncompleteTailIsTruncated() throws IOException {
+    try (SegmentStore store = open()) {
+      store.appendFileHash("some-file", "some-hash");
+      store.appendFileHash("another-file", "another-hash");
+    }
+    Path segment = onlySegment();
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      file.setLength(file.length() - 3);
+    }
+
+    try (SegmentStore store = open()) {
+      assertEquals(1, store.getStoredFiles().size());
+      assertEquals("some-hash", store.getStoredFiles().get("some-file").hashValue());
+
+      store.appendFileHash("yet-another-file", "yet-another-hash");
+    }
+
+    try (SegmentStore store = open()) {
+      assertEquals(2, store.getStoredFiles().size());
+    }
+  }
+
+  @Test
+  void testCorruptedSegmentIsDiscarded() throws IOException {
+    try (SegmentStore store = open()) {
+      store.appendFileHash("some-file", "some-hash");
+    }
+    Path segment = onlySegment();
+    byte[] bytes = Files.readAllBytes(segment);
+    bytes[20] ^= 1;
+    Files.write(segment, bytes);
+    // the corrupted segment is no longer the last one
+    Files.write(segment.resolveSibling("segment-000000000099.seg"),
+        Files.readAllBytes(segment));
+
+    try (SegmentStore store = open()) {
+      assertTrue(store.getStoredFiles().isEmpty());
+    }
+  }
+
+  private SegmentStore open() throws IOException {
+    return SegmentStore.open(directory, DIMENSION, MAX_SEGMENT_SIZE, 0.5);
+  }
+
+  private Path onlySegment() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      List<Path> segments = paths.collect(Collectors.toList());
+      assertEquals(1, segments.size());
+      return segments.get(0);
+    }
+  }
+
+  private long directorySize() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths.mapToLong(path -> path.toFile().length()).sum();
+    }
+  }
+
+  private float[] toArray(StoredChunk chunk) {
+    float[] vector = new float[DIMENSION];
+    chunk.vector().get(0, vector);
+    return vector;
+  }
+}
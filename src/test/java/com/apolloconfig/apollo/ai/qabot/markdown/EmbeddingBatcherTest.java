@@ -0,0 +1,147 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorPipelineConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownProcessor.MarkdownFile;
+import com.google.common.collect.Lists;
+import com.theokanning.openai.embedding.Embedding;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class EmbeddingBatcherTest {
+
+  private MarkdownProcessorPipelineConfig pipelineConfig;
+  private EmbeddingBatcher embeddingBatcher;
+  private List<List<String>> requests;
+
+  @BeforeEach
+  void setUp() {
+    pipelineConfig = new MarkdownProcessorPipelineConfig();
+    embeddingBatcher = new EmbeddingBatcher(String::length, pipelineConfig);
+    requests = new CopyOnWriteArrayList<>();
+  }
+
+  @Test
+  void testPackChunksOfManyFiles() {
+    List<MarkdownFile> files = Lists.newArrayList(
+        file("some", "a", "b"), file("another", "c"), file("yet-another", "d", "e", "f"));
+
+    Map<String, MarkdownFile> embeddedFiles = embed(files, this::reversedEmbeddings);
+
+    assertEquals(1, requests.size());
+    assertEquals(3, embeddedFiles.size());
+    assertEmbedded(embeddedFiles.get("some"));
+    assertEmbedded(embeddedFiles.get("another"));
+    assertEmbedded(embeddedFiles.get("yet-another"));
+  }
+
+  @Test
+  void testSplitByMaxInputs() {
+    pipelineConfig.setEmbedBatchMaxInputs(2);
+    List<MarkdownFile> files = Lists.newArrayList(file("some", "a", "b", "c"),
+        file("another", "d"));
+
+    Map<String, MarkdownFile> embeddedFiles = embed(files, this::reversedEmbeddings);
+
+    assertEquals(Lists.newArrayList(Lists.newArrayList("a", "b"), Lists.newArrayList("c", "d")),
+        requests);
+    assertEmbedded(embeddedFiles.get("some"));
+    assertEmbedded(embeddedFiles.get("another"));
+  }
+
+  @Test
+  void testSplitByMaxTokens() {
+    pipelineConfig.setEmbedBatchMaxTokens(5);
+    List<MarkdownFile> files = Lists.newArrayList(file("some", "aaa", "bb", "cccccc", "d"));
+
+    Map<String, MarkdownFile> embeddedFiles = embed(files, this::reversedEmbeddings);
+
+    assertEquals(Lists.newArrayList(Lists.newArrayList("aaa", "bb"),
+        Lists.newArrayList("cccccc"), Lists.newArrayList("d")), requests);
+    assertEmbedded(embeddedFiles.get("some"));
+  }
+
+  @Test
+  void testFailedRequestOnlyDropsItsFiles() {
+    pipelineConfig.setEmbedBatchMaxInputs(2);
+    List<MarkdownFile> files = Lists.newArrayList(file("some", "a"), file("another", "b", "c"),
+        file("yet-another", "d", "e"));
+
+    Map<String, MarkdownFile> embeddedFiles = embed(files,
+        chunks -> chunks.contains("c") ? Mono.error(new IllegalStateException())
+            : reversedEmbeddings(chunks));
+
+    // the failed request has chunks of both another and yet-another
+    assertEquals(1, embeddedFiles.size());
+    assertEmbedded(embeddedFiles.get("some"));
+  }
+
+  @Test
+  void testFileWithoutNewChunks() {
+    MarkdownFile someFile = file("some", "a");
+    MarkdownFile unchangedFile = someFile.withChunks(someFile.chunks(), Collections.emptyList());
+    List<MarkdownFile> files = Lists.newArrayList(unchangedFile, file("another", "b"));
+
+    Map<String, MarkdownFile> embeddedFiles = embed(files, this::reversedEmbeddings);
+
+    assertEquals(List.of(List.of("b")), requests);
+    assertTrue(embeddedFiles.get("some").embeddings().isEmpty());
+    assertEmbedded(embeddedFiles.get("another"));
+  }
+
+  private Map<String, MarkdownFile> embed(List<MarkdownFile> files,
+      Function<List<String>, Mono<List<Embedding>>> embedder) {
+    return embeddingBatcher.embed(Flux.fromIterable(files), chunks -> {
+          requests.add(chunks);
+          return embedder.apply(chunks);
+        })
+        .collectList()
+        .block()
+        .stream()
+        .collect(Collectors.toMap(MarkdownFile::fileRoot, Function.identity()));
+  }
+
+  /**
+   * The embedding of a chunk is its hash code, returned in the reversed order to make sure the
+   * embeddings are routed by their index.
+   */
+  private Mono<List<Embedding>> reversedEmbeddings(List<String> chunks) {
+    List<Embedding> embeddings = Lists.newArrayList();
+    for (int i = 0; i < chunks.size(); i++) {
+      Embedding embedding = new Embedding();
+      embedding.setIndex(i);
+      embedding.setEmbedding(Lists.newArrayList((double) chunks.get(i).hashCode()));
+      embeddings.add(embedding);
+    }
+    Collections.reverse(embeddings);
+    return Mono.just(embeddings);
+  }
+
+  private void assertEmbedded(MarkdownFile file) {
+    assertEquals(file.newChunks().size(), file.embeddings().size());
+    for (int i = 0; i < file.newChunks().size(); i++) {
+      assertEquals(i, file.embeddings().get(i).getIndex());
+      assertTrue(file.embeddings().get(i).getEmbedding()
+          .contains((double) file.newChunks().get(i).content().hashCode()));
+    }
+  }
+
+  private MarkdownFile file(String fileRoot, String... chunks) {
+    List<MarkdownChunk> markdownChunks = Arrays.stream(chunks).map(MarkdownChunk::of)
+        .collect(Collectors.toList());
+    return new MarkdownFile(Paths.get(fileRoot + ".md"), fileRoot, "hash", "content",
+        markdownChunks, markdownChunks, null);
+  }
+}
@@ -0,0 +1,82 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorChunkConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Measures the chunking throughput on a real documentation tree, e.g.
+ * <pre>
+ * mvn test -Dtest=MarkdownChunkerBenchmark -Dmarkdown.chunker.benchmark.location=/path/to/docs
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "markdown.chunker.benchmark.location", matches = ".+")
+class MarkdownChunkerBenchmark {
+
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int MEASURED_ROUNDS = 20;
+
+  @Test
+  void benchmarkSplit() throws IOException {
+    List<String> contents = readMarkdownFiles(
+        Paths.get(System.getProperty("markdown.chunker.benchmark.location")));
+    assertFalse(contents.isEmpty());
+    long bytes = contents.stream()
+        .mapToLong(content -> content.getBytes(StandardCharsets.UTF_8).length)
+        .sum();
+
+    // as expensive as the estimate of the openai token counter, i.e. a pass over the text
+    MarkdownChunker markdownChunker = new MarkdownChunker(
+        text -> (int) text.codePoints().filter(c -> !Character.isWhitespace(c)).count() / 4 + 1,
+        new MarkdownProcessorChunkConfig());
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      split(markdownChunker, contents);
+    }
+
+    long chunks = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      chunks += split(markdownChunker, contents);
+    }
+    double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+    System.out.printf("Split %d files (%d bytes) into %d chunks: %.1f files/s, %.2f MB/s%n",
+        contents.size(), bytes, chunks / MEASURED_ROUNDS,
+        contents.size() * MEASURED_ROUNDS / seconds,
+        bytes * MEASURED_ROUNDS / seconds / 1024 / 1024);
+  }
+
+  private long split(MarkdownChunker markdownChunker, List<String> contents) {
+    long chunks = 0;
+    for (String content : contents) {
+      chunks += markdownChunker.split(content).size();
+    }
+    return chunks;
+  }
+
+  private List<String> readMarkdownFiles(Path location) throws IOException {
+    try (Stream<Path> paths = Files.walk(location)) {
+      return paths.filter(path -> path.toString().endsWith(".md"))
+          .map(path -> {
+            try {
+              return Files.readString(path);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          })
+          .collect(Collectors.toList());
+    }
+  }
+}
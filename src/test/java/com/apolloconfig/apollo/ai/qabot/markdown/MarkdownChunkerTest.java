@@ -0,0 +1,155 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.apolloconfig.apollo.ai.qabot.api.TokenCounter;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorChunkConfig;
+import com.apolloconfig.apollo.ai.qabot.config.OpenAiTokenizerConfig;
+import com.apolloconfig.apollo.ai.qabot.openai.OpenAiTokenCounter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.DefaultResourceLoader;
+
+class MarkdownChunkerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private MarkdownProcessorChunkConfig chunkConfig;
+  private MarkdownChunker markdownChunker;
+
+  @BeforeEach
+  void setUp() {
+    chunkConfig = new MarkdownProcessorChunkConfig();
+    markdownChunker = new MarkdownChunker(String::length, chunkConfig);
+  }
+
+  @Test
+  void testSplitBySections() {
+    List<String> chunks = markdownChunker.split(
+        "# some title\nsome content\n# another title\nanother content");
+
+    assertEquals(Lists.newArrayList("some title\nsome content\n",
+        "another title\nanother content\n"), chunks);
+  }
+
+  @Test
+  void testMergeHeadingsWithoutContent() {
+    List<String> chunks = markdownChunker.split(
+        "# some title\n## another title\nsome content\n# trailing title");
+
+    assertEquals(Lists.newArrayList("some title\nanother title\nsome content\ntrailing title\n"),
+        chunks);
+  }
+
+  @Test
+  void testSplitOversizedSectionByBlocks() {
+    chunkConfig.setMaxTokens(5);
+    markdownChunker = new MarkdownChunker(text -> text.split("\\s+").length, chunkConfig);
+
+    List<String> chunks = markdownChunker.split(
+        "# title\n\none two three\n\nfour five six\n\nseven");
+
+    assertEquals(Lists.newArrayList("title\none two three\n", "title\nfour five six\nseven\n"),
+        chunks);
+  }
+
+  @Test
+  void testSplitOversizedCodeBlockByLines() {
+    chunkConfig.setMaxChars(60);
+    StringBuilder markdown = new StringBuilder("# title\n\n```java\n");
+    for (int i = 0; i < 10; i++) {
+      markdown.append("someStatement(").append(i).append(");\n");
+    }
+    markdown.append("```\n");
+
+    List<String> chunks = markdownChunker.split(markdown.toString());
+
+    assertTrue(chunks.size() > 1);
+    StringBuilder code = new StringBuilder();
+    for (String chunk : chunks) {
+      assertTrue(chunk.length() <= 60);
+      assertTrue(chunk.startsWith("title\n```java\n"));
+      assertTrue(chunk.endsWith("```\n"));
+      code.append(chunk, "title\n```java\n".length(), chunk.length() - "```\n".length());
+    }
+    assertEquals(markdown.substring("# title\n\n```java\n".length(),
+        markdown.length() - "```\n".length()), code.toString());
+  }
+
+  @Test
+  void testCutLongLine() {
+    chunkConfig.setMaxChars(10);
+    String line = Strings.repeat("a", 35);
+
+    List<String> chunks = markdownChunker.split("# t\n\n" + line);
+
+    StringBuilder content = new StringBuilder();
+    for (String chunk : chunks) {
+      assertTrue(chunk.length() <= 10);
+      assertTrue(chunk.startsWith("t\n"));
+      content.append(chunk.substring(2));
+    }
+    assertEquals(line + "\n", content.toString());
+  }
+
+  @Test
+  void testCutCjkLineWithinMaxBytes() throws Exception {
+    // the vocabulary merges up to 4 CJK chars into a token, so 1200 chars are within the max chars
+    // and the max tokens, but not within the max bytes
+    byte[] cjkBytes = "中".getBytes(StandardCharsets.UTF_8);
+    StringBuilder tiktoken = new StringBuilder();
+    for (int i = 0; i < cjkBytes.length; i++) {
+      appendToken(tiktoken, new byte[]{cjkBytes[i]}, i);
+    }
+    appendToken(tiktoken, Arrays.copyOf(cjkBytes, 2), 3);
+    appendToken(tiktoken, "中".getBytes(StandardCharsets.UTF_8), 4);
+    appendToken(tiktoken, "中中".getBytes(StandardCharsets.UTF_8), 5);
+    appendToken(tiktoken, "中中中中".getBytes(StandardCharsets.UTF_8), 6);
+    OpenAiTokenizerConfig tokenizerConfig = new OpenAiTokenizerConfig();
+    tokenizerConfig.setVocabulary(Files.writeString(tempDir.resolve("cl100k_base.tiktoken"),
+        tiktoken).toUri().toString());
+    TokenCounter tokenCounter = new OpenAiTokenCounter(tokenizerConfig,
+        new DefaultResourceLoader());
+    String line = Strings.repeat("中", 1200);
+    assertEquals(300, tokenCounter.countTokens(line));
+    markdownChunker = new MarkdownChunker(tokenCounter, chunkConfig);
+
+    List<String> chunks = markdownChunker.split("# t\n\n" + line);
+
+    assertEquals(2, chunks.size());
+    StringBuilder content = new StringBuilder();
+    for (String chunk : chunks) {
+      assertTrue(chunk.getBytes(StandardCharsets.UTF_8).length <= 3000);
+      assertTrue(chunk.startsWith("t\n"));
+      content.append(chunk.substring(2));
+    }
+    assertEquals(line + "\n", content.toString());
+  }
+
+  @Test
+  void testOverlapSplitSection() {
+    chunkConfig.setMaxChars(30);
+    chunkConfig.setOverlapChars(12);
+
+    List<String> chunks = markdownChunker.split("# t\n\nsome first paragraph\n\nanother one");
+
+    assertEquals(Lists.newArrayList("t\nsome first paragraph\n", "t\nparagraph\nanother one\n"),
+        chunks);
+  }
+
+  private void appendToken(StringBuilder tiktoken, byte[] token, int rank) {
+    tiktoken.append(Base64.getEncoder().encodeToString(token)).append(' ').append(rank)
+        .append('\n');
+  }
+}
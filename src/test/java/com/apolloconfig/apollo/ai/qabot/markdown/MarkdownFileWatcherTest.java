@@ -0,0 +1,73 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+class MarkdownFileWatcherTest {
+
+  @TempDir
+  Path location;
+
+  @Mock
+  private MarkdownProcessor markdownProcessor;
+
+  private MarkdownFileWatcher markdownFileWatcher;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    MarkdownFilesConfig markdownFilesConfig = new MarkdownFilesConfig();
+    markdownFilesConfig.setLocation(location.toString());
+    markdownFilesConfig.setWatchDebounce(500);
+    markdownFilesConfig.setWatchMaxDelay(10000);
+    markdownFileWatcher = new MarkdownFileWatcher(markdownProcessor, markdownFilesConfig);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    markdownFileWatcher.stop();
+  }
+
+  @Test
+  void testChangedFilesAreProcessedTogether() throws Exception {
+    Path someFile = Files.writeString(location.resolve("someFile.md"), "some content");
+    Path removedFile = Files.writeString(location.resolve("removedFile.md"), "removed content");
+    Files.createDirectories(location.resolve(".git"));
+    when(markdownProcessor.processFilesAsync(anyList(), anyList())).thenReturn(
+        Mono.just(new MarkdownProcessingResult(Collections.emptyList(), true)));
+    markdownFileWatcher.start();
+
+    Files.writeString(someFile, "some changed content");
+    Files.delete(removedFile);
+    Path newDirectory = Files.createDirectories(location.resolve("newDirectory"));
+    Path newFile = Files.writeString(newDirectory.resolve("newFile.md"), "new content");
+    Files.writeString(location.resolve("notMarkdown.txt"), "not markdown");
+    Files.writeString(location.resolve(".git").resolve("ignored.md"), "ignored content");
+
+    ArgumentCaptor<List<Path>> changedFiles = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<List<Path>> removedFiles = ArgumentCaptor.forClass(List.class);
+    verify(markdownProcessor, timeout(20000)).processFilesAsync(changedFiles.capture(),
+        removedFiles.capture());
+    assertEquals(Set.of(someFile, newFile), Set.copyOf(changedFiles.getValue()));
+    assertEquals(List.of(removedFile), removedFiles.getValue());
+  }
+}
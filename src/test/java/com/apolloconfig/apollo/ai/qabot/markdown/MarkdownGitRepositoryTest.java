@@ -0,0 +1,88 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownGitRepository.ChangedFiles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MarkdownGitRepositoryTest {
+
+  @TempDir
+  Path repository;
+
+  private Path docs;
+
+  private MarkdownGitRepository gitRepository;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    git("init", "-q");
+    docs = Files.createDirectories(repository.resolve("docs"));
+    gitRepository = new MarkdownGitRepository(docs.toString());
+  }
+
+  @Test
+  void testDiffSinceIndexedCommit() throws Exception {
+    Files.writeString(docs.resolve("someFile.md"), "some content");
+    Files.writeString(docs.resolve("anotherFile.md"), "another content\n".repeat(10));
+    Files.writeString(docs.resolve("removedFile.md"), "removed content");
+    Files.writeString(repository.resolve("outsideFile.md"), "outside content");
+    commit();
+
+    assertNull(gitRepository.indexedCommit());
+    String indexedCommit = gitRepository.head();
+    gitRepository.markIndexed(indexedCommit);
+    assertEquals(indexedCommit, gitRepository.indexedCommit());
+
+    Files.writeString(docs.resolve("someFile.md"), "some changed content");
+    Files.move(docs.resolve("anotherFile.md"), docs.resolve("renamedFile.md"));
+    Files.delete(docs.resolve("removedFile.md"));
+    Files.writeString(docs.resolve("newFile.md"), "new content");
+    Files.writeString(docs.resolve("notMarkdown.txt"), "not markdown");
+    Files.writeString(repository.resolve("outsideFile.md"), "outside changed content");
+    commit();
+
+    ChangedFiles changedFiles = gitRepository.diff(indexedCommit, gitRepository.head());
+
+    assertNotNull(changedFiles);
+    assertEquals(Set.of(docs.resolve("someFile.md"), docs.resolve("renamedFile.md"),
+        docs.resolve("newFile.md")), Set.copyOf(changedFiles.changedFiles()));
+    assertEquals(Set.of(docs.resolve("anotherFile.md"), docs.resolve("removedFile.md")),
+        Set.copyOf(changedFiles.removedFiles()));
+  }
+
+  @Test
+  void testDiffWithUnknownCommit() throws Exception {
+    Files.writeString(docs.resolve("someFile.md"), "some content");
+    commit();
+
+    assertNull(gitRepository.diff("0123456789abcdef0123456789abcdef01234567",
+        gitRepository.head()));
+  }
+
+  private void commit() throws Exception {
+    git("add", "-A");
+    git("-c", "user.name=someUser", "-c", "user.email=someUser@example.com", "commit", "-q",
+        "-m", "some commit");
+  }
+
+  private void git(String... args) throws Exception {
+    List<String> command = new ArrayList<>(List.of("git"));
+    command.addAll(List.of(args));
+    Process process = new ProcessBuilder(command).directory(repository.toFile())
+        .redirectErrorStream(true).start();
+    process.getInputStream().readAllBytes();
+    process.waitFor(1, TimeUnit.MINUTES);
+    assertEquals(0, process.exitValue());
+  }
+}
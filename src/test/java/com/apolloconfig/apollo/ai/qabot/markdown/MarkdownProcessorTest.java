@@ -1,11 +1,19 @@
 package com.apolloconfig.apollo.ai.qabot.markdown;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.Mockito.doAnswer;
-import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -13,21 +21,34 @@ import static org.mockito.Mockito.when;
 import com.apolloconfig.apollo.ai.qabot.api.AiService;
 import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
 import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorChunkConfig;
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorPipelineConfig;
 import com.apolloconfig.apollo.ai.qabot.config.MarkdownProcessorRetryConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownProcessor.MarkdownFile;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.theokanning.openai.embedding.Embedding;
 import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationEventPublisher;
+import reactor.core.scheduler.Schedulers;
 import retrofit2.HttpException;
 
 @ExtendWith(MockitoExtension.class)
@@ -41,6 +62,10 @@ class MarkdownProcessorTest {
   private AiService aiService;
   @Mock
   private VectorDBService vectorDBService;
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  private MarkdownProcessorPipelineConfig pipelineConfig;
 
   private MarkdownProcessor markdownProcessor;
 
@@ -53,8 +78,10 @@ class MarkdownProcessorTest {
     when(markdownProcessorRetryConfig.getMaxDelay()).thenReturn(5l);
     when(markdownProcessorRetryConfig.getMaxElapsedTime()).thenReturn(10l);
 
-    markdownProcessor = Mockito.spy(new MarkdownProcessor(markDownFilesConfig, markdownProcessorRetryConfig,
-        aiService, vectorDBService));
+    pipelineConfig = new MarkdownProcessorPipelineConfig();
+    markdownProcessor = new MarkdownProcessor(markDownFilesConfig, markdownProcessorRetryConfig,
+        pipelineConfig, new MarkdownProcessorChunkConfig(), aiService, String::length,
+        vectorDBService, eventPublisher, Schedulers.boundedElastic());
 
     parentFolder = Paths.get("test-" + System.currentTimeMillis());
     Files.createDirectory(parentFolder);
@@ -70,67 +97,259 @@ class MarkdownProcessorTest {
 
   @Test
   void testProcessFile() throws Exception {
-    String someFile = "someFile.md";
-    String anotherFile = "anotherFile.md";
-
-    String location = parentFolder.toAbsolutePath().toString();
-    Path someFilePath = Files.createFile(parentFolder.resolve(someFile)).toAbsolutePath();
-    Path anotherFilePath = Files.createFile(parentFolder.resolve(anotherFile)).toAbsolutePath();
+    Path someFilePath = createFile("someFile.md", "# some title\nsome content");
+    Path anotherFilePath = createFile("anotherFile.md", "# another title\nanother content");
 
-    doReturn(true).when(markdownProcessor).processFile(someFilePath);
-    doReturn(true).when(markdownProcessor).processFile(anotherFilePath);
+    when(aiService.getEmbeddings(anyList())).thenAnswer(
+        invocation -> embeddingsOf(invocation.getArgument(0)));
 
-    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location);
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
 
     assertEquals(2, updatedFiles.size());
     assertTrue(updatedFiles.contains(someFilePath.toString()));
     assertTrue(updatedFiles.contains(anotherFilePath.toString()));
-    verify(markdownProcessor, times(1)).processFile(someFilePath);
+    // the chunks of both files are embedded in one request
+    verify(aiService, times(1)).getEmbeddings(anyList());
+    List<MarkdownChunk> someChunks = Lists.newArrayList(
+        MarkdownChunk.of("some title\nsome content\n"));
+    verify(vectorDBService, times(1)).persistChunkEmbeddings(endsWith("someFile"),
+        eq(someChunks), eq(someChunks), anyList());
+    verify(vectorDBService, times(1)).persistFile(endsWith("someFile"), anyString());
+    // once for the writes left over by a previous run, once at the end of this run
+    verify(vectorDBService, times(2)).flush();
+    verify(eventPublisher, times(2)).publishEvent(any(MarkdownFileIndexedEvent.class));
+  }
+
+  @Test
+  void testProcessOneRunAtATime() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+    CountDownLatch embedding = new CountDownLatch(1);
+    CountDownLatch embedded = new CountDownLatch(1);
+
+    when(aiService.getEmbeddings(anyList())).thenAnswer(invocation -> {
+      embedding.countDown();
+      assertTrue(embedded.await(10, TimeUnit.SECONDS));
+      return embeddingsOf(invocation.getArgument(0));
+    });
+
+    CompletableFuture<List<String>> someRun = markdownProcessor.loadAndProcessFilesAsync(
+        location()).toFuture();
+    assertTrue(embedding.await(10, TimeUnit.SECONDS));
+    CompletableFuture<List<String>> anotherRun = markdownProcessor.loadAndProcessFilesAsync(
+        location()).toFuture();
+    Thread.sleep(100);
+
+    // the other run doesn't even flush the leftover writes before the first one is done
+    assertFalse(anotherRun.isDone());
+    verify(vectorDBService, times(1)).flush();
+
+    embedded.countDown();
+
+    assertEquals(List.of(someFilePath.toString()), someRun.get(10, TimeUnit.SECONDS));
+    assertEquals(List.of(someFilePath.toString()), anotherRun.get(10, TimeUnit.SECONDS));
+    verify(vectorDBService, times(4)).flush();
+  }
+
+  @Test
+  void testProcessFileWithFlushFailure() throws Exception {
+    createFile("someFile.md", "some content");
+
+    when(aiService.getEmbeddings(anyList())).thenAnswer(
+        invocation -> embeddingsOf(invocation.getArgument(0)));
+    doNothing().doThrow(new IllegalStateException("some error")).when(vectorDBService).flush();
+
+    assertThrows(IllegalStateException.class,
+        () -> markdownProcessor.loadAndProcessFiles(location()));
+
+    verify(vectorDBService, times(1)).persistFile(endsWith("someFile"), anyString());
+    verify(eventPublisher, never()).publishEvent(any());
+  }
+
+  @Test
+  void testProcessFileOnlyEmbedsNewChunks() throws Exception {
+    Path someFilePath = createFile("someFile.md",
+        "# some title\nsome content\n# another title\nanother content");
+    List<MarkdownChunk> chunks = markdownProcessor.chunk(markdownProcessor.readFile(someFilePath))
+        .chunks();
+    MarkdownChunk someChunk = chunks.get(0);
+    MarkdownChunk anotherChunk = chunks.get(1);
+
+    when(vectorDBService.queryChunkHashValues(endsWith("someFile"))).thenReturn(
+        Sets.newHashSet(someChunk.hashValue()));
+    when(aiService.getEmbeddings(anyList())).thenAnswer(
+        invocation -> embeddingsOf(invocation.getArgument(0)));
+
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
+
+    assertEquals(1, updatedFiles.size());
+    verify(aiService, times(1)).getEmbeddings(Lists.newArrayList(anotherChunk.content()));
+    verify(vectorDBService, times(1)).persistChunkEmbeddings(endsWith("someFile"),
+        eq(Lists.newArrayList(someChunk, anotherChunk)), eq(Lists.newArrayList(anotherChunk)),
+        anyList());
+  }
+
+  @Test
+  void testProcessUnchangedFile() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+    MarkdownFile someFile = markdownProcessor.readFile(someFilePath);
+
+    when(vectorDBService.queryAllFileHashValues()).thenReturn(
+        ImmutableMap.of(someFile.fileRoot(), someFile.hashValue()));
+
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
+
+    assertTrue(updatedFiles.isEmpty());
+    verify(vectorDBService, never()).queryFileHashValue(anyString());
+    verify(aiService, never()).getEmbeddings(anyList());
+    verify(vectorDBService, never()).persistFile(anyString(), anyString());
+  }
+
+  @Test
+  void testSweepOrphanedFiles() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+    MarkdownFile someFile = markdownProcessor.readFile(someFilePath);
+    String orphanedFileRoot = "/en/orphanedFile";
+
+    when(vectorDBService.queryAllFileHashValues()).thenReturn(ImmutableMap.of(
+        someFile.fileRoot(), someFile.hashValue(), orphanedFileRoot, "someHashValue"));
+    when(vectorDBService.removeFiles(Set.of(orphanedFileRoot))).thenReturn(3);
+
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
+
+    assertEquals(Lists.newArrayList(orphanedFileRoot), updatedFiles);
+    verify(vectorDBService, times(1)).removeFiles(anyCollection());
+    verify(eventPublisher, times(1)).publishEvent(
+        new MarkdownFileIndexedEvent(orphanedFileRoot, Collections.emptyList()));
+  }
+
+  @Test
+  void testSweepOrphanedChunksWithoutHashValue() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+    MarkdownFile someFile = markdownProcessor.readFile(someFilePath);
+    String orphanedFileRoot = "/en/orphanedFile";
+
+    when(vectorDBService.queryAllFileHashValues()).thenReturn(
+        ImmutableMap.of(someFile.fileRoot(), someFile.hashValue()));
+    when(vectorDBService.queryAllChunkFileRoots()).thenReturn(
+        Sets.newHashSet(someFile.fileRoot(), orphanedFileRoot));
+    when(vectorDBService.removeFiles(Set.of(orphanedFileRoot))).thenReturn(3);
+
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
+
+    assertEquals(Lists.newArrayList(orphanedFileRoot), updatedFiles);
+    verify(vectorDBService, times(1)).removeFiles(anyCollection());
+  }
+
+  @Test
+  void testSkipSweepWithoutFiles() throws Exception {
+    when(vectorDBService.queryAllFileHashValues()).thenReturn(
+        ImmutableMap.of("/en/someFile", "someHashValue"));
+
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
+
+    assertTrue(updatedFiles.isEmpty());
+    verify(vectorDBService, never()).removeFiles(anyCollection());
+  }
+
+  @Test
+  void testProcessChangedFiles() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+    createFile("anotherFile.md", "another content");
+    Path removedFilePath = parentFolder.resolve("removedFile.md").toAbsolutePath();
+
+    when(aiService.getEmbeddings(anyList())).thenAnswer(
+        invocation -> embeddingsOf(invocation.getArgument(0)));
+
+    MarkdownProcessingResult result = markdownProcessor.processFilesAsync(
+        List.of(someFilePath), List.of(removedFilePath)).block();
+
+    assertTrue(result.complete());
+    assertEquals(2, result.updatedFiles().size());
+    assertTrue(result.updatedFiles().contains(removedFilePath.toString()));
+    verify(vectorDBService, never()).queryAllFileHashValues();
+    verify(vectorDBService, times(1)).persistFile(endsWith("someFile"), anyString());
+    verify(vectorDBService, never()).persistFile(endsWith("anotherFile"), anyString());
+    verify(vectorDBService, times(1)).removeFiles(argThat(
+        fileRoots -> fileRoots.size() == 1 && fileRoots.iterator().next().endsWith("removedFile")));
+  }
+
+  @Test
+  void testProcessChangedFilesWithFailure() throws Exception {
+    Path someFilePath = createFile("someFile.md", "some content");
+
+    HttpException mockException = mock(HttpException.class);
+    when(mockException.code()).thenReturn(500);
+    when(aiService.getEmbeddings(anyList())).thenThrow(mockException);
+
+    MarkdownProcessingResult result = markdownProcessor.processFilesAsync(
+        List.of(someFilePath), List.of()).block();
+
+    assertFalse(result.complete());
+    assertTrue(result.updatedFiles().isEmpty());
   }
 
   @Test
   void testProcessFileWithRetry() throws Exception {
-    String someFile = "someFile.md";
-    String location = parentFolder.toAbsolutePath().toString();
-    Path someFilePath = Files.createFile(parentFolder.resolve(someFile)).toAbsolutePath();
+    Path someFilePath = createFile("someFile.md", "some content");
 
     HttpException mockException = mock(HttpException.class);
     when(mockException.code()).thenReturn(429);
 
-    doAnswer(new Answer<Boolean>() {
+    when(aiService.getEmbeddings(anyList())).thenAnswer(new Answer<List<Embedding>>() {
       private int counter = 0;
 
       @Override
-      public Boolean answer(InvocationOnMock invocationOnMock) throws Throwable {
+      public List<Embedding> answer(InvocationOnMock invocationOnMock) throws Throwable {
         if (counter < 2) {
           counter++;
           throw mockException;
         }
-        return Boolean.TRUE;
+        return embeddingsOf(invocationOnMock.getArgument(0));
       }
-    }).when(markdownProcessor).processFile(someFilePath);
+    });
 
-    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location);
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
 
     assertEquals(1, updatedFiles.size());
     assertTrue(updatedFiles.contains(someFilePath.toString()));
-    verify(markdownProcessor, times(3)).processFile(someFilePath);
+    verify(aiService, times(3)).getEmbeddings(anyList());
   }
 
   @Test
   void testProcessFileWithException() throws Exception {
-    String someFile = "someFile.md";
-    String location = parentFolder.toAbsolutePath().toString();
-    Path someFilePath = Files.createFile(parentFolder.resolve(someFile)).toAbsolutePath();
+    createFile("someFile.md", "some content");
+    Path anotherFilePath = createFile("anotherFile.md", "another content");
 
     HttpException mockException = mock(HttpException.class);
     when(mockException.code()).thenReturn(500);
 
-    doThrow(mockException).when(markdownProcessor).processFile(someFilePath);
+    // one file per request, so only the failed request's file is dropped
+    pipelineConfig.setEmbedBatchMaxInputs(1);
+    when(aiService.getEmbeddings(Lists.newArrayList("some content\n"))).thenThrow(mockException);
+    when(aiService.getEmbeddings(Lists.newArrayList("another content\n"))).thenAnswer(
+        invocation -> embeddingsOf(invocation.getArgument(0)));
 
-    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location);
+    List<String> updatedFiles = markdownProcessor.loadAndProcessFiles(location());
 
-    assertTrue(updatedFiles.isEmpty());
-    verify(markdownProcessor, times(1)).processFile(someFilePath);
+    assertEquals(Lists.newArrayList(anotherFilePath.toString()), updatedFiles);
+    verify(vectorDBService, never()).persistFile(endsWith("someFile"), anyString());
+  }
+
+  private Path createFile(String fileName, String content) throws Exception {
+    return Files.writeString(parentFolder.resolve(fileName), content).toAbsolutePath();
+  }
+
+  private List<Embedding> embeddingsOf(List<String> chunks) {
+    List<Embedding> embeddings = Lists.newArrayList();
+    for (int i = 0; i < chunks.size(); i++) {
+      Embedding embedding = new Embedding();
+      embedding.setIndex(i);
+      embeddings.add(embedding);
+    }
+    return embeddings;
+  }
+
+  private String location() {
+    return parentFolder.toAbsolutePath().toString();
   }
-}
\ No newline at end of file
+}
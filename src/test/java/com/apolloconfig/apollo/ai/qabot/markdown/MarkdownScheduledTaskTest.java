@@ -0,0 +1,103 @@
+package com.apolloconfig.apollo.ai.qabot.markdown;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.apolloconfig.apollo.ai.qabot.config.MarkdownFilesConfig;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+class MarkdownScheduledTaskTest {
+
+  @TempDir
+  Path repository;
+
+  @Mock
+  private MarkdownProcessor markdownProcessor;
+
+  private MarkdownGitRepository gitRepository;
+
+  private MarkdownScheduledTask scheduledTask;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    git("init", "-q");
+    commit("someFile.md", "some content");
+
+    MarkdownFilesConfig markdownFilesConfig = new MarkdownFilesConfig();
+    markdownFilesConfig.setLocation(repository.toString());
+    gitRepository = new MarkdownGitRepository(repository.toString());
+    gitRepository.markIndexed(gitRepository.head());
+    scheduledTask = new MarkdownScheduledTask(markdownProcessor, markdownFilesConfig);
+  }
+
+  @Test
+  void testSkipIndexedCommit() {
+    scheduledTask.update();
+
+    verify(markdownProcessor, never()).isIndexEmptyAsync();
+    verify(markdownProcessor, never()).processAllFilesAsync(anyString());
+    verify(markdownProcessor, never()).processFilesAsync(any(), any());
+  }
+
+  @Test
+  void testProcessChangedFiles() throws Exception {
+    commit("anotherFile.md", "another content");
+    String head = gitRepository.head();
+    when(markdownProcessor.isIndexEmptyAsync()).thenReturn(Mono.just(false));
+    when(markdownProcessor.processFilesAsync(
+        List.of(repository.resolve("anotherFile.md")), List.of())).thenReturn(
+        Mono.just(new MarkdownProcessingResult(List.of("anotherFile.md"), true)));
+
+    scheduledTask.update();
+
+    verify(markdownProcessor, never()).processAllFilesAsync(anyString());
+    assertEquals(head, gitRepository.indexedCommit());
+  }
+
+  @Test
+  void testProcessAllFilesIntoEmptyIndex() throws Exception {
+    commit("anotherFile.md", "another content");
+    String head = gitRepository.head();
+    when(markdownProcessor.isIndexEmptyAsync()).thenReturn(Mono.just(true));
+    when(markdownProcessor.processAllFilesAsync(repository.toString())).thenReturn(
+        Mono.just(new MarkdownProcessingResult(List.of("someFile.md"), true)));
+
+    scheduledTask.update();
+
+    verify(markdownProcessor, never()).processFilesAsync(any(), any());
+    assertEquals(head, gitRepository.indexedCommit());
+  }
+
+  private void commit(String file, String content) throws Exception {
+    Files.writeString(repository.resolve(file), content);
+    git("add", "-A");
+    git("-c", "user.name=someUser", "-c", "user.email=someUser@example.com", "commit", "-q",
+        "-m", "commit " + file);
+  }
+
+  private void git(String... args) throws Exception {
+    List<String> command = new ArrayList<>(List.of("git"));
+    command.addAll(List.of(args));
+    Process process = new ProcessBuilder(command).directory(repository.toFile())
+        .redirectErrorStream(true).start();
+    process.getInputStream().readAllBytes();
+    process.waitFor(1, TimeUnit.MINUTES);
+    assertEquals(0, process.exitValue());
+  }
+}
@@ -0,0 +1,26 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MilvusExpressionsTest {
+
+  @Test
+  void testIn() {
+    assertEquals("file_root in [\"/en/some\", \"/zh/another\"]",
+        MilvusExpressions.in("file_root", List.of("/en/some", "/zh/another")));
+  }
+
+  @Test
+  void testInEscapesQuotes() {
+    assertEquals("file_root in [\"/en/some\\\"'path\\\\\"]",
+        MilvusExpressions.in("file_root", "/en/some\"'path\\"));
+  }
+
+  @Test
+  void testInIds() {
+    assertEquals("chunk_id in [1, 2, 3]", MilvusExpressions.inIds("chunk_id", List.of(1L, 2L, 3L)));
+  }
+}
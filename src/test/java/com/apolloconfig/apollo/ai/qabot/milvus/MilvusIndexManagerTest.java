@@ -0,0 +1,148 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.apolloconfig.apollo.ai.qabot.config.MilvusConfig;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.DescribeIndexResponse;
+import io.milvus.grpc.IndexDescription;
+import io.milvus.grpc.KeyValuePair;
+import io.milvus.param.IndexType;
+import io.milvus.param.MetricType;
+import io.milvus.param.R;
+import io.milvus.param.RpcStatus;
+import io.milvus.param.collection.ReleaseCollectionParam;
+import io.milvus.param.index.CreateIndexParam;
+import io.milvus.param.index.DescribeIndexParam;
+import io.milvus.param.index.DropIndexParam;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MilvusIndexManagerTest {
+
+  private static final String SOME_COLLECTION = "someCollection";
+  private static final String SOME_FIELD = "some_field";
+
+  @Mock
+  private MilvusServiceClient milvusServiceClient;
+
+  private MilvusConfig.Index index;
+  private MilvusIndexManager milvusIndexManager;
+
+  @BeforeEach
+  void setUp() {
+    index = new MilvusConfig.Index();
+    index.setIndexType(IndexType.HNSW);
+    index.setMetricType(MetricType.IP);
+    index.setParams("{\"M\": 16, \"efConstruction\": 200}");
+    milvusIndexManager = new MilvusIndexManager(milvusServiceClient);
+  }
+
+  @Test
+  void testCreateMissingIndex() {
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.failed(R.Status.IndexNotExist, "index not found"));
+    when(milvusServiceClient.createIndex(any(CreateIndexParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+
+    milvusIndexManager.ensureVectorIndex(SOME_COLLECTION, SOME_FIELD, index);
+
+    ArgumentCaptor<CreateIndexParam> createIndexParam = ArgumentCaptor.forClass(
+        CreateIndexParam.class);
+    verify(milvusServiceClient).createIndex(createIndexParam.capture());
+    assertEquals(IndexType.HNSW, createIndexParam.getValue().getIndexType());
+    assertEquals(MetricType.IP.name(),
+        createIndexParam.getValue().getExtraParam().get("metric_type"));
+    verify(milvusServiceClient, never()).dropIndex(any(DropIndexParam.class));
+  }
+
+  @Test
+  void testKeepMatchingIndex() {
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.success(describeIndexResponse("HNSW", "IP",
+            "{\"efConstruction\":\"200\",\"M\":\"16\"}")));
+
+    milvusIndexManager.ensureVectorIndex(SOME_COLLECTION, SOME_FIELD, index);
+
+    verify(milvusServiceClient, never()).releaseCollection(any(ReleaseCollectionParam.class));
+    verify(milvusServiceClient, never()).dropIndex(any(DropIndexParam.class));
+    verify(milvusServiceClient, never()).createIndex(any(CreateIndexParam.class));
+  }
+
+  @Test
+  void testRebuildMismatchedIndex() {
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.success(describeIndexResponse("FLAT", "L2", "{}")));
+    when(milvusServiceClient.releaseCollection(any(ReleaseCollectionParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+    when(milvusServiceClient.dropIndex(any(DropIndexParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+    when(milvusServiceClient.createIndex(any(CreateIndexParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+
+    milvusIndexManager.ensureVectorIndex(SOME_COLLECTION, SOME_FIELD, index);
+
+    ArgumentCaptor<DropIndexParam> dropIndexParam = ArgumentCaptor.forClass(DropIndexParam.class);
+    InOrder inOrder = inOrder(milvusServiceClient);
+    inOrder.verify(milvusServiceClient).releaseCollection(any(ReleaseCollectionParam.class));
+    inOrder.verify(milvusServiceClient).dropIndex(dropIndexParam.capture());
+    inOrder.verify(milvusServiceClient).createIndex(any(CreateIndexParam.class));
+    assertEquals("someIndex", dropIndexParam.getValue().getIndexName());
+  }
+
+  @Test
+  void testCreateMissingScalarIndex() {
+    // only the vector field is indexed
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.success(describeIndexResponse("FLAT", "L2", "{}")));
+    when(milvusServiceClient.releaseCollection(any(ReleaseCollectionParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+    when(milvusServiceClient.createIndex(any(CreateIndexParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+
+    milvusIndexManager.ensureScalarIndex(SOME_COLLECTION, "another_field", IndexType.TRIE);
+
+    ArgumentCaptor<CreateIndexParam> createIndexParam = ArgumentCaptor.forClass(
+        CreateIndexParam.class);
+    verify(milvusServiceClient).createIndex(createIndexParam.capture());
+    assertEquals("another_field", createIndexParam.getValue().getFieldName());
+    assertEquals(IndexType.TRIE, createIndexParam.getValue().getIndexType());
+  }
+
+  @Test
+  void testKeepExistingScalarIndex() {
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.success(describeIndexResponse("Trie", "", "{}")));
+
+    milvusIndexManager.ensureScalarIndex(SOME_COLLECTION, SOME_FIELD, IndexType.TRIE);
+
+    verify(milvusServiceClient, never()).createIndex(any(CreateIndexParam.class));
+  }
+
+  private DescribeIndexResponse describeIndexResponse(String indexType, String metricType,
+      String params) {
+    return DescribeIndexResponse.newBuilder()
+        .addIndexDescriptions(IndexDescription.newBuilder()
+            .setIndexName("someIndex")
+            .setFieldName(SOME_FIELD)
+            .addParams(keyValuePair("index_type", indexType))
+            .addParams(keyValuePair("metric_type", metricType))
+            .addParams(keyValuePair("params", params)))
+        .build();
+  }
+
+  private KeyValuePair keyValuePair(String key, String value) {
+    return KeyValuePair.newBuilder().setKey(key).setValue(value).build();
+  }
+}
@@ -0,0 +1,196 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.apolloconfig.apollo.ai.qabot.config.MilvusConfig;
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.common.clientenum.ConsistencyLevelEnum;
+import io.milvus.grpc.DataType;
+import io.milvus.grpc.DescribeCollectionResponse;
+import io.milvus.grpc.DescribeIndexResponse;
+import io.milvus.grpc.FieldData;
+import io.milvus.grpc.IndexDescription;
+import io.milvus.grpc.KeyValuePair;
+import io.milvus.grpc.LongArray;
+import io.milvus.grpc.QueryResults;
+import io.milvus.grpc.ScalarField;
+import io.milvus.grpc.SearchResults;
+import io.milvus.grpc.StringArray;
+import io.milvus.param.R;
+import io.milvus.param.RpcStatus;
+import io.milvus.param.collection.DescribeCollectionParam;
+import io.milvus.param.collection.HasCollectionParam;
+import io.milvus.param.collection.LoadCollectionParam;
+import io.milvus.param.dml.QueryParam;
+import io.milvus.param.dml.SearchParam;
+import io.milvus.param.index.DescribeIndexParam;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.scheduler.Schedulers;
+
+@ExtendWith(MockitoExtension.class)
+class MilvusServiceTest {
+
+  private static final List<List<Float>> SOME_VECTORS = List.of(List.of(0.1f, 0.2f));
+
+  @Mock
+  private MilvusServiceClient milvusServiceClient;
+
+  private MilvusConfig milvusConfig;
+
+  @BeforeEach
+  void setUp() {
+    milvusConfig = new MilvusConfig();
+    milvusConfig.setCollection("someCollection");
+    milvusConfig.setFileCollection("someFileCollection");
+
+    // both collections exist with the configured indexes and are loaded on startup
+    when(milvusServiceClient.hasCollection(any(HasCollectionParam.class))).thenReturn(
+        R.success(true));
+    when(milvusServiceClient.describeIndex(any(DescribeIndexParam.class))).thenReturn(
+        R.success(DescribeIndexResponse.newBuilder()
+            .addIndexDescriptions(indexDescription("chunk_embedding", "FLAT", "L2"))
+            .addIndexDescriptions(indexDescription("file_root", "Trie", ""))
+            .build()));
+    when(milvusServiceClient.describeCollection(any(DescribeCollectionParam.class))).thenReturn(
+        R.success(DescribeCollectionResponse.getDefaultInstance()));
+    when(milvusServiceClient.loadCollection(any(LoadCollectionParam.class))).thenReturn(
+        R.success(new RpcStatus(RpcStatus.SUCCESS_MSG)));
+  }
+
+  @Test
+  void testSearchWithDefaultSearchOptions() {
+    when(milvusServiceClient.search(any(SearchParam.class))).thenReturn(
+        R.success(SearchResults.getDefaultInstance()));
+
+    assertTrue(createMilvusService().search(SOME_VECTORS, 3).isEmpty());
+
+    SearchParam searchParam = captureSearchParam();
+    assertEquals(ConsistencyLevelEnum.BOUNDED, searchParam.getConsistencyLevel());
+    assertEquals("{}", searchParam.getParams());
+  }
+
+  @Test
+  void testSearchWithConfiguredSearchOptions() {
+    milvusConfig.getSearch().setConsistencyLevel(ConsistencyLevelEnum.EVENTUALLY);
+    milvusConfig.getSearch().setParams("{\"ef\": 64}");
+    when(milvusServiceClient.search(any(SearchParam.class))).thenReturn(
+        R.success(SearchResults.getDefaultInstance()));
+
+    createMilvusService().search(SOME_VECTORS, 3);
+
+    SearchParam searchParam = captureSearchParam();
+    assertEquals(ConsistencyLevelEnum.EVENTUALLY, searchParam.getConsistencyLevel());
+    assertEquals("{\"ef\": 64}", searchParam.getParams());
+  }
+
+  @Test
+  void testQueryWithDefaultIngestionConsistencyLevel() {
+    when(milvusServiceClient.query(any(QueryParam.class))).thenReturn(
+        R.success(hashValueResults("someHashValue")));
+
+    assertEquals("someHashValue", createMilvusService().queryFileHashValue("/en/someFile"));
+
+    ArgumentCaptor<QueryParam> queryParam = ArgumentCaptor.forClass(QueryParam.class);
+    verify(milvusServiceClient).query(queryParam.capture());
+    assertEquals(ConsistencyLevelEnum.STRONG, queryParam.getValue().getConsistencyLevel());
+  }
+
+  @Test
+  void testQueryWithConfiguredIngestionConsistencyLevel() {
+    milvusConfig.getIngestion().setConsistencyLevel(ConsistencyLevelEnum.BOUNDED);
+    when(milvusServiceClient.query(any(QueryParam.class))).thenReturn(
+        R.success(hashValueResults("someHashValue")));
+
+    createMilvusService().queryFileHashValue("/en/someFile");
+
+    ArgumentCaptor<QueryParam> queryParam = ArgumentCaptor.forClass(QueryParam.class);
+    verify(milvusServiceClient).query(queryParam.capture());
+    assertEquals(ConsistencyLevelEnum.BOUNDED, queryParam.getValue().getConsistencyLevel());
+  }
+
+  @Test
+  void testHasFilesQueriesOneFile() {
+    when(milvusServiceClient.query(any(QueryParam.class))).thenReturn(
+        R.success(idResults("file_id", 1L)));
+
+    assertTrue(createMilvusService().hasFiles());
+
+    ArgumentCaptor<QueryParam> queryParam = ArgumentCaptor.forClass(QueryParam.class);
+    verify(milvusServiceClient).query(queryParam.capture());
+    assertEquals(1L, queryParam.getValue().getLimit());
+  }
+
+  @Test
+  void testRemoveFilesWithOneQueryPerCollection() {
+    when(milvusServiceClient.query(any(QueryParam.class))).thenAnswer(invocation -> {
+      QueryParam queryParam = invocation.getArgument(0);
+      return R.success(idResults(queryParam.getOutFields().get(0), 1L, 2L));
+    });
+
+    int removedRows = createMilvusService().removeFiles(List.of("/en/some", "/en/another"));
+
+    assertEquals(4, removedRows);
+    ArgumentCaptor<QueryParam> queryParam = ArgumentCaptor.forClass(QueryParam.class);
+    verify(milvusServiceClient, times(2)).query(queryParam.capture());
+    assertEquals(List.of("someCollection", "someFileCollection"), queryParam.getAllValues()
+        .stream().map(QueryParam::getCollectionName).collect(Collectors.toList()));
+    assertEquals("file_root in [\"/en/some\", \"/en/another\"] and chunk_id > -1",
+        queryParam.getAllValues().get(0).getExpr());
+  }
+
+  private MilvusService createMilvusService() {
+    return new MilvusService(milvusServiceClient, milvusConfig, Schedulers.immediate());
+  }
+
+  private SearchParam captureSearchParam() {
+    ArgumentCaptor<SearchParam> searchParam = ArgumentCaptor.forClass(SearchParam.class);
+    verify(milvusServiceClient).search(searchParam.capture());
+    return searchParam.getValue();
+  }
+
+  private IndexDescription indexDescription(String field, String indexType, String metricType) {
+    return IndexDescription.newBuilder()
+        .setIndexName(field + "_index")
+        .setFieldName(field)
+        .addParams(keyValuePair("index_type", indexType))
+        .addParams(keyValuePair("metric_type", metricType))
+        .addParams(keyValuePair("params", "{}"))
+        .build();
+  }
+
+  private KeyValuePair keyValuePair(String key, String value) {
+    return KeyValuePair.newBuilder().setKey(key).setValue(value).build();
+  }
+
+  private QueryResults idResults(String field, Long... ids) {
+    return QueryResults.newBuilder()
+        .addFieldsData(FieldData.newBuilder()
+            .setFieldName(field)
+            .setType(DataType.Int64)
+            .setScalars(ScalarField.newBuilder()
+                .setLongData(LongArray.newBuilder().addAllData(List.of(ids)))))
+        .build();
+  }
+
+  private QueryResults hashValueResults(String hashValue) {
+    return QueryResults.newBuilder()
+        .addFieldsData(FieldData.newBuilder()
+            .setFieldName("hash_value")
+            .setType(DataType.VarChar)
+            .setScalars(ScalarField.newBuilder()
+                .setStringData(StringArray.newBuilder().addData(hashValue))))
+        .build();
+  }
+}
@@ -0,0 +1,105 @@
+package com.apolloconfig.apollo.ai.qabot.milvus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.milvus.client.MilvusServiceClient;
+import io.milvus.grpc.FlushResponse;
+import io.milvus.grpc.MutationResult;
+import io.milvus.param.R;
+import io.milvus.param.collection.FlushParam;
+import io.milvus.param.dml.DeleteParam;
+import io.milvus.param.dml.InsertParam;
+import io.milvus.param.dml.InsertParam.Field;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MilvusWriteBufferTest {
+
+  private static final String SOME_COLLECTION = "someCollection";
+  private static final String ANOTHER_COLLECTION = "anotherCollection";
+
+  @Mock
+  private MilvusServiceClient milvusServiceClient;
+
+  private Map<String, String> primaryKeys;
+
+  @BeforeEach
+  void setUp() {
+    primaryKeys = new LinkedHashMap<>();
+    primaryKeys.put(SOME_COLLECTION, "some_id");
+    primaryKeys.put(ANOTHER_COLLECTION, "another_id");
+  }
+
+  @Test
+  void testWritesAreSentInBatchesAndFlushedOnce() {
+    when(milvusServiceClient.insert(any(InsertParam.class))).thenReturn(
+        R.success(MutationResult.getDefaultInstance()));
+    when(milvusServiceClient.delete(any(DeleteParam.class))).thenReturn(
+        R.success(MutationResult.getDefaultInstance()));
+    when(milvusServiceClient.flush(any(FlushParam.class))).thenReturn(
+        R.success(FlushResponse.getDefaultInstance()));
+    MilvusWriteBuffer writeBuffer = new MilvusWriteBuffer(milvusServiceClient, primaryKeys, 3,
+        100);
+
+    writeBuffer.insert(ANOTHER_COLLECTION, fields("someValue"));
+    writeBuffer.insert(SOME_COLLECTION, fields("anotherValue", "yetAnotherValue"));
+    writeBuffer.delete(SOME_COLLECTION, List.of(1L, 2L));
+    writeBuffer.insert(ANOTHER_COLLECTION, fields("lastValue"));
+
+    // the writes are sent each time the batch size is reached, but not flushed yet
+    verify(milvusServiceClient, times(3)).insert(any(InsertParam.class));
+    verify(milvusServiceClient, never()).flush(any(FlushParam.class));
+
+    writeBuffer.flush();
+
+    // the writes of the first collection are sent before the ones of the second collection
+    ArgumentCaptor<InsertParam> insertParams = ArgumentCaptor.forClass(InsertParam.class);
+    InOrder inOrder = inOrder(milvusServiceClient);
+    inOrder.verify(milvusServiceClient, times(2)).insert(insertParams.capture());
+    inOrder.verify(milvusServiceClient).delete(any(DeleteParam.class));
+    inOrder.verify(milvusServiceClient).insert(insertParams.capture());
+    inOrder.verify(milvusServiceClient).flush(any(FlushParam.class));
+
+    assertEquals(SOME_COLLECTION, insertParams.getAllValues().get(0).getCollectionName());
+    assertEquals(ANOTHER_COLLECTION, insertParams.getAllValues().get(1).getCollectionName());
+    assertEquals(ANOTHER_COLLECTION, insertParams.getAllValues().get(2).getCollectionName());
+  }
+
+  @Test
+  void testWritesAreRejectedAfterFailedBatch() {
+    when(milvusServiceClient.insert(any(InsertParam.class))).thenReturn(
+        R.failed(R.Status.Unknown, "some error"));
+    MilvusWriteBuffer writeBuffer = new MilvusWriteBuffer(milvusServiceClient, primaryKeys, 1,
+        100);
+
+    assertThrows(RuntimeException.class,
+        () -> writeBuffer.insert(SOME_COLLECTION, fields("someValue")));
+    assertThrows(IllegalStateException.class,
+        () -> writeBuffer.insert(ANOTHER_COLLECTION, fields("anotherValue")));
+    assertThrows(IllegalStateException.class, writeBuffer::flush);
+
+    // the failure is only reported once, the next run starts over
+    writeBuffer.flush();
+    verify(milvusServiceClient, never()).flush(any(FlushParam.class));
+  }
+
+  private List<Field> fields(String... values) {
+    return List.of(new InsertParam.Field("some_field", List.of(values)));
+  }
+}
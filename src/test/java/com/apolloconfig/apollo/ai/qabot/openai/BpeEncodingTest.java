@@ -0,0 +1,75 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.Lists;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BpeEncodingTest {
+
+  private static final byte[] CJK_BYTES = "中".getBytes(StandardCharsets.UTF_8);
+
+  private BpeEncoding encoding;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    StringBuilder tiktoken = new StringBuilder();
+    String singleBytes = "abc 12345'sit";
+    for (int i = 0; i < singleBytes.length(); i++) {
+      appendToken(tiktoken, singleBytes.substring(i, i + 1).getBytes(StandardCharsets.UTF_8), i);
+    }
+    for (int i = 0; i < CJK_BYTES.length; i++) {
+      appendToken(tiktoken, new byte[]{CJK_BYTES[i]}, 13 + i);
+    }
+    appendToken(tiktoken, "ab".getBytes(StandardCharsets.UTF_8), 20);
+    appendToken(tiktoken, "abc".getBytes(StandardCharsets.UTF_8), 21);
+    appendToken(tiktoken, "12".getBytes(StandardCharsets.UTF_8), 22);
+    appendToken(tiktoken, "123".getBytes(StandardCharsets.UTF_8), 23);
+    appendToken(tiktoken, new byte[]{CJK_BYTES[0], CJK_BYTES[1]}, 24);
+    appendToken(tiktoken, CJK_BYTES, 25);
+    appendToken(tiktoken, "it".getBytes(StandardCharsets.UTF_8), 26);
+
+    encoding = BpeEncoding.load(
+        new ByteArrayInputStream(tiktoken.toString().getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  @Test
+  void testMergeLowestRankFirst() {
+    assertEquals(Lists.newArrayList(21), encoding.encode("abc"));
+    // ab is merged twice before abc, the trailing ab has nothing left to merge with
+    assertEquals(Lists.newArrayList(21, 20), encoding.encode("abcab"));
+  }
+
+  @Test
+  void testSplitIntoPieces() {
+    // the space leads the second word, and the words are merged separately
+    assertEquals(Lists.newArrayList(21, 3, 21), encoding.encode("abc abc"));
+    // the digits are split into pieces of at most 3
+    assertEquals(Lists.newArrayList(23, 7, 8), encoding.encode("12345"));
+    assertEquals(Lists.newArrayList(26, 9, 10), encoding.encode("it's"));
+  }
+
+  @Test
+  void testMergeUtf8Bytes() {
+    assertEquals(Lists.newArrayList(25, 25), encoding.encode("中中"));
+    assertEquals(Lists.newArrayList(25, 3, 21), encoding.encode("中 abc"));
+  }
+
+  @Test
+  void testCountTokens() {
+    assertEquals(0, encoding.countTokens(""));
+    assertEquals(3, encoding.countTokens("abc abc"));
+    assertEquals(encoding.encode("abcab 12345 中").size(),
+        encoding.countTokens("abcab 12345 中"));
+  }
+
+  private void appendToken(StringBuilder tiktoken, byte[] token, int rank) {
+    tiktoken.append(Base64.getEncoder().encodeToString(token)).append(' ').append(rank)
+        .append('\n');
+  }
+}
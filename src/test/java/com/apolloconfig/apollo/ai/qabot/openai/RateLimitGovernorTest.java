@@ -0,0 +1,92 @@
+package com.apolloconfig.apollo.ai.qabot.openai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.apolloconfig.apollo.ai.qabot.config.OpenAiRateLimitConfig;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Headers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RateLimitGovernorTest {
+
+  private static final String SOME_ENDPOINT = "/v1/embeddings";
+
+  private final AtomicLong now = new AtomicLong();
+  private OpenAiRateLimitConfig openAiRateLimitConfig;
+  private RateLimitGovernor rateLimitGovernor;
+
+  @BeforeEach
+  void setUp() {
+    openAiRateLimitConfig = new OpenAiRateLimitConfig();
+    openAiRateLimitConfig.setRequestsPerMinute(60);
+    openAiRateLimitConfig.setTokensPerMinute(6000);
+    rateLimitGovernor = new RateLimitGovernor(openAiRateLimitConfig, now::get);
+  }
+
+  @Test
+  void testPaceByTokens() {
+    assertEquals(0, rateLimitGovernor.reserve(SOME_ENDPOINT, 6000));
+    // 100 tokens are refilled per second
+    assertEquals(TimeUnit.SECONDS.toNanos(1), rateLimitGovernor.reserve(SOME_ENDPOINT, 100));
+    assertEquals(TimeUnit.SECONDS.toNanos(2), rateLimitGovernor.reserve(SOME_ENDPOINT, 100));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+    assertEquals(TimeUnit.SECONDS.toNanos(1), rateLimitGovernor.reserve(SOME_ENDPOINT, 100));
+  }
+
+  @Test
+  void testPaceByRequests() {
+    for (int i = 0; i < 60; i++) {
+      assertEquals(0, rateLimitGovernor.reserve(SOME_ENDPOINT, 1));
+    }
+
+    assertEquals(TimeUnit.SECONDS.toNanos(1), rateLimitGovernor.reserve(SOME_ENDPOINT, 1));
+  }
+
+  @Test
+  void testEndpointsAreLimitedSeparately() {
+    assertEquals(0, rateLimitGovernor.reserve(SOME_ENDPOINT, 6000));
+
+    assertEquals(0, rateLimitGovernor.reserve("/v1/chat/completions", 6000));
+  }
+
+  @Test
+  void testUpdateFromHeaders() {
+    rateLimitGovernor.update(SOME_ENDPOINT, Headers.of(
+        "x-ratelimit-limit-tokens", "12000",
+        "x-ratelimit-remaining-tokens", "0",
+        "x-ratelimit-reset-tokens", "3s"));
+
+    assertEquals(TimeUnit.SECONDS.toNanos(4), rateLimitGovernor.reserve(SOME_ENDPOINT, 200));
+  }
+
+  @Test
+  void testRemainingHeaderNeverRaisesTheBudget() {
+    rateLimitGovernor.reserve(SOME_ENDPOINT, 6000);
+
+    rateLimitGovernor.update(SOME_ENDPOINT, Headers.of("x-ratelimit-remaining-tokens", "6000"));
+
+    assertEquals(TimeUnit.SECONDS.toNanos(1), rateLimitGovernor.reserve(SOME_ENDPOINT, 100));
+  }
+
+  @Test
+  void testDisabled() {
+    openAiRateLimitConfig.setEnabled(false);
+
+    assertEquals(0, rateLimitGovernor.reserve(SOME_ENDPOINT, 100000));
+  }
+
+  @Test
+  void testParseDuration() {
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(20), RateLimitGovernor.parseDuration("20ms"));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1500), RateLimitGovernor.parseDuration("1.5s"));
+    assertEquals(TimeUnit.SECONDS.toNanos(366), RateLimitGovernor.parseDuration("6m6s"));
+    assertEquals(TimeUnit.MINUTES.toNanos(61), RateLimitGovernor.parseDuration("1h1m"));
+    assertNull(RateLimitGovernor.parseDuration("soon"));
+    assertNull(RateLimitGovernor.parseDuration(null));
+  }
+}
@@ -0,0 +1,155 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.apolloconfig.apollo.ai.qabot.config.AdmissionConfig;
+import com.google.common.collect.Lists;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+class AdmissionLimiterTest {
+
+  private static final String SHED = "shed";
+
+  private final AtomicLong now = new AtomicLong();
+  private AdmissionConfig config;
+  private Sinks.Many<String> upstream;
+
+  @BeforeEach
+  void setUp() {
+    config = new AdmissionConfig();
+    config.setInitialLimit(1);
+    config.setQueueSize(1);
+    upstream = Sinks.many().unicast().onBackpressureBuffer();
+  }
+
+  @Test
+  void testQueueAndShed() {
+    AdmissionLimiter limiter = newLimiter();
+    AtomicBoolean anotherSubscribed = new AtomicBoolean();
+    List<String> anotherElements = new CopyOnWriteArrayList<>();
+
+    limiter.admit(sampler -> upstream.asFlux(), SHED).subscribe();
+    limiter.admit(sampler -> {
+      anotherSubscribed.set(true);
+      return Flux.just("another");
+    }, SHED).subscribe(anotherElements::add);
+
+    assertFalse(anotherSubscribed.get());
+    assertEquals(1, limiter.waiting());
+    // the queue is full
+    assertEquals(Lists.newArrayList(SHED),
+        limiter.admit(sampler -> Flux.just("yetAnother"), SHED).collectList().block());
+
+    upstream.tryEmitComplete();
+
+    assertEquals(Lists.newArrayList("another"), anotherElements);
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  void testShedAfterQueueTimeout() {
+    config.setQueueTimeoutMillis(50);
+    AdmissionLimiter limiter = newLimiter();
+
+    limiter.admit(sampler -> upstream.asFlux(), SHED).subscribe();
+
+    assertEquals(SHED, limiter.admit(sampler -> Flux.just("another"), SHED)
+        .blockFirst(Duration.ofSeconds(5)));
+    assertEquals(0, limiter.waiting());
+  }
+
+  @Test
+  void testCancelWaiter() {
+    AdmissionLimiter limiter = newLimiter();
+
+    limiter.admit(sampler -> upstream.asFlux(), SHED).subscribe();
+    Disposable another = limiter.admit(sampler -> Flux.just("another"), SHED).subscribe();
+    another.dispose();
+
+    assertEquals(0, limiter.waiting());
+
+    upstream.tryEmitComplete();
+
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  void testIncreaseLimitOnFastFirstTokens() {
+    config.setInitialLimit(2);
+    AdmissionLimiter limiter = newLimiter();
+
+    for (int i = 0; i < 3; i++) {
+      limiter.admit(sampler -> sampler.sample(Flux.just("token")), SHED).blockLast();
+    }
+
+    // 2 + 1 / 2 + 1 / 2.5 + 1 / 2.9
+    assertEquals(3, limiter.limit());
+  }
+
+  @Test
+  void testOnlySampleUpstreamCalls() {
+    config.setInitialLimit(2);
+    config.setMinLimit(1);
+    AdmissionLimiter limiter = newLimiter();
+
+    // e.g. the cached answers, which never call the upstream
+    for (int i = 0; i < 3; i++) {
+      limiter.admit(sampler -> Flux.just("cached"), SHED).blockLast();
+    }
+
+    assertEquals(2, limiter.limit());
+
+    // only the first token of the upstream call is sampled, however late it comes
+    limiter.admit(sampler -> Flux.just("prefix").concatWith(sampler.sample(Flux.defer(() -> {
+      now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+      return Flux.just("token", "anotherToken");
+    })).concatWith(sampler.sample(Flux.just("lateToken")))), SHED).blockLast();
+
+    assertEquals(1, limiter.limit());
+  }
+
+  @Test
+  void testBackoffOnSlowFirstTokenAndFailure() {
+    config.setInitialLimit(10);
+    AdmissionLimiter limiter = newLimiter();
+
+    limiter.admit(sampler -> sampler.sample(Flux.defer(() -> {
+      now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+      return Flux.just("token");
+    })), SHED).blockLast();
+
+    assertEquals(7, limiter.limit());
+
+    // cut at most once per target time to first token
+    failOnce(limiter);
+
+    assertEquals(7, limiter.limit());
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(5));
+    failOnce(limiter);
+
+    assertEquals(4, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  private void failOnce(AdmissionLimiter limiter) {
+    limiter.admit(sampler -> Flux.<String>error(new RuntimeException("some exception")), SHED)
+        .onErrorResume(ex -> Flux.empty()).blockLast();
+  }
+
+  private AdmissionLimiter newLimiter() {
+    return new AdmissionLimiter(config, now::get, Schedulers.parallel());
+  }
+}
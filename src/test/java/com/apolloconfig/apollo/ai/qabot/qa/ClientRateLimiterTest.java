@@ -0,0 +1,123 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.apolloconfig.apollo.ai.qabot.config.ClientRateLimitConfig;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+class ClientRateLimiterTest {
+
+  private static final String SOME_CLIENT = "203.0.113.7";
+  private static final String ANOTHER_CLIENT = "198.51.100.1";
+
+  private final AtomicLong now = new AtomicLong();
+  private ClientRateLimitConfig config;
+
+  @BeforeEach
+  void setUp() {
+    config = new ClientRateLimitConfig();
+    config.setEnabled(true);
+    config.setQuestionsPerMinute(6);
+    config.setBurst(2);
+  }
+
+  @Test
+  void testLimitEachClient() {
+    ClientRateLimiter limiter = newLimiter();
+
+    assertEquals(0, limiter.tryAcquire(SOME_CLIENT));
+    assertEquals(0, limiter.tryAcquire(SOME_CLIENT));
+    // one question is refilled every 10 seconds
+    assertEquals(10, limiter.tryAcquire(SOME_CLIENT));
+    assertEquals(0, limiter.tryAcquire(ANOTHER_CLIENT));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(4));
+
+    assertEquals(6, limiter.tryAcquire(SOME_CLIENT));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+
+    assertEquals(0, limiter.tryAcquire(SOME_CLIENT));
+    assertEquals(10, limiter.tryAcquire(SOME_CLIENT));
+  }
+
+  @Test
+  void testForgetLeastRecentlySeenClients() {
+    config.setMaxClients(640);
+    ClientRateLimiter limiter = newLimiter();
+
+    for (int i = 0; i < 10000; i++) {
+      limiter.tryAcquire("client" + i);
+    }
+
+    assertTrue(limiter.size() <= 640);
+    // the last client is still tracked
+    limiter.tryAcquire("client9999");
+    assertEquals(10, limiter.tryAcquire("client9999"));
+  }
+
+  @Test
+  void testClientId() throws Exception {
+    config.setClientIdHeader("X-Forwarded-For");
+    ClientRateLimiter limiter = newLimiter();
+
+    assertEquals(SOME_CLIENT, limiter.clientId(MockServerHttpRequest.get("/qa")
+        .header("X-Forwarded-For", "10.0.0.1, " + SOME_CLIENT).build()));
+    assertEquals(InetAddress.getByName(ANOTHER_CLIENT), limiter.clientId(
+        MockServerHttpRequest.get("/qa").remoteAddress(new InetSocketAddress(ANOTHER_CLIENT, 443))
+            .build()));
+  }
+
+  @Test
+  void testForgedForwardedForHitsSameBucket() {
+    config.setClientIdHeader("X-Forwarded-For");
+    ClientRateLimiter limiter = newLimiter();
+
+    for (int i = 0; i < 2; i++) {
+      assertEquals(0, limiter.tryAcquire(forwardedFor("forged" + i + ", " + SOME_CLIENT)));
+    }
+
+    assertEquals(10, limiter.tryAcquire(forwardedFor("forged2, " + SOME_CLIENT)));
+  }
+
+  @Test
+  void testClientIdBehindTrustedProxies() {
+    config.setClientIdHeader("X-Forwarded-For");
+    config.setTrustedProxies(2);
+    ClientRateLimiter limiter = newLimiter();
+
+    assertEquals(SOME_CLIENT, limiter.clientId(
+        forwardedFor("forged, " + SOME_CLIENT + ", " + ANOTHER_CLIENT)));
+    // the header lines are appended in order
+    assertEquals(SOME_CLIENT, limiter.clientId(MockServerHttpRequest.get("/qa")
+        .header("X-Forwarded-For", "forged", SOME_CLIENT)
+        .header("X-Forwarded-For", ANOTHER_CLIENT).build()));
+    // fewer entries than the trusted proxies
+    assertEquals(ANOTHER_CLIENT, limiter.clientId(forwardedFor(ANOTHER_CLIENT)));
+  }
+
+  @Test
+  void testDisabled() {
+    config.setEnabled(false);
+    ClientRateLimiter limiter = newLimiter();
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire(MockServerHttpRequest.get("/qa").build()));
+    }
+  }
+
+  private MockServerHttpRequest forwardedFor(String value) {
+    return MockServerHttpRequest.get("/qa").header("X-Forwarded-For", value).build();
+  }
+
+  private ClientRateLimiter newLimiter() {
+    return new ClientRateLimiter(config, now::get);
+  }
+}
@@ -0,0 +1,118 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import com.apolloconfig.apollo.ai.qabot.api.VectorDBService;
+import com.apolloconfig.apollo.ai.qabot.config.LexicalIndexConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownFileIndexedEvent;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.scheduler.Schedulers;
+
+@ExtendWith(MockitoExtension.class)
+class LexicalIndexTest {
+
+  private static final String SOME_FILE_ROOT = "/en/someFile";
+  private static final String ANOTHER_FILE_ROOT = "/zh/anotherFile";
+
+  @Mock
+  private VectorDBService vectorDBService;
+
+  private LexicalIndexConfig config;
+  private LexicalIndex lexicalIndex;
+
+  @BeforeEach
+  void setUp() {
+    config = new LexicalIndexConfig();
+    lexicalIndex = new LexicalIndex(config, vectorDBService, Schedulers.immediate());
+  }
+
+  @Test
+  void testTokenize() {
+    assertEquals(Lists.newArrayList("set", "apollo.meta", "apollo", "meta", "err-42", "err", "42"),
+        LexicalIndex.tokenize("Set apollo.meta, ERR-42."));
+    assertEquals(Lists.newArrayList("如何", "何配", "配置", "apollo.meta", "apollo", "meta"),
+        LexicalIndex.tokenize("如何配置apollo.meta"));
+  }
+
+  @Test
+  void testSearchExactIdentifier() {
+    index(SOME_FILE_ROOT, "How to configure the meta server of apollo",
+        "Set apollo.meta in the server.properties to the meta server address");
+    index(ANOTHER_FILE_ROOT, "Apollo is a configuration management system");
+
+    List<MarkdownSearchResult> results = lexicalIndex.search("what is apollo.meta", 3);
+
+    assertEquals("Set apollo.meta in the server.properties to the meta server address",
+        results.get(0).getContent());
+    assertEquals(SOME_FILE_ROOT, results.get(0).getFileRoot());
+  }
+
+  @Test
+  void testSearchCjk() {
+    index(SOME_FILE_ROOT, "Apollo supports gray release");
+    index(ANOTHER_FILE_ROOT, "灰度发布可以让配置先在部分实例生效", "配置中心的架构设计");
+
+    List<MarkdownSearchResult> results = lexicalIndex.search("如何灰度发布", 3);
+
+    assertEquals(1, results.size());
+    assertEquals("灰度发布可以让配置先在部分实例生效", results.get(0).getContent());
+  }
+
+  @Test
+  void testReplaceAndRemoveFile() {
+    index(SOME_FILE_ROOT, "some outdated content");
+    index(SOME_FILE_ROOT, "some updated content");
+
+    assertEquals(Lists.newArrayList("some updated content"), contents("outdated updated"));
+
+    index(SOME_FILE_ROOT);
+
+    assertTrue(lexicalIndex.search("updated", 3).isEmpty());
+  }
+
+  @Test
+  void testLoadSkipsFilesIndexedWhileLoading() {
+    when(vectorDBService.queryAllChunkContents()).thenAnswer(invocation -> {
+      // the file is re-indexed after the chunks are queried
+      index(SOME_FILE_ROOT, "some updated content");
+      return ImmutableMap.of(SOME_FILE_ROOT, Lists.newArrayList("some outdated content"),
+          ANOTHER_FILE_ROOT, Lists.newArrayList("another content"));
+    });
+
+    lexicalIndex.load();
+
+    assertEquals(Lists.newArrayList("some updated content"), contents("outdated updated"));
+    assertEquals(Lists.newArrayList("another content"), contents("another"));
+  }
+
+  @Test
+  void testDisabled() {
+    config.setEnabled(false);
+
+    index(SOME_FILE_ROOT, "some content");
+
+    assertEquals(Collections.emptyList(), lexicalIndex.search("some", 3));
+  }
+
+  private void index(String fileRoot, String... contents) {
+    lexicalIndex.onMarkdownFileIndexed(
+        new MarkdownFileIndexedEvent(fileRoot, Lists.newArrayList(contents)));
+  }
+
+  private List<String> contents(String query) {
+    return lexicalIndex.search(query, 3).stream().map(MarkdownSearchResult::getContent)
+        .collect(Collectors.toList());
+  }
+}
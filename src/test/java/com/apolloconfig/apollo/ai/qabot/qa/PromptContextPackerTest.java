@@ -0,0 +1,103 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.apolloconfig.apollo.ai.qabot.config.PromptContextConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownSearchResult;
+import com.apolloconfig.apollo.ai.qabot.qa.PromptContextPacker.PackedContext;
+import com.google.common.collect.Lists;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PromptContextPackerTest {
+
+  private static final String SOME_PROMPT = "somePrompt";
+
+  private PromptContextConfig config;
+  private PromptContextPacker packer;
+
+  @BeforeEach
+  void setUp() {
+    config = new PromptContextConfig();
+    // one token per character
+    packer = new PromptContextPacker(config, String::length);
+  }
+
+  @Test
+  void testPack() {
+    MarkdownSearchResult someResult = new MarkdownSearchResult("someFileRoot", "some content");
+    MarkdownSearchResult anotherResult = new MarkdownSearchResult("anotherFileRoot",
+        "another content");
+
+    PackedContext packed = packer.pack(Lists.newArrayList(someResult, anotherResult),
+        SOME_PROMPT);
+
+    assertEquals("some content\nanother content\n", packed.context());
+    assertEquals(Lists.newArrayList(someResult, anotherResult), packed.chunks());
+    assertEquals(29, packed.contextTokens());
+    assertEquals(SOME_PROMPT.length() + 29, packed.promptTokens());
+    assertFalse(packed.truncated());
+  }
+
+  @Test
+  void testDropNearDuplicates() {
+    MarkdownSearchResult someResult = new MarkdownSearchResult("/en/someFile",
+        "Apollo supports the gray release of configs.");
+    MarkdownSearchResult duplicateResult = new MarkdownSearchResult("/en/anotherFile",
+        "Apollo supports the gray release of the configs!");
+    MarkdownSearchResult anotherResult = new MarkdownSearchResult("/en/anotherFile",
+        "Apollo supports the rollback of configs.");
+
+    PackedContext packed = packer.pack(
+        Lists.newArrayList(someResult, duplicateResult, anotherResult), SOME_PROMPT);
+
+    assertEquals(Lists.newArrayList(someResult, anotherResult), packed.chunks());
+    assertEquals(1, packed.nearDuplicates());
+  }
+
+  @Test
+  void testTruncateAtSentenceBoundary() {
+    MarkdownSearchResult someResult = new MarkdownSearchResult("someFileRoot", "First chunk.");
+    MarkdownSearchResult anotherResult = new MarkdownSearchResult("anotherFileRoot",
+        "One sentence. Two sentences. Three");
+    config.setMaxPromptTokens(SOME_PROMPT.length() + 13 + 30);
+
+    PackedContext packed = packer.pack(Lists.newArrayList(someResult, anotherResult),
+        SOME_PROMPT);
+
+    assertEquals("First chunk.\nOne sentence. Two sentences.\n", packed.context());
+    assertEquals(Lists.newArrayList(someResult, anotherResult), packed.chunks());
+    assertTrue(packed.truncated());
+  }
+
+  @Test
+  void testTruncateCjkSentences() {
+    MarkdownSearchResult someResult = new MarkdownSearchResult("someFileRoot",
+        "灰度发布。配置回滚。");
+    config.setMaxPromptTokens(SOME_PROMPT.length() + 7);
+
+    PackedContext packed = packer.pack(Lists.newArrayList(someResult), SOME_PROMPT);
+
+    assertEquals("灰度发布。\n", packed.context());
+    assertTrue(packed.truncated());
+  }
+
+  @Test
+  void testDropChunkWithoutFittingSentence() {
+    MarkdownSearchResult someResult = new MarkdownSearchResult("someFileRoot", "First chunk.");
+    MarkdownSearchResult anotherResult = new MarkdownSearchResult("anotherFileRoot",
+        "A long first sentence. Short.");
+    MarkdownSearchResult yetAnotherResult = new MarkdownSearchResult("yetAnotherFileRoot", "Fits.");
+    config.setMaxPromptTokens(SOME_PROMPT.length() + 13 + 10);
+
+    PackedContext packed = packer.pack(
+        Lists.newArrayList(someResult, anotherResult, yetAnotherResult), SOME_PROMPT);
+
+    // the lower ranked chunks are not packed in place of the overflowing one
+    assertEquals(Lists.newArrayList(someResult), packed.chunks());
+    assertEquals("First chunk.\n", packed.context());
+    assertFalse(packed.truncated());
+  }
+}
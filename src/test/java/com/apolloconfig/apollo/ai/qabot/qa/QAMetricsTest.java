@@ -0,0 +1,83 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.apolloconfig.apollo.ai.qabot.config.AdmissionConfig;
+import com.apolloconfig.apollo.ai.qabot.qa.QAMetrics.Result;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.simple.SimpleConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class QAMetricsTest {
+
+  private MockClock clock;
+  private SimpleMeterRegistry registry;
+  // the gauges only hold a weak reference to it
+  private AdmissionLimiter admissionLimiter;
+  private QAMetrics qaMetrics;
+
+  @BeforeEach
+  void setUp() {
+    clock = new MockClock();
+    registry = new SimpleMeterRegistry(SimpleConfig.DEFAULT, clock);
+    admissionLimiter = new AdmissionLimiter(new AdmissionConfig());
+    qaMetrics = new QAMetrics(registry, admissionLimiter);
+  }
+
+  @Test
+  void testTimeCompletion() {
+    Flux<String> completion = Flux.defer(() -> {
+      clock.add(Duration.ofMillis(100));
+      return Flux.just("some", "another");
+    }).concatWith(Mono.fromRunnable(() -> clock.add(Duration.ofSeconds(1))));
+
+    qaMetrics.timeCompletion(completion).blockLast();
+
+    assertEquals(100, registry.get("qa.time.to.first.token").timer()
+        .totalTime(TimeUnit.MILLISECONDS));
+    assertEquals(1100, registry.get("qa.stream.duration").tag("outcome", "complete").timer()
+        .totalTime(TimeUnit.MILLISECONDS));
+    assertEquals(2, registry.get("qa.completion.tokens").counter().count());
+  }
+
+  @Test
+  void testTimeFailedEmbedding() {
+    Mono<String> embedding = Mono.defer(() -> {
+      clock.add(Duration.ofMillis(200));
+      return Mono.<String>error(new RuntimeException("some exception"));
+    });
+
+    assertThrows(RuntimeException.class, () -> qaMetrics.timeEmbedding(embedding).block());
+
+    assertEquals(1, registry.get("qa.embedding").timer().count());
+    assertEquals(200, registry.get("qa.embedding").timer().totalTime(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  void testCountAnswersAndTokens() {
+    qaMetrics.countAnswer(Result.UNKNOWN);
+    qaMetrics.countAnswer(Result.RATE_LIMITED);
+    qaMetrics.countAnswer(Result.RATE_LIMITED);
+    qaMetrics.recordPromptTokens(300);
+    qaMetrics.recordChunksRetrieved(3);
+
+    assertEquals(1, registry.get("qa.answers").tag("result", "unknown").counter().count());
+    assertEquals(2, registry.get("qa.answers").tag("result", "rate_limited").counter().count());
+    assertEquals(0, registry.get("qa.answers").tag("result", "answered").counter().count());
+    assertEquals(300, registry.get("qa.prompt.tokens").counter().count());
+    assertEquals(3, registry.get("qa.chunks.retrieved").summary().totalAmount());
+  }
+
+  @Test
+  void testAdmissionGauges() {
+    assertEquals(16, registry.get("qa.admission.limit").gauge().value());
+    assertEquals(0, registry.get("qa.admission.in.flight").gauge().value());
+  }
+}
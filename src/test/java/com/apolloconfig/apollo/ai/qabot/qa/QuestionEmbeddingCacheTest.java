@@ -0,0 +1,45 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.apolloconfig.apollo.ai.qabot.config.QuestionEmbeddingCacheConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class QuestionEmbeddingCacheTest {
+
+  private QuestionEmbeddingCacheConfig config;
+
+  @BeforeEach
+  void setUp() {
+    config = new QuestionEmbeddingCacheConfig();
+    config.setMaximumSize(10);
+    config.setExpireAfterWrite(60000);
+  }
+
+  @Test
+  void testGetWithNormalizedQuestion() {
+    QuestionEmbeddingCache cache = new QuestionEmbeddingCache(config);
+    float[] someEmbedding = new float[]{1.0f, 2.0f};
+
+    cache.put("How to configure  Apollo meta server", someEmbedding);
+
+    assertArrayEquals(someEmbedding,
+        cache.getIfPresent("  how to\tconfigure apollo META server "));
+    assertNull(cache.getIfPresent("how to configure apollo portal"));
+    assertEquals(1, cache.stats().hitCount());
+    assertEquals(1, cache.stats().missCount());
+  }
+
+  @Test
+  void testGetWhenDisabled() {
+    config.setEnabled(false);
+    QuestionEmbeddingCache cache = new QuestionEmbeddingCache(config);
+
+    cache.put("someQuestion", new float[]{1.0f});
+
+    assertNull(cache.getIfPresent("someQuestion"));
+  }
+}
@@ -0,0 +1,68 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.apolloconfig.apollo.ai.qabot.config.SemanticAnswerCacheConfig;
+import com.apolloconfig.apollo.ai.qabot.markdown.MarkdownFileIndexedEvent;
+import com.apolloconfig.apollo.ai.qabot.qa.SemanticAnswerCache.CachedAnswer;
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SemanticAnswerCacheTest {
+
+  private SemanticAnswerCache semanticAnswerCache;
+
+  private final String someFileRoot = "/en/someFile";
+
+  @BeforeEach
+  void setUp() {
+    SemanticAnswerCacheConfig config = new SemanticAnswerCacheConfig();
+    config.setMaximumSize(10);
+    config.setExpireAfterWrite(60000);
+    config.setSimilarityThreshold(0.95);
+    semanticAnswerCache = new SemanticAnswerCache(config);
+  }
+
+  @Test
+  void testLookupSimilarQuestion() {
+    semanticAnswerCache.put("someQuestion", new float[]{1.0f, 0.0f}, "someAnswer",
+        Sets.newHashSet(someFileRoot), semanticAnswerCache.generation());
+
+    CachedAnswer cachedAnswer = semanticAnswerCache.lookup(new float[]{2.0f, 0.1f});
+
+    assertNotNull(cachedAnswer);
+    assertEquals("someAnswer", cachedAnswer.answer());
+    assertEquals(Sets.newHashSet(someFileRoot), cachedAnswer.relatedFiles());
+    assertNull(semanticAnswerCache.lookup(new float[]{1.0f, 1.0f}));
+  }
+
+  @Test
+  void testInvalidateOnFileIndexed() {
+    semanticAnswerCache.put("someQuestion", new float[]{1.0f, 0.0f}, "someAnswer",
+        Sets.newHashSet(someFileRoot), semanticAnswerCache.generation());
+    semanticAnswerCache.put("anotherQuestion", new float[]{0.0f, 1.0f}, "anotherAnswer",
+        Sets.newHashSet("/en/anotherFile"), semanticAnswerCache.generation());
+
+    semanticAnswerCache.onMarkdownFileIndexed(new MarkdownFileIndexedEvent(someFileRoot,
+        Collections.emptyList()));
+
+    assertNull(semanticAnswerCache.lookup(new float[]{1.0f, 0.0f}));
+    assertNotNull(semanticAnswerCache.lookup(new float[]{0.0f, 1.0f}));
+  }
+
+  @Test
+  void testSkipAnswerGeneratedBeforeInvalidation() {
+    long generation = semanticAnswerCache.generation();
+
+    semanticAnswerCache.onMarkdownFileIndexed(new MarkdownFileIndexedEvent(someFileRoot,
+        Collections.emptyList()));
+    semanticAnswerCache.put("someQuestion", new float[]{1.0f, 0.0f}, "someAnswer",
+        Sets.newHashSet(someFileRoot), generation);
+
+    assertNull(semanticAnswerCache.lookup(new float[]{1.0f, 0.0f}));
+  }
+}
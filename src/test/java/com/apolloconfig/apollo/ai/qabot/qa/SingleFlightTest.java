@@ -0,0 +1,116 @@
+package com.apolloconfig.apollo.ai.qabot.qa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.Lists;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+class SingleFlightTest {
+
+  private static final String SOME_KEY = "someKey";
+  private static final String ANOTHER_KEY = "anotherKey";
+
+  private SingleFlight<String> singleFlight;
+  private Sinks.Many<String> upstream;
+  private AtomicInteger upstreamCalls;
+
+  @BeforeEach
+  void setUp() {
+    singleFlight = new SingleFlight<>();
+    upstream = Sinks.many().unicast().onBackpressureBuffer();
+    upstreamCalls = new AtomicInteger();
+  }
+
+  @Test
+  void testCoalesceConcurrentCalls() {
+    List<String> someElements = new CopyOnWriteArrayList<>();
+    List<String> anotherElements = new CopyOnWriteArrayList<>();
+
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe(someElements::add);
+    upstream.tryEmitNext("some");
+    // the late joiner gets the elements emitted before it joined
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe(anotherElements::add);
+    upstream.tryEmitNext("another");
+    upstream.tryEmitComplete();
+
+    assertEquals(1, upstreamCalls.get());
+    assertEquals(Lists.newArrayList("some", "another"), someElements);
+    assertEquals(Lists.newArrayList("some", "another"), anotherElements);
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  void testStartNewFlightAfterCompletion() {
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe();
+    upstream.tryEmitComplete();
+
+    List<String> elements = singleFlight.execute(SOME_KEY, () -> {
+      upstreamCalls.incrementAndGet();
+      return Flux.just("yetAnother");
+    }).collectList().block();
+
+    assertEquals(2, upstreamCalls.get());
+    assertEquals(Lists.newArrayList("yetAnother"), elements);
+  }
+
+  @Test
+  void testNotCoalesceDifferentKeys() {
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe();
+    singleFlight.execute(ANOTHER_KEY, () -> {
+      upstreamCalls.incrementAndGet();
+      return Flux.never();
+    }).subscribe();
+
+    assertEquals(2, upstreamCalls.get());
+    assertEquals(2, singleFlight.size());
+  }
+
+  @Test
+  void testShareError() {
+    RuntimeException someException = new RuntimeException("some exception");
+    AtomicReference<Throwable> someError = new AtomicReference<>();
+    AtomicReference<Throwable> anotherError = new AtomicReference<>();
+
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe(null, someError::set);
+    singleFlight.execute(SOME_KEY, this::callUpstream).subscribe(null, anotherError::set);
+    upstream.tryEmitError(someException);
+
+    assertEquals(1, upstreamCalls.get());
+    assertSame(someException, someError.get());
+    assertSame(someException, anotherError.get());
+    assertEquals(0, singleFlight.size());
+  }
+
+  @Test
+  void testCancelUpstreamOnceAllCallersCancelled() {
+    AtomicBoolean cancelled = new AtomicBoolean();
+
+    Disposable some = singleFlight.execute(SOME_KEY,
+        () -> callUpstream().doOnCancel(() -> cancelled.set(true))).subscribe();
+    Disposable another = singleFlight.execute(SOME_KEY, this::callUpstream).subscribe();
+    some.dispose();
+
+    assertEquals(1, singleFlight.size());
+
+    another.dispose();
+
+    assertTrue(cancelled.get());
+    assertEquals(0, singleFlight.size());
+  }
+
+  private Flux<String> callUpstream() {
+    upstreamCalls.incrementAndGet();
+    return upstream.asFlux();
+  }
+}